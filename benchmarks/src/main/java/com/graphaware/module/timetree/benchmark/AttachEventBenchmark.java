@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.benchmark;
+
+import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.TimeTree;
+import com.graphaware.module.timetree.TimeTreeBackedEvents;
+import com.graphaware.module.timetree.TimedEvents;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransientFailureException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.graphaware.module.timetree.benchmark.BenchmarkDatabase.*;
+
+/**
+ * Benchmark of {@link TimedEvents#attachEvent(Node, org.neo4j.graphdb.RelationshipType, Direction, TimeInstant)} from
+ * many threads at once. Each operation creates an event and attaches it to one of a number of hot instants, in its own
+ * transaction. Run with a different number of threads using <code>-t</code>. The hot instants exist before the
+ * measurement starts, so that attaching can be compared with merely getting them, which takes no locks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(8)
+public class AttachEventBenchmark {
+
+    @Param({"1", "100"})
+    public int hotInstants;
+
+    @Param({"0", "16"})
+    public int buckets;
+
+    private BenchmarkDatabase database;
+    private TimeTree timeTree;
+    private TimedEvents timedEvents;
+    private final LongAdder transientFailures = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        timeTree = new SingleTimeTree(database.getDatabase());
+        timedEvents = new TimeTreeBackedEvents(timeTree, buckets);
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            for (int i = 0; i < hotInstants; i++) {
+                timeTree.getOrCreateInstant(TimeInstant.instant(START + i * unitMillis(Resolution.MINUTE)).with(Resolution.MINUTE));
+            }
+            tx.success();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (transientFailures.sum() > 0) {
+            System.out.println("Transient failures (e.g. deadlocks): " + transientFailures.sum());
+        }
+        database.close();
+    }
+
+    @Benchmark
+    public void attachEvent(Blackhole blackhole) {
+        long time = START + ThreadLocalRandom.current().nextInt(hotInstants) * unitMillis(Resolution.MINUTE);
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            Node event = database.getDatabase().createNode(EVENT);
+            event.setProperty(TIMESTAMP, time);
+            blackhole.consume(timedEvents.attachEvent(event, AT_TIME, Direction.INCOMING, TimeInstant.instant(time).with(Resolution.MINUTE)));
+            tx.success();
+        } catch (TransientFailureException e) {
+            transientFailures.increment();
+        }
+    }
+
+    @Benchmark
+    public Node getOrCreateInstant() {
+        long time = START + ThreadLocalRandom.current().nextInt(hotInstants) * unitMillis(Resolution.MINUTE);
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            Node instant = timeTree.getOrCreateInstant(TimeInstant.instant(time).with(Resolution.MINUTE));
+            tx.success();
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.benchmark;
+
+import com.graphaware.module.timetree.domain.Resolution;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.ISOChronology;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Embedded database in a temporary directory, used by the benchmarks. The directory is deleted when the database is closed.
+ */
+public class BenchmarkDatabase implements AutoCloseable {
+
+    /**
+     * Start of all the data generated by the benchmarks, so that results are comparable across releases.
+     */
+    public static final long START = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+
+    public static final Label EVENT = Label.label("Event");
+    public static final RelationshipType AT_TIME = RelationshipType.withName("AT_TIME");
+    public static final String TIMESTAMP = "timestamp";
+
+    private final Path directory;
+    private final GraphDatabaseService database;
+
+    public BenchmarkDatabase() {
+        try {
+            directory = Files.createTempDirectory("timetree-benchmark");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        database = new GraphDatabaseFactory().newEmbeddedDatabase(directory.toFile());
+    }
+
+    public GraphDatabaseService getDatabase() {
+        return database;
+    }
+
+    /**
+     * Get the length of a period at the given resolution.
+     *
+     * @param resolution of the period.
+     * @return length in ms (average for months and years).
+     */
+    public static long unitMillis(Resolution resolution) {
+        return resolution.getDateTimeFieldType().getDurationType().getField(ISOChronology.getInstanceUTC()).getUnitMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        database.shutdown();
+
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.benchmark;
+
+import com.graphaware.module.timetree.domain.CalendarArithmetic;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.MutableDateTime;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.timetree.benchmark.BenchmarkDatabase.START;
+
+/**
+ * Benchmark of the calendar arithmetic on the hot paths of the time tree, comparing {@link CalendarArithmetic} to the
+ * Joda objects it replaces: reading the value of every level of a time, as the descent from the root does, and
+ * enumerating the times of a range, as range lookups do. No database is involved. Run with {@code -prof gc} to see the
+ * allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CalendarArithmeticBenchmark {
+
+    private static final int TIMES = 1024;
+    private static final Resolution[] LEVELS = Resolution.values();
+
+    @Param({"UTC", "Europe/London"})
+    public String zone;
+
+    @Param({"HOUR"})
+    public Resolution resolution;
+
+    @Param({"168"})
+    public int rangeLength;
+
+    private DateTimeZone timezone;
+    private final long[] times = new long[TIMES];
+    private int time = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        timezone = DateTimeZone.forID(zone);
+
+        Random random = new Random(42);
+        for (int i = 0; i < TIMES; i++) {
+            times[i] = START + (long) (random.nextDouble() * 5L * 365 * 24 * 3600 * 1000);
+        }
+    }
+
+    @Benchmark
+    public void descentFieldsJoda(Blackhole blackhole) {
+        DateTime dateTime = new DateTime(times[time++ % TIMES], timezone);
+        for (Resolution level : LEVELS) {
+            blackhole.consume(dateTime.get(level.getDateTimeFieldType()));
+        }
+    }
+
+    @Benchmark
+    public void descentFieldsPrimitive(Blackhole blackhole) {
+        long localTime = CalendarArithmetic.toLocal(times[time++ % TIMES], timezone);
+        for (Resolution level : LEVELS) {
+            blackhole.consume(CalendarArithmetic.get(localTime, level));
+        }
+    }
+
+    @Benchmark
+    public void rangeJoda(Blackhole blackhole) {
+        long start = times[time++ % TIMES];
+        MutableDateTime end = new MutableDateTime(start);
+        end.add(resolution.getDateTimeFieldType().getDurationType(), rangeLength);
+        TimeInstant endInstant = TimeInstant.instant(end.getMillis()).with(timezone).with(resolution);
+
+        TimeInstant current = TimeInstant.instant(start).with(timezone).with(resolution);
+        while (!current.isAfter(endInstant)) {
+            blackhole.consume(new DateTime(current.getTime(), timezone).get(resolution.getDateTimeFieldType()));
+            MutableDateTime next = new MutableDateTime(current.getTime());
+            next.add(resolution.getDateTimeFieldType().getDurationType(), 1);
+            current = TimeInstant.instant(next.getMillis()).with(timezone).with(resolution);
+        }
+    }
+
+    @Benchmark
+    public void rangePrimitive(Blackhole blackhole) {
+        long start = times[time++ % TIMES];
+        long end = CalendarArithmetic.add(start, DateTimeZone.getDefault(), resolution, rangeLength);
+
+        for (long current = start; current <= end; current = TimeInstant.next(current, resolution)) {
+            blackhole.consume(CalendarArithmetic.get(CalendarArithmetic.toLocal(current, timezone), resolution));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.benchmark;
+
+import com.graphaware.module.timetree.*;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransientFailureException;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.graphaware.module.timetree.benchmark.BenchmarkDatabase.*;
+
+/**
+ * Multi-threaded load harness for {@link SingleTimeTree} and {@link TimeTreeBackedEvents}. For each configured number
+ * of threads, a fresh database is loaded for a fixed time by threads that create events and attach them to random
+ * instants (creating the instants as needed), and randomly get or create instants without attaching anything, each
+ * operation in its own transaction. Throughput, latency percentiles and the number of deadlocks are reported, and
+ * the invariants of the resulting tree are checked by {@link TreeInvariantChecker}.
+ * <p>
+ * Configured by system properties:
+ * <ul>
+ * <li><code>threads</code>: comma-separated numbers of threads, defaults to 1,2,4,8,16,32,64</li>
+ * <li><code>duration</code>: seconds to run each number of threads for, defaults to 10</li>
+ * <li><code>window</code>: number of seconds (i.e. second instants) that events are spread over, defaults to 3600</li>
+ * <li><code>attachRatio</code>: fraction of operations that attach an event, defaults to 0.8</li>
+ * <li><code>buckets</code>: number of event buckets per instant, defaults to 0</li>
+ * <li><code>singleWriter</code>: use {@link SingleWriterTimeTree}, defaults to false</li>
+ * <li><code>seed</code>: random seed, defaults to 42</li>
+ * </ul>
+ * Run with <code>java -cp target/benchmarks.jar com.graphaware.module.timetree.benchmark.ConcurrencyStress</code>.
+ */
+public class ConcurrencyStress {
+
+    private final int duration = Integer.getInteger("duration", 10);
+    private final int window = Integer.getInteger("window", 3600);
+    private final double attachRatio = Double.parseDouble(System.getProperty("attachRatio", "0.8"));
+    private final int buckets = Integer.getInteger("buckets", 0);
+    private final boolean singleWriter = Boolean.getBoolean("singleWriter");
+    private final long seed = Long.getLong("seed", 42);
+
+    public static void main(String[] args) throws Exception {
+        int[] threads = Arrays.stream(System.getProperty("threads", "1,2,4,8,16,32,64").split(",")).mapToInt(t -> Integer.parseInt(t.trim())).toArray();
+
+        ConcurrencyStress stress = new ConcurrencyStress();
+        System.out.println(String.format("%8s %10s %10s %10s %10s %10s %10s %10s", "threads", "ops", "ops/sec", "p50 us", "p99 us", "deadlocks", "failures", "violations"));
+
+        boolean valid = true;
+        for (int threadCount : threads) {
+            valid &= stress.run(threadCount);
+        }
+
+        System.exit(valid ? 0 : 1);
+    }
+
+    private boolean run(int threadCount) throws Exception {
+        try (BenchmarkDatabase database = new BenchmarkDatabase()) {
+            ExecutorService writerExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            TimeTree timeTree = new SingleTimeTree(database.getDatabase());
+            if (singleWriter) {
+                timeTree = new SingleWriterTimeTree(database.getDatabase(), timeTree, new TimeTreeWriter(database.getDatabase(), timeTree, writerExecutor));
+            }
+            TimedEvents timedEvents = new TimeTreeBackedEvents(timeTree, buckets);
+
+            LongAdder deadlocks = new LongAdder();
+            LongAdder failures = new LongAdder();
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                Random random = new Random(seed + t);
+                TimeTree tree = timeTree;
+                results.add(executor.submit(() -> load(database, tree, timedEvents, random, end, deadlocks, failures)));
+            }
+
+            long[] latencies = new long[0];
+            for (Future<long[]> result : results) {
+                long[] threadLatencies = result.get();
+                int offset = latencies.length;
+                latencies = Arrays.copyOf(latencies, offset + threadLatencies.length);
+                System.arraycopy(threadLatencies, 0, latencies, offset, threadLatencies.length);
+            }
+            executor.shutdown();
+            writerExecutor.shutdown();
+            Arrays.sort(latencies);
+
+            List<String> violations = new TreeInvariantChecker(database.getDatabase(), AT_TIME).check();
+
+            System.out.println(String.format("%8d %10d %10d %10d %10d %10d %10d %10d",
+                    threadCount,
+                    latencies.length,
+                    latencies.length / duration,
+                    percentile(latencies, 0.5) / 1000,
+                    percentile(latencies, 0.99) / 1000,
+                    deadlocks.sum(),
+                    failures.sum(),
+                    violations.size()));
+
+            for (String violation : violations) {
+                System.out.println("    " + violation);
+            }
+
+            return violations.isEmpty();
+        }
+    }
+
+    /**
+     * Run operations until the end time.
+     *
+     * @return latencies of successful operations in ns.
+     */
+    private long[] load(BenchmarkDatabase database, TimeTree timeTree, TimedEvents timedEvents, Random random, long end, LongAdder deadlocks, LongAdder failures) {
+        long[] latencies = new long[1024];
+        int count = 0;
+
+        while (System.nanoTime() < end) {
+            long time = START + random.nextInt(window) * unitMillis(Resolution.SECOND);
+            TimeInstant instant = TimeInstant.instant(time).with(Resolution.SECOND);
+            boolean attach = random.nextDouble() < attachRatio;
+
+            long start = System.nanoTime();
+            try (Transaction tx = database.getDatabase().beginTx()) {
+                if (attach) {
+                    Node event = database.getDatabase().createNode(EVENT);
+                    event.setProperty(TIMESTAMP, time);
+                    timedEvents.attachEvent(event, AT_TIME, Direction.INCOMING, instant);
+                } else {
+                    timeTree.getOrCreateInstant(instant);
+                }
+                tx.success();
+            } catch (DeadlockDetectedException e) {
+                deadlocks.increment();
+                continue;
+            } catch (TransientFailureException e) {
+                failures.increment();
+                continue;
+            }
+
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = System.nanoTime() - start;
+        }
+
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.benchmark;
+
+import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.TimeTreeBackedEvents;
+import com.graphaware.module.timetree.TimedEvents;
+import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.timetree.benchmark.BenchmarkDatabase.*;
+
+/**
+ * Benchmark of {@link TimedEvents#getEvents(TimeInstant, TimeInstant, Direction)} over ranges of different numbers of
+ * minute instants, each with the same number of attached events.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GetEventsBenchmark {
+
+    private static final int INSTANTS = 10_000;
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"1", "100", "10000"})
+    public int rangeSize;
+
+    @Param({"1", "10"})
+    public int eventsPerInstant;
+
+    private BenchmarkDatabase database;
+    private TimedEvents timedEvents;
+    private TimeInstant start;
+    private TimeInstant end;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        timedEvents = new TimeTreeBackedEvents(new SingleTimeTree(database.getDatabase()));
+
+        long minute = unitMillis(Resolution.MINUTE);
+        for (int from = 0; from < INSTANTS; from += BATCH_SIZE) {
+            try (Transaction tx = database.getDatabase().beginTx()) {
+                for (int i = from; i < Math.min(from + BATCH_SIZE, INSTANTS); i++) {
+                    long time = START + i * minute;
+                    for (int e = 0; e < eventsPerInstant; e++) {
+                        Node event = database.getDatabase().createNode(EVENT);
+                        event.setProperty(TIMESTAMP, time);
+                        timedEvents.attachEvent(event, AT_TIME, Direction.INCOMING, TimeInstant.instant(time).with(Resolution.MINUTE));
+                    }
+                }
+                tx.success();
+            }
+        }
+
+        start = TimeInstant.instant(START).with(Resolution.MINUTE);
+        end = TimeInstant.instant(START + (rangeSize - 1) * minute).with(Resolution.MINUTE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<Event> getEvents() {
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            List<Event> events = timedEvents.getEvents(start, end, Direction.INCOMING);
+            tx.success();
+            return events;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.benchmark;
+
+import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.TimeTree;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.timetree.benchmark.BenchmarkDatabase.START;
+import static com.graphaware.module.timetree.benchmark.BenchmarkDatabase.unitMillis;
+
+/**
+ * Benchmark of {@link TimeTree#getOrCreateInstant(TimeInstant)} at every {@link Resolution}, both for an instant that
+ * exists and for a new one, which is always the last one in the tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GetOrCreateInstantBenchmark {
+
+    @Param({"YEAR", "MONTH", "DAY", "HOUR", "MINUTE", "SECOND", "MILLISECOND"})
+    public Resolution resolution;
+
+    private BenchmarkDatabase database;
+    private TimeTree timeTree;
+    private TimeInstant existing;
+    private long next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        timeTree = new SingleTimeTree(database.getDatabase());
+        existing = TimeInstant.instant(START).with(resolution);
+        next = START;
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(existing);
+            tx.success();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public Node getExistingInstant() {
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            Node instant = timeTree.getOrCreateInstant(existing);
+            tx.success();
+            return instant;
+        }
+    }
+
+    @Benchmark
+    public Node createNewInstant() {
+        next += unitMillis(resolution);
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            Node instant = timeTree.getOrCreateInstant(TimeInstant.instant(next).with(resolution));
+            tx.success();
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.benchmark;
+
+import com.graphaware.module.timetree.KernelTraversal;
+import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.TimeTree;
+import com.graphaware.module.timetree.TimeTreeBackedEvents;
+import com.graphaware.module.timetree.TimedEvents;
+import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.timetree.benchmark.BenchmarkDatabase.*;
+
+/**
+ * Benchmark of the hot paths of a dense tree, where every minute in the covered period exists and has the same number
+ * of attached events, traversed through the Core API and through the {@link KernelTraversal}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class KernelTraversalBenchmark {
+
+    private static final int INSTANTS = 10_000;
+    private static final int QUERIES = 1024;
+    private static final int BATCH_SIZE = 1000;
+    private static final int RANGE_SIZE = 60;
+
+    @Param({"false", "true"})
+    public boolean kernelTraversal;
+
+    @Param({"10"})
+    public int eventsPerInstant;
+
+    private BenchmarkDatabase database;
+    private TimeTree timeTree;
+    private TimedEvents timedEvents;
+    private final TimeInstant[] queries = new TimeInstant[QUERIES];
+    private int query = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        timeTree = new SingleTimeTree(database.getDatabase());
+        timedEvents = new TimeTreeBackedEvents(timeTree);
+
+        long minute = unitMillis(Resolution.MINUTE);
+        for (int from = 0; from < INSTANTS; from += BATCH_SIZE) {
+            try (Transaction tx = database.getDatabase().beginTx()) {
+                for (int i = from; i < Math.min(from + BATCH_SIZE, INSTANTS); i++) {
+                    long time = START + i * minute;
+                    for (int e = 0; e < eventsPerInstant; e++) {
+                        Node event = database.getDatabase().createNode(EVENT);
+                        event.setProperty(TIMESTAMP, time);
+                        timedEvents.attachEvent(event, AT_TIME, Direction.INCOMING, TimeInstant.instant(time).with(Resolution.MINUTE));
+                    }
+                }
+                tx.success();
+            }
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = TimeInstant.instant(START + random.nextInt(INSTANTS - RANGE_SIZE) * minute).with(Resolution.MINUTE);
+        }
+
+        if (kernelTraversal) {
+            KernelTraversal.forDatabase(database.getDatabase()).enable();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public Node getInstant() {
+        TimeInstant instant = queries[query++ % QUERIES];
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            Node result = timeTree.getInstant(instant);
+            tx.success();
+            return result;
+        }
+    }
+
+    @Benchmark
+    public List<Event> getEventsOfHour() {
+        TimeInstant instant = queries[query++ % QUERIES];
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            List<Event> result = timedEvents.getEvents(instant.with(Resolution.HOUR), Direction.INCOMING);
+            tx.success();
+            return result;
+        }
+    }
+
+    @Benchmark
+    public List<Event> getEventsInRange() {
+        TimeInstant instant = queries[query++ % QUERIES];
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            List<Event> result = timedEvents.getEvents(instant, TimeInstant.instant(instant.getTime() + (RANGE_SIZE - 1) * unitMillis(Resolution.MINUTE)).with(Resolution.MINUTE));
+            tx.success();
+            return result;
+        }
+    }
+}
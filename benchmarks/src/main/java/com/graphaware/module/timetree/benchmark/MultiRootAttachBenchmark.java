@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.graphaware.module.timetree.benchmark;
+
+import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.TimeTree;
+import com.graphaware.module.timetree.TimeTreeBackedEvents;
+import com.graphaware.module.timetree.TimeTreeRegistry;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.graphaware.module.timetree.benchmark.BenchmarkDatabase.*;
+
+/**
+ * Benchmark of transactions attaching events to several time trees with custom roots, from many threads at once. Each
+ * transaction attaches one event to each tree, in random order of the trees, creating a new instant in each, so that
+ * it needs the locks of all the roots. The roots are either locked in the order the trees are encountered, or all
+ * locked up front in the order of their IDs, by {@link SingleTimeTree#lockRoots(Transaction, java.util.Collection)}.
+ * <p>
+ * Deadlocks are reported as an auxiliary counter. Run with a different number of threads using <code>-t</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(8)
+public class MultiRootAttachBenchmark {
+
+    private static final Label ROOT = Label.label("Root");
+
+    @Param({"false", "true"})
+    public boolean orderedLocks;
+
+    @Param({"4"})
+    public int roots;
+
+    private BenchmarkDatabase database;
+    private List<TimeTree> timeTrees;
+    private final AtomicLong next = new AtomicLong(START);
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Failures {
+        public long deadlocks;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            deadlocks = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        timeTrees = new ArrayList<>();
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            for (int i = 0; i < roots; i++) {
+                timeTrees.add(TimeTreeRegistry.forDatabase(database.getDatabase()).get(database.getDatabase().createNode(ROOT)));
+            }
+            tx.success();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public void attachToAllRoots(Failures failures) {
+        long time = next.addAndGet(unitMillis(Resolution.SECOND));
+        TimeInstant instant = TimeInstant.instant(time).with(Resolution.SECOND);
+
+        List<TimeTree> shuffled = new ArrayList<>(timeTrees);
+        Collections.shuffle(shuffled, ThreadLocalRandom.current());
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            if (orderedLocks) {
+                SingleTimeTree.lockRoots(tx, shuffled);
+            }
+
+            for (TimeTree timeTree : shuffled) {
+                Node event = database.getDatabase().createNode(EVENT);
+                event.setProperty(TIMESTAMP, time);
+                new TimeTreeBackedEvents(timeTree).attachEvent(event, AT_TIME, Direction.INCOMING, instant);
+            }
+
+            tx.success();
+        } catch (DeadlockDetectedException e) {
+            failures.deadlocks++;
+        }
+    }
+}
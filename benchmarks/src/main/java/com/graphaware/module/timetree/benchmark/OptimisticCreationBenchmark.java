@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.graphaware.module.timetree.benchmark;
+
+import com.graphaware.module.timetree.OptimisticCreation;
+import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.TimeTree;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.metrics.TimeTreeMetrics;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransientFailureException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.graphaware.module.timetree.benchmark.BenchmarkDatabase.*;
+
+/**
+ * Benchmark of {@link TimeTree#getOrCreateInstant(TimeInstant)} from many threads at once, with the whole tree locked
+ * by each transaction and with {@link OptimisticCreation}. Each operation gets or creates a random second within a
+ * day, in its own transaction, so that the tree starts empty and most operations find existing instants by the end.
+ * Run with a different number of threads using <code>-t</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(8)
+public class OptimisticCreationBenchmark {
+
+    private static final int SECONDS = 24 * 60 * 60;
+
+    @Param({"false", "true"})
+    public boolean optimisticCreation;
+
+    private BenchmarkDatabase database;
+    private TimeTree timeTree;
+    private final LongAdder transientFailures = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        timeTree = new SingleTimeTree(database.getDatabase());
+
+        if (optimisticCreation) {
+            OptimisticCreation.forDatabase(database.getDatabase()).enable();
+        }
+
+        TimeTreeMetrics.getInstance().reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println("Insert conflicts: " + TimeTreeMetrics.getInstance().snapshot().get("insertConflicts"));
+        if (transientFailures.sum() > 0) {
+            System.out.println("Transient failures (e.g. deadlocks): " + transientFailures.sum());
+        }
+        database.close();
+    }
+
+    @Benchmark
+    public void getOrCreateInstant(Blackhole blackhole) {
+        long time = START + ThreadLocalRandom.current().nextInt(SECONDS) * unitMillis(Resolution.SECOND);
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            blackhole.consume(timeTree.getOrCreateInstant(TimeInstant.instant(time).with(Resolution.SECOND)));
+            tx.success();
+        } catch (TransientFailureException e) {
+            transientFailures.increment();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.benchmark;
+
+import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.TimeTree;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.timetree.benchmark.BenchmarkDatabase.START;
+import static com.graphaware.module.timetree.benchmark.BenchmarkDatabase.unitMillis;
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Benchmark of walking the children of every Hour of a dense tree, where every minute in the covered period exists,
+ * along the NEXT chain. The walk either checks the parent of each child it visits, as the time tree used to, or stops
+ * at the LAST child of the parent, as it does now. The number of relationship chain reads per walk is reported as an
+ * auxiliary counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SiblingWalkBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    public enum Boundary {
+        PARENT_CHECK, LAST_CHILD
+    }
+
+    @Param({"PARENT_CHECK", "LAST_CHILD"})
+    public Boundary boundary;
+
+    @Param({"1440"})
+    public int minutes;
+
+    private BenchmarkDatabase database;
+    private List<Node> hours;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Reads {
+        public long relationshipReads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            relationshipReads = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        TimeTree timeTree = new SingleTimeTree(database.getDatabase());
+
+        long gap = unitMillis(Resolution.MINUTE);
+        for (int from = 0; from < minutes; from += BATCH_SIZE) {
+            try (Transaction tx = database.getDatabase().beginTx()) {
+                for (int i = from; i < Math.min(from + BATCH_SIZE, minutes); i++) {
+                    timeTree.getOrCreateInstant(TimeInstant.instant(START + i * gap).with(Resolution.MINUTE));
+                }
+                tx.success();
+            }
+        }
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            hours = timeTree.getInstants(TimeInstant.instant(START).with(Resolution.HOUR), TimeInstant.instant(START + (minutes - 1) * gap).with(Resolution.HOUR));
+            tx.success();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public int walkChildren(Reads reads) {
+        int visited = 0;
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            for (Node hour : hours) {
+                visited += boundary == Boundary.LAST_CHILD ? walkToLast(hour, reads) : walkCheckingParent(hour, reads);
+            }
+            tx.success();
+        }
+
+        return visited;
+    }
+
+    private int walkToLast(Node parent, Reads reads) {
+        long lastChildId = parent.getSingleRelationship(LAST, OUTGOING).getEndNode().getId();
+        Node child = parent.getSingleRelationship(FIRST, OUTGOING).getEndNode();
+        reads.relationshipReads += 2;
+
+        int visited = 1;
+        while (child.getId() != lastChildId) {
+            child = child.getSingleRelationship(NEXT, OUTGOING).getEndNode();
+            reads.relationshipReads++;
+            visited++;
+        }
+
+        return visited;
+    }
+
+    private int walkCheckingParent(Node parent, Reads reads) {
+        Node child = parent.getSingleRelationship(FIRST, OUTGOING).getEndNode();
+        reads.relationshipReads++;
+
+        int visited = 1;
+        while (true) {
+            Relationship next = child.getSingleRelationship(NEXT, OUTGOING);
+            reads.relationshipReads++;
+            if (next == null) {
+                break;
+            }
+
+            Relationship toParent = next.getEndNode().getSingleRelationship(CHILD, INCOMING);
+            reads.relationshipReads++;
+            if (toParent.getStartNode().getId() != parent.getId()) {
+                break;
+            }
+
+            child = next.getEndNode();
+            visited++;
+        }
+
+        return visited;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.benchmark;
+
+import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.SkipPointers;
+import com.graphaware.module.timetree.TimeTree;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.timetree.benchmark.BenchmarkDatabase.START;
+
+/**
+ * Benchmark of seeking Milliseconds in a dense tree, where every millisecond of the covered period exists, with and
+ * without {@link SkipPointers}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SkipPointersBenchmark {
+
+    private static final int QUERIES = 1024;
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"false", "true"})
+    public boolean skipPointers;
+
+    @Param({"10"})
+    public int seconds;
+
+    private BenchmarkDatabase database;
+    private TimeTree timeTree;
+    private final TimeInstant[] queries = new TimeInstant[QUERIES];
+    private int query = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        if (skipPointers) {
+            SkipPointers.forDatabase(database.getDatabase()).enable();
+        }
+        timeTree = new SingleTimeTree(database.getDatabase());
+
+        int instants = seconds * 1000;
+        for (int from = 0; from < instants; from += BATCH_SIZE) {
+            try (Transaction tx = database.getDatabase().beginTx()) {
+                for (int i = from; i < Math.min(from + BATCH_SIZE, instants); i++) {
+                    timeTree.getOrCreateInstant(millisecond(i));
+                }
+                tx.success();
+            }
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = millisecond(random.nextInt(instants));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public Node getInstant() {
+        TimeInstant instant = queries[query++ % QUERIES];
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            Node result = timeTree.getInstant(instant);
+            tx.success();
+            return result;
+        }
+    }
+
+    @Benchmark
+    public Node getOrCreateExistingInstant() {
+        TimeInstant instant = queries[query++ % QUERIES];
+
+        try (Transaction tx = database.getDatabase().beginTx()) {
+            Node result = timeTree.getOrCreateInstant(instant);
+            tx.success();
+            return result;
+        }
+    }
+
+    private static TimeInstant millisecond(int i) {
+        return TimeInstant.instant(START + i).with(Resolution.MILLISECOND);
+    }
+}
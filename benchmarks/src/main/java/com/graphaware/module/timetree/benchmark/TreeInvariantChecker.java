@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.benchmark;
+
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeTreeLabels;
+import org.neo4j.graphdb.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.graphaware.common.util.EntityUtils.getInt;
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Checks the structural invariants of a time tree after a stress run:
+ * <ul>
+ * <li>there is at most one root,</li>
+ * <li>children of every node are reachable from its FIRST child via NEXT relationships, in strictly increasing order of
+ * their values, ending at its LAST child,</li>
+ * <li>at every level, all nodes form a single NEXT chain in chronological order,</li>
+ * <li>no event is attached to the tree more than once.</li>
+ * </ul>
+ */
+public class TreeInvariantChecker {
+
+    private static final String VALUE = "value";
+
+    private final GraphDatabaseService database;
+    private final RelationshipType eventRelationshipType;
+    private final List<String> violations = new ArrayList<>();
+
+    public TreeInvariantChecker(GraphDatabaseService database, RelationshipType eventRelationshipType) {
+        this.database = database;
+        this.eventRelationshipType = eventRelationshipType;
+    }
+
+    /**
+     * Check the invariants.
+     *
+     * @return descriptions of violated invariants, empty if there are none.
+     */
+    public List<String> check() {
+        violations.clear();
+
+        try (Transaction tx = database.beginTx()) {
+            List<Node> roots = new ArrayList<>();
+            database.findNodes(TimeTreeLabels.TimeTreeRoot).forEachRemaining(roots::add);
+            if (roots.size() > 1) {
+                violation("There are " + roots.size() + " time tree roots");
+            }
+
+            for (Node root : roots) {
+                checkChildren(root);
+            }
+
+            for (Resolution resolution : Resolution.values()) {
+                checkLevel(resolution);
+            }
+
+            checkEvents();
+
+            tx.success();
+        }
+
+        return new ArrayList<>(violations);
+    }
+
+    private void checkChildren(Node parent) {
+        Set<Long> children = new HashSet<>();
+        for (Relationship child : parent.getRelationships(OUTGOING, CHILD)) {
+            children.add(child.getEndNode().getId());
+        }
+
+        Relationship first = parent.getSingleRelationship(FIRST, OUTGOING);
+        Relationship last = parent.getSingleRelationship(LAST, OUTGOING);
+
+        if (children.isEmpty()) {
+            if (first != null || last != null) {
+                violation(parent + " has no children, but has FIRST or LAST relationship");
+            }
+            return;
+        }
+
+        if (first == null || last == null) {
+            violation(parent + " has children, but is missing FIRST or LAST relationship");
+            return;
+        }
+
+        Node current = first.getEndNode();
+        Set<Long> visited = new HashSet<>();
+        Integer previousValue = null;
+        while (current != null && children.contains(current.getId()) && visited.add(current.getId())) {
+            int value = getInt(current, VALUE);
+            if (previousValue != null && value <= previousValue) {
+                violation("Children of " + parent + " are not in increasing order: " + previousValue + " followed by " + value);
+            }
+            previousValue = value;
+
+            if (current.getId() == last.getEndNode().getId()) {
+                break;
+            }
+
+            Relationship next = current.getSingleRelationship(NEXT, OUTGOING);
+            current = next == null ? null : next.getEndNode();
+        }
+
+        if (current == null || current.getId() != last.getEndNode().getId()) {
+            violation("LAST child of " + parent + " is not reachable from its FIRST child");
+        }
+
+        if (visited.size() != children.size()) {
+            violation(parent + " has " + children.size() + " children, but only " + visited.size() + " are on the NEXT chain between FIRST and LAST");
+        }
+
+        for (Relationship child : parent.getRelationships(OUTGOING, CHILD)) {
+            checkChildren(child.getEndNode());
+        }
+    }
+
+    private void checkLevel(Resolution resolution) {
+        long nodes = 0;
+        Node head = null;
+        int heads = 0;
+
+        try (ResourceIterator<Node> iterator = database.findNodes(resolution.getLabel())) {
+            while (iterator.hasNext()) {
+                Node node = iterator.next();
+                nodes++;
+                if (!node.hasRelationship(INCOMING, NEXT)) {
+                    head = node;
+                    heads++;
+                }
+            }
+        }
+
+        if (nodes == 0) {
+            return;
+        }
+
+        if (heads != 1) {
+            violation("Level " + resolution + " has " + heads + " NEXT chains instead of one");
+            return;
+        }
+
+        long chained = 1;
+        String previousKey = key(head);
+        Relationship next = head.getSingleRelationship(NEXT, OUTGOING);
+        while (next != null && chained <= nodes) {
+            Node node = next.getEndNode();
+            String key = key(node);
+            if (key.compareTo(previousKey) <= 0) {
+                violation("Level " + resolution + " is not in chronological order: " + previousKey + " followed by " + key);
+            }
+            previousKey = key;
+            chained++;
+            next = node.getSingleRelationship(NEXT, OUTGOING);
+        }
+
+        if (chained != nodes) {
+            violation("Level " + resolution + " has " + nodes + " nodes, but " + chained + " are on its NEXT chain");
+        }
+    }
+
+    private void checkEvents() {
+        Set<Long> attached = new HashSet<>();
+
+        for (Relationship relationship : database.getAllRelationships()) {
+            if (relationship.isType(eventRelationshipType) && !attached.add(relationship.getStartNode().getId())) {
+                violation("Event " + relationship.getStartNode() + " is attached more than once");
+            }
+        }
+    }
+
+    /**
+     * Build a key of a node, which sorts chronologically, from the values of the node and its ancestors.
+     *
+     * @param node to build the key for.
+     * @return key.
+     */
+    private String key(Node node) {
+        StringBuilder key = new StringBuilder();
+        Node current = node;
+        Relationship parent;
+        while ((parent = current.getSingleRelationship(CHILD, INCOMING)) != null) {
+            key.insert(0, String.format("%010d", getInt(current, VALUE) + 1_000_000_000L));
+            current = parent.getStartNode();
+        }
+        return key.toString();
+    }
+
+    private void violation(String description) {
+        if (violations.size() < 100) {
+            violations.add(description);
+        }
+    }
+}
@@ -27,7 +27,7 @@ public class CustomRootTimeTree extends SingleTimeTree {
     private final Node root;
 
     public CustomRootTimeTree(Node root) {
-        super(root.getGraphDatabase());
+        super(root.getGraphDatabase(), false);
         this.root = root;
     }
 
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.module.timetree.domain.CalendarArithmetic;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.module.NamedThreadFactory;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.helpers.collection.Iterables;
+import org.neo4j.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.graphaware.common.util.EntityUtils.getInt;
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.CHILD;
+import static org.neo4j.graphdb.Direction.INCOMING;
+
+/**
+ * Indexed keys of time instant nodes, which let {@link SingleTimeTree}s seek an instant directly instead of walking
+ * down the tree and along the sibling chains of every level.
+ * <p>
+ * The key of an instant is the local time (see {@link CalendarArithmetic}) of the start of the period it represents,
+ * which does not depend on the time zone the tree is used with. It is stored in the {@link #KEY_PROPERTY} property.
+ * Keys are unique within a resolution of a tree, but not across trees, so the ID of the root of the tree is stored with
+ * it in the {@link #ROOT_PROPERTY} property, and the two are indexed together on the label of each resolution. A lookup
+ * is then a single index seek, no matter how many trees there are.
+ * <p>
+ * Keys are off by default. Once {@link #enable()}d for a database, keys are written to all instants created from then on,
+ * and used for lookups once the index of their resolution is online. Instants created before, including those keyed
+ * before keys were scoped to their roots, can be keyed by {@link #populate(int)}; until then, lookups of such instants
+ * fall back to walking the tree.
+ */
+public final class InstantKeys {
+
+    private static final Log LOG = LoggerFactory.getLogger(InstantKeys.class);
+
+    public static final String KEY_PROPERTY = "timeKey";
+    public static final String ROOT_PROPERTY = "timeRoot";
+
+    private static final Map<GraphDatabaseService, InstantKeys> KEYS = new ConcurrentHashMap<>();
+
+    private final GraphDatabaseService database;
+    private volatile boolean enabled = false;
+    private final Set<Resolution> online = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Get the instant keys of a database, creating them (disabled) if needed.
+     *
+     * @param database to get the keys for.
+     * @return instant keys.
+     */
+    public static InstantKeys forDatabase(GraphDatabaseService database) {
+        return KEYS.computeIfAbsent(database, InstantKeys::new);
+    }
+
+    private InstantKeys(GraphDatabaseService database) {
+        this.database = database;
+
+        database.registerKernelEventHandler(new ShutdownHandler(() -> KEYS.remove(database)));
+    }
+
+    /**
+     * Enable keys: create the missing schema indexes and start keying new instants and using keys for lookups. The
+     * indexes are populated in the background by the database; until the index of a resolution is online, instants of
+     * that resolution are looked up by walking the tree, as the database would otherwise answer the seek by scanning
+     * all instants of the resolution. Must not be called within a transaction that has written data, as schema changes
+     * need their own transaction.
+     */
+    public void enable() {
+        online.clear();
+
+        try (Transaction tx = database.beginTx()) {
+            for (Resolution resolution : Resolution.values()) {
+                if (!isIndexed(resolution.getLabel())) {
+                    database.schema().indexFor(resolution.getLabel()).on(KEY_PROPERTY).on(ROOT_PROPERTY).create();
+                }
+            }
+            tx.success();
+        }
+
+        enabled = true;
+    }
+
+    /**
+     * Stop keying new instants and using keys for lookups. Existing keys and indexes are left in place.
+     */
+    public void disable() {
+        enabled = false;
+    }
+
+    /**
+     * @return true iff keys are enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Key all instants of all trees that do not have a key scoped to their root yet, committing a transaction every
+     * batch. Instants are keyed from the top level down, so that each instant can be keyed from its parent.
+     * <p>
+     * The instants of each level are streamed from a single read transaction, while the batches are keyed by a
+     * separate thread, with at most one batch waiting to be keyed. Only two batches of node IDs are held in memory,
+     * however many instants there are.
+     *
+     * @param batchSize number of instants to key in one transaction.
+     * @return number of keyed instants.
+     */
+    public long populate(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+
+        ExecutorService writer = Executors.newSingleThreadExecutor(new NamedThreadFactory("TimeTree-KeyPopulation"));
+        long keyed = 0;
+        try {
+            for (Resolution resolution : Resolution.values()) {
+                Future<Integer> pending = null;
+                List<Long> batch = new ArrayList<>(batchSize);
+
+                try (Transaction tx = database.beginTx(); ResourceIterator<Node> instants = database.findNodes(resolution.getLabel())) {
+                    while (instants.hasNext()) {
+                        Node instant = instants.next();
+                        if (instant.hasProperty(ROOT_PROPERTY)) {
+                            continue;
+                        }
+
+                        batch.add(instant.getId());
+                        if (batch.size() == batchSize) {
+                            keyed += await(pending);
+                            pending = writer.submit(keyBatch(batch, resolution));
+                            batch = new ArrayList<>(batchSize);
+                        }
+                    }
+                    tx.success();
+                }
+
+                keyed += await(pending);
+                keyed += await(writer.submit(keyBatch(batch, resolution)));
+            }
+        } finally {
+            writer.shutdownNow();
+        }
+
+        LOG.info("Keyed " + keyed + " time instants");
+        return keyed;
+    }
+
+    private Callable<Integer> keyBatch(List<Long> batch, Resolution resolution) {
+        return () -> {
+            int result = 0;
+            try (Transaction tx = database.beginTx()) {
+                for (long id : batch) {
+                    if (setKey(id, resolution)) {
+                        result++;
+                    }
+                }
+                tx.success();
+            }
+            return result;
+        };
+    }
+
+    private static int await(Future<Integer> batch) {
+        if (batch == null) {
+            return 0;
+        }
+
+        try {
+            return batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while keying time instants", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to key a batch of time instants", e.getCause());
+        }
+    }
+
+    /**
+     * Get the key of the instant of a resolution that a local time falls into.
+     *
+     * @param localTime  local time.
+     * @param resolution of the instant.
+     * @return key.
+     */
+    public static long key(long localTime, Resolution resolution) {
+        return CalendarArithmetic.startOf(localTime, resolution);
+    }
+
+    /**
+     * Find an instant by its key.
+     *
+     * @param root       root of the tree the instant must belong to.
+     * @param resolution of the instant.
+     * @param key        of the instant.
+     * @return instant, null if there is no keyed instant with the key in the tree.
+     */
+    Node find(Node root, Resolution resolution, long key) {
+        if (!isOnline(resolution)) {
+            return null;
+        }
+
+        try (ResourceIterator<Node> candidates = database.findNodes(resolution.getLabel(), KEY_PROPERTY, key, ROOT_PROPERTY, root.getId())) {
+            return candidates.hasNext() ? candidates.next() : null;
+        }
+    }
+
+    /**
+     * Key a newly created instant, from its parent's key and root. Instants whose parent is not keyed are left without
+     * a key.
+     *
+     * @param instant    new instant.
+     * @param parent     its parent, possibly the root.
+     * @param resolution of the new instant.
+     * @param value      of the new instant.
+     */
+    void keyNewInstant(Node instant, Node parent, Resolution resolution, int value) {
+        if (resolution == Resolution.YEAR) {
+            instant.setProperty(KEY_PROPERTY, CalendarArithmetic.with(0, Resolution.YEAR, value));
+            instant.setProperty(ROOT_PROPERTY, parent.getId());
+            return;
+        }
+
+        Object parentKey = parent.getProperty(KEY_PROPERTY, null);
+        Object parentRoot = parent.getProperty(ROOT_PROPERTY, null);
+        if (parentKey instanceof Long && parentRoot instanceof Long) {
+            instant.setProperty(KEY_PROPERTY, CalendarArithmetic.with((long) parentKey, resolution, value));
+            instant.setProperty(ROOT_PROPERTY, parentRoot);
+        }
+    }
+
+    private boolean setKey(long id, Resolution resolution) {
+        Node instant;
+        try {
+            instant = database.getNodeById(id);
+        } catch (NotFoundException e) {
+            return false; //deleted in the meantime
+        }
+
+        if (instant.hasProperty(ROOT_PROPERTY)) {
+            return false;
+        }
+
+        Relationship toParent = instant.getSingleRelationship(CHILD, INCOMING);
+        if (toParent == null) {
+            LOG.warn(instant + " has no parent, it will not be keyed");
+            return false;
+        }
+
+        keyNewInstant(instant, toParent.getStartNode(), resolution, getInt(instant, SingleTimeTree.VALUE_PROPERTY));
+        return instant.hasProperty(ROOT_PROPERTY);
+    }
+
+    /**
+     * Check that the index of a resolution is online, remembering it once it is.
+     *
+     * @param resolution to check.
+     * @return true iff the index can be used for seeks.
+     */
+    private boolean isOnline(Resolution resolution) {
+        if (online.contains(resolution)) {
+            return true;
+        }
+
+        Schema schema = database.schema();
+        for (IndexDefinition index : schema.getIndexes(resolution.getLabel())) {
+            if (isKeyIndex(index) && schema.getIndexState(index) == Schema.IndexState.ONLINE) {
+                online.add(resolution);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isIndexed(Label label) {
+        for (IndexDefinition index : database.schema().getIndexes(label)) {
+            if (isKeyIndex(index)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isKeyIndex(IndexDefinition index) {
+        return Arrays.asList(KEY_PROPERTY, ROOT_PROPERTY).equals(Iterables.asList(index.getPropertyKeys()));
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes;
+import com.graphaware.module.timetree.metrics.OperationTrace;
+import org.neo4j.graphdb.*;
+import org.neo4j.internal.kernel.api.*;
+import org.neo4j.internal.kernel.api.exceptions.KernelException;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.EmbeddedProxySPI;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.values.storable.NumberValue;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.graphaware.module.timetree.SkipPointers.level;
+import static com.graphaware.module.timetree.domain.CalendarArithmetic.get;
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Traversal of the hot paths of a time tree, i.e. seeking an existing instant and collecting the events attached to
+ * instants and their children, through the Kernel API rather than the Core API.
+ * <p>
+ * The Core API allocates a {@link Node} or {@link Relationship} object for every hop and resolves relationship types
+ * and property keys by name. This traversal uses a single set of Kernel API cursors per operation, reused across all
+ * hops, and token ids resolved once per database. Only the instants and events returned are turned into Core API
+ * objects. It must run in a transaction bound to the current thread, like the Core API.
+ * <p>
+ * The traversal is off by default. Once {@link #enable()}d for a database, {@link SingleTimeTree} and
+ * {@link TimeTreeBackedEvents} use it instead of the Core API where it applies. The results are the same.
+ */
+public final class KernelTraversal {
+
+    private static final long NO_NODE = -1;
+    private static final int NO_TOKEN = TokenRead.NO_TOKEN;
+
+    private static final TimeTreeRelationshipTypes[] SKIP = {NEXT, SKIP_1, SKIP_2, SKIP_3, SKIP_4};
+    private static final Map<GraphDatabaseService, KernelTraversal> TRAVERSALS = new ConcurrentHashMap<>();
+
+    private final ThreadToStatementContextBridge transactions;
+    private final EmbeddedProxySPI proxies;
+    private volatile boolean enabled = false;
+
+    private final int[] relationshipTypeIds = new int[TimeTreeRelationshipTypes.values().length];
+    private volatile int valueKey = NO_TOKEN;
+    private volatile int skipMarkerKey = NO_TOKEN;
+    private final Map<Integer, RelationshipType> relationshipTypes = new ConcurrentHashMap<>();
+
+    /**
+     * Get the Kernel API traversal of a database, creating it (disabled) if needed.
+     *
+     * @param database to get the traversal for.
+     * @return traversal.
+     */
+    public static KernelTraversal forDatabase(GraphDatabaseService database) {
+        return TRAVERSALS.computeIfAbsent(database, KernelTraversal::new);
+    }
+
+    private KernelTraversal(GraphDatabaseService database) {
+        if (database instanceof GraphDatabaseAPI) {
+            DependencyResolver dependencies = ((GraphDatabaseAPI) database).getDependencyResolver();
+            this.transactions = dependencies.resolveDependency(ThreadToStatementContextBridge.class);
+            this.proxies = dependencies.resolveDependency(EmbeddedProxySPI.class);
+        } else {
+            this.transactions = null;
+            this.proxies = null;
+        }
+        Arrays.fill(relationshipTypeIds, NO_TOKEN);
+        database.registerKernelEventHandler(new ShutdownHandler(() -> TRAVERSALS.remove(database)));
+    }
+
+    /**
+     * Start using the Kernel API traversal.
+     *
+     * @throws IllegalStateException if the database does not expose the Kernel API.
+     */
+    public void enable() {
+        if (transactions == null) {
+            throw new IllegalStateException("The Kernel API traversal requires an embedded database");
+        }
+
+        enabled = true;
+    }
+
+    /**
+     * Stop using the Kernel API traversal.
+     */
+    public void disable() {
+        enabled = false;
+    }
+
+    /**
+     * @return true iff the Kernel API traversal is enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Find an existing instant, descending from the root of a time tree.
+     *
+     * @param timeRoot   root of the time tree.
+     * @param localTime  time of the instant, as local time in the time zone of the tree.
+     * @param resolution of the instant.
+     * @return instant, null if it does not exist.
+     */
+    Node findInstant(Node timeRoot, long localTime, Resolution resolution) {
+        try (Cursors cursors = new Cursors()) {
+            long current = timeRoot.getId();
+
+            for (Resolution level : Resolution.values()) {
+                current = cursors.findChild(current, get(localTime, level));
+                if (current == NO_NODE) {
+                    return null;
+                }
+
+                if (level == resolution) {
+                    return proxies.newNodeProxy(current);
+                }
+            }
+
+            throw new IllegalStateException("Unknown resolution " + resolution + ", this is a bug");
+        }
+    }
+
+    /**
+     * Collect the events attached to an instant and all its children, children first, in the same order as the Core
+     * API traversal of {@link TimeTreeBackedEvents}.
+     *
+     * @param instant   to start from.
+     * @param types     of the relationships attaching the events, null for all.
+     * @param direction of the relationships from the instant.
+     * @param result    to add the events to.
+     * @param trace     of the operation.
+     */
+    void collectEvents(Node instant, Set<RelationshipType> types, Direction direction, List<Event> result, OperationTrace trace) {
+        try (Cursors cursors = new Cursors()) {
+            cursors.collectEvents(instant.getId(), cursors.eventTypes(types), direction, result, trace);
+        }
+    }
+
+    /**
+     * Kernel API cursors of a single operation, reused across all hops.
+     */
+    private final class Cursors implements AutoCloseable {
+
+        private final Read read;
+        private final TokenRead tokenRead;
+
+        private final NodeCursor node;
+        private final RelationshipGroupCursor group;
+        private final RelationshipTraversalCursor relationship;
+        private final PropertyCursor property;
+
+        private Set<Integer> timeTreeTypes;
+
+        private Cursors() {
+            KernelTransaction transaction = transactions.getKernelTransactionBoundToThisThread(true);
+
+            read = transaction.dataRead();
+            tokenRead = transaction.tokenRead();
+
+            CursorFactory factory = transaction.cursors();
+            node = factory.allocateNodeCursor();
+            group = factory.allocateRelationshipGroupCursor();
+            relationship = factory.allocateRelationshipTraversalCursor();
+            property = factory.allocatePropertyCursor();
+        }
+
+        /**
+         * Find the child of a parent with the given value, checking the last child first and stopping the walk along
+         * the NEXT chain at it.
+         */
+        private long findChild(long parent, int value) {
+            long last = single(parent, type(LAST), OUTGOING);
+            if (last == NO_NODE) {
+                return NO_NODE;
+            }
+
+            long lastValue = value(last);
+            if (lastValue == value) {
+                return last;
+            }
+            if (lastValue < value) {
+                return NO_NODE;
+            }
+
+            long current = single(parent, type(FIRST), OUTGOING);
+            if (current != NO_NODE && isSkipMarked(parent)) {
+                current = seek(current, last, value);
+            }
+
+            while (current != NO_NODE && current != last && value(current) < value) {
+                current = single(current, type(NEXT), OUTGOING);
+            }
+
+            //without locks, the last child may have been removed and the walk may have ended under the next parent
+            return current != NO_NODE && value(current) == value && single(current, type(CHILD), INCOMING) == parent ? current : NO_NODE;
+        }
+
+        /**
+         * @see SkipPointers#seek(Node, Node, int)
+         */
+        private long seek(long first, long last, int value) {
+            long current = first;
+            boolean moved = true;
+
+            while (moved) {
+                moved = false;
+                for (int level = level((int) value(current)); level >= 0; level--) {
+                    if (level == 0 && current == last) {
+                        break;
+                    }
+
+                    long target = single(current, type(SKIP[level]), OUTGOING);
+                    if (target != NO_NODE && value(target) < value) {
+                        current = target;
+                        moved = true;
+                        break;
+                    }
+                }
+            }
+
+            return current;
+        }
+
+        private void collectEvents(long instant, Set<Integer> types, Direction direction, List<Event> result, OperationTrace trace) {
+            trace.phase("walk");
+            trace.instantVisited();
+
+            long first = single(instant, type(FIRST), OUTGOING);
+            if (first != NO_NODE) {
+                long last = single(instant, type(LAST), OUTGOING);
+                List<Long> children = new ArrayList<>();
+                for (long child = first; child != NO_NODE; child = child == last ? NO_NODE : single(child, type(NEXT), OUTGOING)) {
+                    children.add(child);
+                }
+
+                for (long child : children) {
+                    collectEvents(child, types, direction, result, trace);
+                }
+            }
+
+            trace.phase("collect");
+            Node instantNode = proxies.newNodeProxy(instant);
+            collectEventsAttachedToNode(instant, instantNode, types, direction, result, trace);
+            for (long bucket : all(instant, type(BUCKET), OUTGOING)) {
+                collectEventsAttachedToNode(bucket, instantNode, types, direction, result, trace);
+            }
+        }
+
+        private void collectEventsAttachedToNode(long nodeId, Node instant, Set<Integer> types, Direction direction, List<Event> result, OperationTrace trace) {
+            if (!positionNode(nodeId)) {
+                return;
+            }
+
+            if (node.isDense()) {
+                node.relationships(group);
+                while (group.next()) {
+                    if (!isEvent(group.type(), types)) {
+                        continue;
+                    }
+                    if (direction != INCOMING) {
+                        group.outgoing(relationship);
+                        addEvents(nodeId, instant, result, trace);
+                    }
+                    if (direction != OUTGOING) {
+                        group.incoming(relationship);
+                        addEvents(nodeId, instant, result, trace);
+                    }
+                }
+                return;
+            }
+
+            node.allRelationships(relationship);
+            while (relationship.next()) {
+                trace.relationshipsExpanded(1);
+                if (isEvent(relationship.type(), types) && matches(nodeId, direction)) {
+                    addEvent(nodeId, instant, result);
+                }
+            }
+        }
+
+        private void addEvents(long nodeId, Node instant, List<Event> result, OperationTrace trace) {
+            while (relationship.next()) {
+                trace.relationshipsExpanded(1);
+                addEvent(nodeId, instant, result);
+            }
+        }
+
+        private void addEvent(long nodeId, Node instant, List<Event> result) {
+            Direction direction = relationship.sourceNodeReference() == nodeId ? OUTGOING : INCOMING;
+            result.add(new Event(proxies.newNodeProxy(relationship.neighbourNodeReference()), relationshipType(relationship.type()), direction, instant));
+        }
+
+        private boolean isEvent(int type, Set<Integer> types) {
+            return (types == null || types.contains(type)) && !timeTreeTypes().contains(type);
+        }
+
+        /**
+         * Get the token ids of the time tree relationship types that exist, resolved once per operation.
+         */
+        private Set<Integer> timeTreeTypes() {
+            if (timeTreeTypes == null) {
+                timeTreeTypes = new HashSet<>();
+                for (TimeTreeRelationshipTypes type : TimeTreeRelationshipTypes.values()) {
+                    int id = type(type);
+                    if (id != NO_TOKEN) {
+                        timeTreeTypes.add(id);
+                    }
+                }
+            }
+            return timeTreeTypes;
+        }
+
+        /**
+         * Resolve the token ids of the relationship types of events, null for all types.
+         */
+        private Set<Integer> eventTypes(Set<RelationshipType> types) {
+            if (types == null) {
+                return null;
+            }
+
+            Set<Integer> result = new HashSet<>();
+            for (RelationshipType type : types) {
+                result.add(tokenRead.relationshipType(type.name()));
+            }
+            return result;
+        }
+
+        private RelationshipType relationshipType(int type) {
+            return relationshipTypes.computeIfAbsent(type, id -> {
+                try {
+                    return RelationshipType.withName(tokenRead.relationshipTypeName(id));
+                } catch (KernelException e) {
+                    throw new IllegalStateException("Unknown relationship type " + id, e);
+                }
+            });
+        }
+
+        /**
+         * Get the node at the other end of the single relationship of a node with the given type and direction.
+         */
+        private long single(long nodeId, int type, Direction direction) {
+            if (type == NO_TOKEN || !positionNode(nodeId)) {
+                return NO_NODE;
+            }
+
+            if (node.isDense()) {
+                node.relationships(group);
+                while (group.next()) {
+                    if (group.type() == type) {
+                        if (direction == OUTGOING) {
+                            group.outgoing(relationship);
+                        } else {
+                            group.incoming(relationship);
+                        }
+                        return relationship.next() ? relationship.neighbourNodeReference() : NO_NODE;
+                    }
+                }
+                return NO_NODE;
+            }
+
+            node.allRelationships(relationship);
+            while (relationship.next()) {
+                if (relationship.type() == type && matches(nodeId, direction)) {
+                    return relationship.neighbourNodeReference();
+                }
+            }
+            return NO_NODE;
+        }
+
+        /**
+         * Get the nodes at the other end of the relationships of a node with the given type and direction.
+         */
+        private List<Long> all(long nodeId, int type, Direction direction) {
+            if (type == NO_TOKEN || !positionNode(nodeId)) {
+                return Collections.emptyList();
+            }
+
+            List<Long> result = new ArrayList<>(1);
+
+            if (node.isDense()) {
+                node.relationships(group);
+                while (group.next()) {
+                    if (group.type() == type) {
+                        if (direction == OUTGOING) {
+                            group.outgoing(relationship);
+                        } else {
+                            group.incoming(relationship);
+                        }
+                        while (relationship.next()) {
+                            result.add(relationship.neighbourNodeReference());
+                        }
+                    }
+                }
+                return result;
+            }
+
+            node.allRelationships(relationship);
+            while (relationship.next()) {
+                if (relationship.type() == type && matches(nodeId, direction)) {
+                    result.add(relationship.neighbourNodeReference());
+                }
+            }
+            return result;
+        }
+
+        private boolean matches(long nodeId, Direction direction) {
+            switch (direction) {
+                case OUTGOING:
+                    return relationship.sourceNodeReference() == nodeId;
+                case INCOMING:
+                    return relationship.targetNodeReference() == nodeId;
+                default:
+                    return true;
+            }
+        }
+
+        private long value(long nodeId) {
+            if (!positionNode(nodeId)) {
+                return Long.MIN_VALUE;
+            }
+
+            node.properties(property);
+            while (property.next()) {
+                if (property.propertyKey() == valueKey()) {
+                    return ((NumberValue) property.propertyValue()).longValue();
+                }
+            }
+            return Long.MIN_VALUE;
+        }
+
+        private boolean isSkipMarked(long nodeId) {
+            if (skipMarkerKey() == NO_TOKEN || !positionNode(nodeId)) {
+                return false;
+            }
+
+            node.properties(property);
+            while (property.next()) {
+                if (property.propertyKey() == skipMarkerKey()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Get the token id of a time tree relationship type, NO_TOKEN if no relationship of the type exists yet.
+         * Token ids never change once they exist, so they are cached from then on.
+         */
+        private int type(TimeTreeRelationshipTypes type) {
+            int id = relationshipTypeIds[type.ordinal()];
+            if (id == NO_TOKEN) {
+                id = tokenRead.relationshipType(type.name());
+                relationshipTypeIds[type.ordinal()] = id;
+            }
+            return id;
+        }
+
+        private int valueKey() {
+            if (valueKey == NO_TOKEN) {
+                valueKey = tokenRead.propertyKey(SingleTimeTree.VALUE_PROPERTY);
+            }
+            return valueKey;
+        }
+
+        private int skipMarkerKey() {
+            if (skipMarkerKey == NO_TOKEN) {
+                skipMarkerKey = tokenRead.propertyKey(SkipPointers.MARKER_PROPERTY);
+            }
+            return skipMarkerKey;
+        }
+
+        private boolean positionNode(long nodeId) {
+            read.singleNode(nodeId, node);
+            return node.next();
+        }
+
+        @Override
+        public void close() {
+            node.close();
+            group.close();
+            relationship.close();
+            property.close();
+        }
+    }
+}
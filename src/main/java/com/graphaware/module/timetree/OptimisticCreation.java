@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Optimistic creation of time instants. Instead of holding the write lock of the root for the whole of
+ * {@link TimeTree#getOrCreateInstant}, the tree is descended without any locks. Only when a child is missing are the
+ * parent and the nodes the child will be linked to locked, after which the lookup is repeated. If another transaction
+ * has changed that part of the tree in the meantime, the locks are released and the insertion is retried.
+ * <p>
+ * In steady state, when instants already exist, no locks are taken at all, and transactions creating instants in
+ * different parts of the tree do not block each other. The root is not locked, so every change to the tree has to be
+ * made under the locks of the nodes it affects: while enabled, ranges of instants are created one by one in the same
+ * way. An insertion that keeps conflicting with other transactions falls back to locking the root and
+ * holding on to the locks it takes until the child is inserted, so it cannot be starved by other insertions.
+ * <p>
+ * The nodes at each level are locked in the order of their IDs, but locks taken at different levels are not ordered,
+ * so two transactions inserting into neighbouring parts of the tree can deadlock. Neo4j detects that and fails one of
+ * them with a {@link org.neo4j.kernel.DeadlockDetectedException}, which is transient and can be retried.
+ * Optimistic creation is off by default.
+ */
+public final class OptimisticCreation {
+
+    private static final Map<GraphDatabaseService, OptimisticCreation> SETTINGS = new ConcurrentHashMap<>();
+
+    private volatile boolean enabled = false;
+
+    /**
+     * Get the optimistic creation settings of a database, creating them (disabled) if needed.
+     *
+     * @param database to get the settings for.
+     * @return settings.
+     */
+    public static OptimisticCreation forDatabase(GraphDatabaseService database) {
+        return SETTINGS.computeIfAbsent(database, OptimisticCreation::new);
+    }
+
+    private OptimisticCreation(GraphDatabaseService database) {
+        database.registerKernelEventHandler(new ShutdownHandler(() -> SETTINGS.remove(database)));
+    }
+
+    /**
+     * Start creating instants optimistically.
+     */
+    public void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Stop creating instants optimistically.
+     */
+    public void disable() {
+        enabled = false;
+    }
+
+    /**
+     * @return true iff instants are created optimistically.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+}
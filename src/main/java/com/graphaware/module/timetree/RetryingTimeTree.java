@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.graphaware.module.timetree;
+
+import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.metrics.TimeTreeMetrics;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransientFailureException;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link TimeTree} decorator, which creates missing instants in transactions of their own, retrying them with
+ * jittered exponential backoff when they fail transiently, see {@link TransientFailureRetry}. Everything else, including
+ * finding existing instants, is delegated to the decorated tree in the caller's transaction.
+ * <p>
+ * Created instants are committed before they are returned to the caller. Should the separate transaction run out of
+ * retries, fail for any other reason (e.g. because the root of the tree has been created by the caller's uncommitted
+ * transaction), be rejected by a busy executor or not finish within the timeout, the instant is created in the caller's
+ * transaction, like with the decorated tree.
+ * <p>
+ * The caller's transaction may hold locks on the tree: on the instants it attaches events to, and on the root (or the
+ * nodes around new instants, with {@link OptimisticCreation}) once an instant has been created in it. A separate
+ * transaction waiting for such a lock would wait for the caller, which waits for the separate transaction, unseen by
+ * deadlock detection. The instants returned to each caller's transaction are therefore remembered, and an instant that
+ * would be linked to one of them, or be its child, is created in the caller's transaction straight away. So are all
+ * further instants of a transaction that any instant has been created in, or that the tree has been used for otherwise.
+ * <p>
+ * Instants created in separate transactions stay in the tree even if the caller's transaction rolls back.
+ */
+public class RetryingTimeTree implements TimeTree {
+
+    private static final Log LOG = LoggerFactory.getLogger(RetryingTimeTree.class);
+    private static final TimeTreeMetrics METRICS = TimeTreeMetrics.getInstance();
+
+    public static final long BASE_BACKOFF = 10;
+    public static final long MAX_BACKOFF = 1000;
+    public static final long DEFAULT_TIMEOUT = 5000;
+
+    private static final ThreadLocal<CallerTransaction> LAST_CALLER = new ThreadLocal<>();
+
+    private final GraphDatabaseService database;
+    private final TimeTree delegate;
+    private final ExecutorService executor;
+    private final int maxRetries;
+    private final ThreadToStatementContextBridge transactions;
+
+    /**
+     * Create a new retrying time tree.
+     *
+     * @param database   to talk to.
+     * @param delegate   decorated time tree.
+     * @param executor   to run the separate transactions in.
+     * @param maxRetries maximum number of retries of a single instant.
+     */
+    public RetryingTimeTree(GraphDatabaseService database, TimeTree delegate, ExecutorService executor, int maxRetries) {
+        this.database = database;
+        this.delegate = delegate;
+        this.executor = executor;
+        this.maxRetries = maxRetries;
+        if (database instanceof GraphDatabaseAPI) {
+            this.transactions = ((GraphDatabaseAPI) database).getDependencyResolver().resolveDependency(ThreadToStatementContextBridge.class);
+        } else {
+            this.transactions = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Node getInstant(TimeInstant timeInstant) {
+        useInCallerTransaction();
+        return delegate.getInstant(timeInstant);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Node getInstantAtOrAfter(TimeInstant timeInstant) {
+        useInCallerTransaction();
+        return delegate.getInstantAtOrAfter(timeInstant);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Node getInstantAtOrBefore(TimeInstant timeInstant) {
+        useInCallerTransaction();
+        return delegate.getInstantAtOrBefore(timeInstant);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Node> getInstants(TimeInstant startTime, TimeInstant endTime) {
+        useInCallerTransaction();
+        return delegate.getInstants(startTime, endTime);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Node getOrCreateInstant(TimeInstant timeInstant) {
+        CallerTransaction caller = callerTransaction();
+        if (caller == null || caller.holdsTree) {
+            return createInCallerTransaction(caller, timeInstant);
+        }
+
+        if (delegate instanceof SingleTimeTree) {
+            SingleTimeTree single = (SingleTimeTree) delegate;
+
+            Node instant = single.findExistingInstant(timeInstant);
+            if (instant != null) {
+                caller.instants.add(instant.getId());
+                return instant;
+            }
+
+            if (!Collections.disjoint(caller.instants, single.findNodesChangedByCreating(timeInstant))) {
+                return createInCallerTransaction(caller, timeInstant);
+            }
+        } else if (!caller.instants.isEmpty()) {
+            return createInCallerTransaction(caller, timeInstant);
+        }
+
+        Long instantId = createInSeparateTransaction(timeInstant);
+
+        if (instantId == null) {
+            return createInCallerTransaction(caller, timeInstant);
+        }
+
+        caller.instants.add(instantId);
+        return database.getNodeById(instantId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Node> getOrCreateInstants(TimeInstant startTime, TimeInstant endTime) {
+        useInCallerTransaction();
+        return delegate.getOrCreateInstants(startTime, endTime);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAll() {
+        useInCallerTransaction();
+        delegate.removeAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeInstant(Node instantNode) {
+        useInCallerTransaction();
+        delegate.removeInstant(instantNode);
+    }
+
+    /**
+     * Get what is known about the caller's transaction.
+     *
+     * @return the caller's transaction, null if it can't be told apart from others.
+     */
+    private CallerTransaction callerTransaction() {
+        KernelTransaction transaction = transactions == null ? null : transactions.getKernelTransactionBoundToThisThread(false);
+        if (transaction == null) {
+            return null;
+        }
+
+        CallerTransaction caller = LAST_CALLER.get();
+        if (caller == null || !caller.is(transaction)) {
+            caller = new CallerTransaction(transaction);
+            LAST_CALLER.set(caller);
+        }
+
+        return caller;
+    }
+
+    /**
+     * Record that the tree is used by the caller's transaction in a way that may lock it.
+     */
+    private void useInCallerTransaction() {
+        CallerTransaction caller = callerTransaction();
+        if (caller != null) {
+            caller.holdsTree = true;
+        }
+    }
+
+    private Node createInCallerTransaction(CallerTransaction caller, TimeInstant timeInstant) {
+        if (caller != null) {
+            caller.holdsTree = true;
+        }
+
+        return delegate.getOrCreateInstant(timeInstant);
+    }
+
+    /**
+     * Get the time to wait before a retry: a random time between zero and an exponentially growing, capped maximum.
+     *
+     * @param attempt number of the failed attempt, starting at 0.
+     * @return time to wait in ms.
+     */
+    static long backoff(int attempt) {
+        return ThreadLocalRandom.current().nextLong(Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(attempt, 20)) + 1);
+    }
+
+    /**
+     * Create an instant in a separate transaction and wait for it to commit.
+     *
+     * @param timeInstant to create.
+     * @return ID of the instant node, <code>null</code> if it couldn't be created.
+     */
+    private Long createInSeparateTransaction(TimeInstant timeInstant) {
+        Future<Long> future;
+        try {
+            future = executor.submit(() -> createWithRetries(timeInstant));
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+
+        try {
+            return future.get(DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            LOG.warn("Time instant was not created within " + DEFAULT_TIMEOUT + " ms, creating it in the calling transaction");
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a time instant to be created", e);
+        } catch (ExecutionException e) {
+            LOG.debug("Failed to create time instant, creating it in the calling transaction", e.getCause());
+            return null;
+        }
+    }
+
+    private long createWithRetries(TimeInstant timeInstant) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try (Transaction tx = database.beginTx()) {
+                long instantId = delegate.getOrCreateInstant(timeInstant).getId();
+                tx.success();
+                return instantId;
+            } catch (TransientFailureException e) {
+                if (attempt >= maxRetries) {
+                    METRICS.transientFailureGaveUp();
+                    throw e;
+                }
+
+                METRICS.transientFailureRetried();
+                Thread.sleep(backoff(attempt));
+            }
+        }
+    }
+
+    /**
+     * A caller's transaction and the parts of the tree it may hold locks on. Kernel transactions are pooled, hence
+     * their start time is part of the identity.
+     */
+    private static final class CallerTransaction {
+
+        private final KernelTransaction transaction;
+        private final long startTime;
+
+        /**
+         * IDs of the instants returned to the transaction, which it is likely to lock by attaching events to them.
+         */
+        private final Set<Long> instants = new HashSet<>();
+
+        /**
+         * Whether the transaction may hold locks anywhere in the tree.
+         */
+        private boolean holdsTree;
+
+        private CallerTransaction(KernelTransaction transaction) {
+            this.transaction = transaction;
+            this.startTime = transaction.startTime();
+        }
+
+        private boolean is(KernelTransaction transaction) {
+            return this.transaction == transaction && startTime == transaction.startTime();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import org.neo4j.graphdb.event.ErrorState;
+import org.neo4j.graphdb.event.KernelEventHandler;
+
+/**
+ * {@link KernelEventHandler} running an action before its database shuts down, used to discard per-database state.
+ */
+public final class ShutdownHandler implements KernelEventHandler {
+
+    private final Runnable beforeShutdown;
+
+    /**
+     * Create a new handler.
+     *
+     * @param beforeShutdown action to run before the database shuts down.
+     */
+    public ShutdownHandler(Runnable beforeShutdown) {
+        this.beforeShutdown = beforeShutdown;
+    }
+
+    @Override
+    public void beforeShutdown() {
+        beforeShutdown.run();
+    }
+
+    @Override
+    public void kernelPanic(ErrorState error) {
+    }
+
+    @Override
+    public Object getResource() {
+        return null;
+    }
+
+    @Override
+    public ExecutionOrder orderComparedTo(KernelEventHandler other) {
+        return ExecutionOrder.DOESNT_MATTER;
+    }
+}
@@ -21,22 +21,33 @@ import com.graphaware.common.util.IterableUtils;
 import com.graphaware.module.timetree.domain.Resolution;
 import com.graphaware.module.timetree.domain.TimeInstant;
 import com.graphaware.module.timetree.domain.TimeTreeLabels;
-import org.joda.time.DateTime;
+import com.graphaware.module.timetree.metrics.TimeTreeMetrics;
+import org.joda.time.DateTimeZone;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.event.TransactionData;
 import org.neo4j.graphdb.event.TransactionEventHandler;
 import org.neo4j.logging.Log;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.graphaware.common.util.EntityUtils.getInt;
 import static com.graphaware.module.timetree.SingleTimeTree.ChildNotFoundPolicy.*;
+import static com.graphaware.module.timetree.domain.CalendarArithmetic.get;
+import static com.graphaware.module.timetree.domain.CalendarArithmetic.toLocal;
 import static com.graphaware.module.timetree.domain.Resolution.YEAR;
 import static com.graphaware.module.timetree.domain.Resolution.findForNode;
 import static com.graphaware.module.timetree.domain.TimeTreeLabels.TimeTreeRoot;
 import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
+import static com.graphaware.module.timetree.domain.ValidationUtils.validateRange;
 import static org.neo4j.graphdb.Direction.INCOMING;
 import static org.neo4j.graphdb.Direction.OUTGOING;
 
@@ -46,11 +57,23 @@ import static org.neo4j.graphdb.Direction.OUTGOING;
 public class SingleTimeTree implements TimeTree {
 
     private static final Log LOG = LoggerFactory.getLogger(SingleTimeTree.class);
+    private static final TimeTreeMetrics METRICS = TimeTreeMetrics.getInstance();
 
     protected static final String VALUE_PROPERTY = "value";
 
+    /**
+     * Number of times an optimistic insertion is attempted before falling back to locking the root, see
+     * {@link OptimisticCreation}.
+     */
+    static final int MAX_INSERT_ATTEMPTS = 5;
+
     private final GraphDatabaseService database;
+    private final InstantKeys keys;
+    private final SkipPointers skipPointers;
+    private final KernelTraversal traversal;
+    private final OptimisticCreation optimisticCreation;
     private final ReentrantLock rootLock = new ReentrantLock();
+    private volatile LeafHint leafHint;
 
     /**
      * Constructor for time tree.
@@ -58,7 +81,27 @@ public class SingleTimeTree implements TimeTree {
      * @param database to talk to.
      */
     public SingleTimeTree(GraphDatabaseService database) {
+        this(database, true);
+    }
+
+    /**
+     * Constructor for time tree.
+     *
+     * @param database   to talk to.
+     * @param createRoot true iff this tree may create its own root, which requires a transaction event handler to
+     *                   release the lock held while the root is being created. Subclasses that are given their root
+     *                   should pass false, so that no handler is registered for every instance.
+     */
+    protected SingleTimeTree(GraphDatabaseService database, boolean createRoot) {
         this.database = database;
+        this.keys = InstantKeys.forDatabase(database);
+        this.skipPointers = SkipPointers.forDatabase(database);
+        this.traversal = KernelTraversal.forDatabase(database);
+        this.optimisticCreation = OptimisticCreation.forDatabase(database);
+
+        if (!createRoot) {
+            return;
+        }
 
         database.registerTransactionEventHandler(new TransactionEventHandler<Boolean>() {
             @Override
@@ -125,15 +168,23 @@ public class SingleTimeTree implements TimeTree {
      */
     @Override
     public List<Node> getInstants(TimeInstant startTime, TimeInstant endTime) {
-        List<Node> result = new LinkedList<>();
+        long start = System.nanoTime();
+        List<Node> result;
 
-        for (TimeInstant instant : TimeInstant.getInstants(startTime, endTime)) {
-            Node toAdd = getInstant(instant);
-            if (toAdd != null) {
-                result.add(toAdd);
+        try (Transaction tx = database.beginTx()) {
+            Node timeRoot = getTimeRoot(false);
+
+            if (timeRoot == null) {
+                result = new LinkedList<>();
+            } else {
+                lockRoot(tx, timeRoot);
+                result = getInstants(timeRoot, startTime, endTime, false);
             }
+
+            tx.success();
         }
 
+        METRICS.instantLookedUp(System.nanoTime() - start);
         return result;
     }
 
@@ -142,31 +193,65 @@ public class SingleTimeTree implements TimeTree {
      */
     @Override
     public Node getOrCreateInstant(TimeInstant timeInstant) {
+        long start = System.nanoTime();
         Node instant;
-        DateTime dateTime = new DateTime(timeInstant.getTime(), timeInstant.getTimezone());
+        long localTime = toLocal(timeInstant.getTime(), timeInstant.getTimezone());
 
         try (Transaction tx = database.beginTx()) {
-            Node timeRoot = getTimeRoot(true);
-            tx.acquireWriteLock(timeRoot);
-            instant = getOrCreateInstant(timeRoot, dateTime, timeInstant.getResolution());
+            Node timeRoot = getTimeRoot(false);
+            instant = timeRoot == null ? null : findExistingInstant(timeRoot, localTime, timeInstant.getResolution());
+
+            if (instant == null) {
+                if (timeRoot == null) {
+                    timeRoot = getTimeRoot(true);
+                }
+
+                if (optimisticCreation.isEnabled()) {
+                    instant = getOrCreateInstantOptimistically(tx, timeRoot, localTime, timeInstant.getResolution());
+                } else {
+                    lockRoot(tx, timeRoot);
+                    //another transaction may have created the instant since it was looked for
+                    instant = findByKey(timeRoot, localTime, timeInstant.getResolution());
+                    if (instant == null) {
+                        METRICS.descent();
+                        instant = getOrCreateInstant(fromLeafHint(timeRoot, localTime, timeInstant.getResolution()), localTime, timeInstant.getResolution());
+                    }
+                    setLeafHint(timeRoot, instant, localTime, timeInstant.getResolution());
+                }
+            }
 
             tx.success();
         }
 
+        METRICS.instantCreatedOrLookedUp(System.nanoTime() - start);
         return instant;
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * All instants are created in a single transaction, under a single lock of the root. With
+     * {@link OptimisticCreation}, they are created one by one under the locks of the nodes around them instead, like
+     * the instants created by other transactions.
      */
     @Override
     public List<Node> getOrCreateInstants(TimeInstant startTime, TimeInstant endTime) {
-        List<Node> result = new LinkedList<>();
+        long start = System.nanoTime();
+        List<Node> result;
+
+        try (Transaction tx = database.beginTx()) {
+            Node timeRoot = getTimeRoot(true);
+            if (optimisticCreation.isEnabled()) {
+                result = getOrCreateInstantsOptimistically(tx, timeRoot, startTime, endTime);
+            } else {
+                lockRoot(tx, timeRoot);
+                result = getInstants(timeRoot, startTime, endTime, true);
+            }
 
-        for (TimeInstant instant : TimeInstant.getInstants(startTime, endTime)) {
-            result.add(getOrCreateInstant(instant));
+            tx.success();
         }
 
+        METRICS.instantCreatedOrLookedUp(System.nanoTime() - start);
         return result;
     }
 
@@ -207,26 +292,622 @@ public class SingleTimeTree implements TimeTree {
         return timeTreeRoot;
     }
 
+    /**
+     * Get (or create) nodes representing all time instants in the specified range (inclusive). Since the instants are
+     * chronologically ordered, the path from the root to the previous instant is reused for the next one, down to the
+     * first level at which the two instants differ. When creating, the search for the new child at that level starts
+     * at the previous one.
+     *
+     * @param timeRoot  root of the time tree.
+     * @param startTime start of the interval (inclusive).
+     * @param endTime   end of the interval (inclusive).
+     * @param create    true for creating missing instants, false for skipping them.
+     * @return nodes representing time instants in the interval, ordered chronologically.
+     */
+    private List<Node> getInstants(Node timeRoot, TimeInstant startTime, TimeInstant endTime, boolean create) {
+        validateRange(startTime, endTime);
+
+        List<Node> result = new ArrayList<>();
+
+        Resolution[] levels = Resolution.values();
+        Node[] path = new Node[levels.length];
+        int[] values = new int[levels.length];
+        boolean first = true;
+
+        DateTimeZone timezone = startTime.getTimezone();
+        Resolution resolution = startTime.getResolution();
+
+        for (long time = startTime.getTime(); time <= endTime.getTime(); time = TimeInstant.next(time, resolution)) {
+            long localTime = toLocal(time, timezone);
+
+            Node current = timeRoot;
+            boolean samePath = !first;
+            METRICS.descent();
+            for (Resolution level : levels) {
+                int i = level.ordinal();
+                int value = get(localTime, level);
+
+                if (samePath && values[i] == value) {
+                    current = path[i];
+                } else {
+                    current = create ? findOrCreateChild(current, value, samePath ? path[i] : null) : findChild(current, value, RETURN_NULL);
+                    path[i] = current;
+                    values[i] = value;
+                    samePath = false;
+                }
+
+                if (current == null || level.equals(resolution)) {
+                    break;
+                }
+            }
+
+            if (current != null) {
+                result.add(current);
+            }
+            first = false;
+        }
+
+        return result;
+    }
+
     private Node getInstant(TimeInstant timeInstant, ChildNotFoundPolicy childNotFoundPolicy) {
+        long start = System.nanoTime();
         Node instant = null;
 
         try (Transaction tx = database.beginTx()) {
-            DateTime dateTime = new DateTime(timeInstant.getTime(), timeInstant.getTimezone());
+            long localTime = toLocal(timeInstant.getTime(), timeInstant.getTimezone());
 
             Node timeRoot = getTimeRoot(false);
 
             if (timeRoot != null) {
-                tx.acquireWriteLock(timeRoot);
-                instant = getInstant(timeRoot, dateTime, timeInstant.getResolution(), childNotFoundPolicy);
+                try {
+                    instant = findInstant(timeRoot, localTime, timeInstant.getResolution(), childNotFoundPolicy);
+                } catch (NotFoundException e) {
+                    //the tree has been changed by a committing transaction while it was being walked without locks
+                    lockRoot(tx, timeRoot);
+                    instant = findInstant(timeRoot, localTime, timeInstant.getResolution(), childNotFoundPolicy);
+                }
             }
 
             tx.success();
         }
 
+        METRICS.instantLookedUp(System.nanoTime() - start);
+        return instant;
+    }
+
+    /**
+     * Find an existing instant without taking any locks, see {@link #findExistingInstant(Node, long, Resolution)}.
+     *
+     * @param timeInstant to find.
+     * @return instant, null if not found.
+     */
+    Node findExistingInstant(TimeInstant timeInstant) {
+        Node timeRoot = getTimeRoot(false);
+        if (timeRoot == null) {
+            return null;
+        }
+
+        return findExistingInstant(timeRoot, toLocal(timeInstant.getTime(), timeInstant.getTimezone()), timeInstant.getResolution());
+    }
+
+    /**
+     * Find, without taking any locks, the existing nodes that creating a missing instant would change: the parent of
+     * its highest missing ancestor and, on that level and every level below, the nodes the new instants would be linked
+     * to by NEXT relationships. As other transactions may change the tree in the meantime, the result is an estimate.
+     *
+     * @param timeInstant to create.
+     * @return IDs of the nodes, empty if the instant or the root of the tree does not exist.
+     */
+    Set<Long> findNodesChangedByCreating(TimeInstant timeInstant) {
+        Set<Long> result = new HashSet<>();
+
+        Node timeRoot = getTimeRoot(false);
+        if (timeRoot == null) {
+            return result;
+        }
+
+        long localTime = toLocal(timeInstant.getTime(), timeInstant.getTimezone());
+        try {
+            Node parent = timeRoot;
+            Node previous = null;
+            Node next = null;
+            for (Resolution level : Resolution.values()) {
+                if (parent != null) {
+                    int value = get(localTime, level);
+                    Node child = findChildWithoutLocks(parent, value);
+                    if (child != null) {
+                        parent = child;
+                    } else {
+                        result.add(parent.getId());
+                        previous = nearestChild(parent, value, INCOMING);
+                        next = nearestChild(parent, value, OUTGOING);
+                        parent = null;
+                    }
+                } else {
+                    previous = previous == null ? null : nearestChildFrom(previous, INCOMING);
+                    next = next == null ? null : nearestChildFrom(next, OUTGOING);
+                }
+
+                addIdIfNotNull(result, previous);
+                addIdIfNotNull(result, next);
+
+                if (level.equals(timeInstant.getResolution())) {
+                    break;
+                }
+            }
+        } catch (NotFoundException e) {
+            //the tree is being changed by another transaction, the nodes found so far will have to do
+        }
+
+        return result;
+    }
+
+    /**
+     * Find the existing node that would precede or follow a missing child on its level.
+     */
+    private Node nearestChild(Node parent, int value, Direction direction) {
+        if (parent.getSingleRelationship(FIRST, OUTGOING) == null) {
+            return nearestChildOfOtherParent(parent, direction, null);
+        }
+
+        Node previous = findChild(parent, value, RETURN_PREVIOUS);
+        if (direction == INCOMING) {
+            return previous;
+        }
+
+        Relationship next = previous == null ? parent.getSingleRelationship(FIRST, OUTGOING) : previous.getSingleRelationship(NEXT, OUTGOING);
+        return next == null ? null : next.getOtherNode(previous == null ? parent : previous);
+    }
+
+    /**
+     * Find the last child of the node, or of the nearest previous one with children, or the first child of the node, or
+     * of the nearest next one with children.
+     */
+    private Node nearestChildFrom(Node node, Direction direction) {
+        Relationship child = node.getSingleRelationship(direction == INCOMING ? LAST : FIRST, OUTGOING);
+        if (child != null) {
+            return child.getEndNode();
+        }
+
+        return nearestChildOfOtherParent(node, direction, null);
+    }
+
+    private static void addIdIfNotNull(Set<Long> ids, Node node) {
+        if (node != null) {
+            ids.add(node.getId());
+        }
+    }
+
+    /**
+     * Find an existing instant without taking any locks, which is what almost every call to get or create an instant
+     * ends up doing. The instants seen are those committed by other transactions and those created by the current one,
+     * so the instant can be used right away; when it is missing, it has to be looked for again after escalating to
+     * locks.
+     *
+     * @param timeRoot   root of the time tree.
+     * @param localTime  time of the instant, as local time in the time zone of the tree.
+     * @param resolution of the instant.
+     * @return instant, null if not found.
+     */
+    private Node findExistingInstant(Node timeRoot, long localTime, Resolution resolution) {
+        Node instant = findByKey(timeRoot, localTime, resolution);
+        if (instant != null) {
+            return instant;
+        }
+
+        METRICS.descent();
+        if (traversal.isEnabled()) {
+            try {
+                return traversal.findInstant(timeRoot, localTime, resolution);
+            } catch (NotFoundException e) {
+                //a node on the path has been removed by a committing transaction
+                return null;
+            }
+        }
+
+        Node current = timeRoot;
+        for (Resolution level : Resolution.values()) {
+            current = findChildWithoutLocks(current, get(localTime, level));
+            if (current == null || level.equals(resolution)) {
+                break;
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Find a child without holding any locks. Other transactions may change the tree while it is being walked: nodes
+     * and NEXT relationships on the way may be removed, LAST and CHILD relationships may be missing while they are being
+     * replaced, and when the last child of the parent is removed, the walk may end among the children of the next
+     * parent. All of these are reported as the child not being found.
+     *
+     * @param parent of the child.
+     * @param value  of the child.
+     * @return child, null if not found.
+     */
+    private Node findChildWithoutLocks(Node parent, int value) {
+        try {
+            Node child = findChild(parent, value, RETURN_NULL);
+            if (child == null) {
+                return null;
+            }
+
+            Relationship parentRelationship = child.getSingleRelationship(CHILD, INCOMING);
+            return parentRelationship != null && parentRelationship.getStartNode().getId() == parent.getId() ? child : null;
+        } catch (NotFoundException e) {
+            //a node or relationship on the way has been removed by a committing transaction
+            return null;
+        }
+    }
+
+    /**
+     * Get or create an instant without locking the root, see {@link OptimisticCreation}. When the insertion of a child
+     * keeps conflicting with other transactions, the root is locked and the locks of the nodes around the insertion
+     * point are held on to rather than released, so that the insertion is bound to succeed.
+     *
+     * @param tx         current transaction.
+     * @param timeRoot   root of the time tree.
+     * @param localTime  time of the instant, as local time in the time zone of the tree.
+     * @param resolution of the instant.
+     * @return instant.
+     */
+    private Node getOrCreateInstantOptimistically(Transaction tx, Node timeRoot, long localTime, Resolution resolution) {
+        for (int attempt = 0; attempt < MAX_INSERT_ATTEMPTS; attempt++) {
+            Node instant = descendOptimistically(tx, timeRoot, localTime, resolution, false);
+            if (instant != null) {
+                return instant;
+            }
+        }
+
+        lockRoot(tx, timeRoot);
+
+        Node instant;
+        do {
+            instant = descendOptimistically(tx, timeRoot, localTime, resolution, true);
+        } while (instant == null);
+
         return instant;
     }
 
-    private Node getInstant(Node parent, DateTime dateTime, Resolution targetResolution, ChildNotFoundPolicy childNotFoundPolicy) {
+    private List<Node> getOrCreateInstantsOptimistically(Transaction tx, Node timeRoot, TimeInstant startTime, TimeInstant endTime) {
+        validateRange(startTime, endTime);
+
+        List<Node> result = new ArrayList<>();
+        Resolution resolution = startTime.getResolution();
+        for (long time = startTime.getTime(); time <= endTime.getTime(); time = TimeInstant.next(time, resolution)) {
+            result.add(getOrCreateInstantOptimistically(tx, timeRoot, toLocal(time, startTime.getTimezone()), resolution));
+        }
+
+        return result;
+    }
+
+    /**
+     * Descend the tree without locks, inserting missing children under the locks of the nodes they are linked to.
+     *
+     * @param tx         current transaction.
+     * @param timeRoot   root of the time tree.
+     * @param localTime  time of the instant, as local time in the time zone of the tree.
+     * @param resolution of the instant.
+     * @param holdLocks  see {@link #insertChild(Transaction, Node, int, boolean)}.
+     * @return instant, null if an insertion conflicted with another transaction and the descent has to be repeated.
+     */
+    private Node descendOptimistically(Transaction tx, Node timeRoot, long localTime, Resolution resolution, boolean holdLocks) {
+        METRICS.descent();
+        Node current = timeRoot;
+        for (Resolution level : Resolution.values()) {
+            int value = get(localTime, level);
+
+            Node child = findChildWithoutLocks(current, value);
+            if (child == null) {
+                child = insertChild(tx, current, value, holdLocks);
+                if (child == null) {
+                    return null;
+                }
+            }
+            current = child;
+
+            if (level.equals(resolution)) {
+                break;
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Insert a missing child under the locks of the parent and the nodes the child will be linked to. The locks are
+     * taken in the order of node IDs, after which the insertion point is looked up again. If another transaction has
+     * changed that part of the tree in the meantime, the insertion conflicts.
+     *
+     * @param tx        current transaction.
+     * @param parent    of the child.
+     * @param value     of the child.
+     * @param holdLocks false for releasing the locks and giving up on a conflict, true for keeping them and locking
+     *                  the changed insertion point in addition, until all the nodes around it are locked.
+     * @return the child, created by this or another transaction, null if the insertion conflicted and was given up,
+     * or the parent has been removed.
+     */
+    private Node insertChild(Transaction tx, Node parent, int value, boolean holdLocks) {
+        List<Lock> locks = new ArrayList<>();
+        Set<Long> locked = new HashSet<>();
+
+        do {
+            List<Node> insertionPoint = lockableInsertionPoint(parent, value);
+            if (insertionPoint == null) {
+                return findChildWithoutLocks(parent, value);
+            }
+
+            if (!insertionPoint.isEmpty()) {
+                for (Node node : insertionPoint) {
+                    if (locked.add(node.getId())) {
+                        locks.add(tx.acquireWriteLock(node));
+                    }
+                }
+
+                if (!exists(parent)) {
+                    METRICS.insertConflict();
+                    release(locks);
+                    return null;
+                }
+
+                List<Node> current = lockableInsertionPoint(parent, value);
+                if (current == null) {
+                    return findChildWithoutLocks(parent, value);
+                }
+
+                if (!current.isEmpty() && (holdLocks ? locked.containsAll(ids(current)) : insertionPoint.equals(current))) {
+                    return findOrCreateChild(parent, value, null);
+                }
+            }
+
+            METRICS.insertConflict();
+            if (!holdLocks) {
+                release(locks);
+                return null;
+            }
+        } while (true);
+    }
+
+    /**
+     * Find the nodes that have to be locked to insert a child, including its parent, in the order of their IDs.
+     *
+     * @param parent of the child.
+     * @param value  of the child.
+     * @return nodes to lock, null if the child exists, empty if the tree has changed while it was being looked at, in
+     * which case the insertion conflicts.
+     */
+    private List<Node> lockableInsertionPoint(Node parent, int value) {
+        List<Node> result;
+        try {
+            result = insertionPoint(parent, value);
+        } catch (NotFoundException e) {
+            return Collections.emptyList();
+        }
+
+        if (result != null) {
+            result.add(parent);
+            result.sort(Comparator.comparingLong(Node::getId));
+        }
+
+        return result;
+    }
+
+    private boolean exists(Node node) {
+        try {
+            database.getNodeById(node.getId());
+            return true;
+        } catch (NotFoundException e) {
+            return false;
+        }
+    }
+
+    private static List<Long> ids(List<Node> nodes) {
+        List<Long> result = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            result.add(node.getId());
+        }
+        return result;
+    }
+
+    private static void release(List<Lock> locks) {
+        for (Lock lock : locks) {
+            lock.release();
+        }
+        locks.clear();
+    }
+
+    /**
+     * Find the nodes that have to be locked to insert a child with the given value, other than its parent: the nodes
+     * the child will be linked to by NEXT relationships and, if it is the first child of the parent, all the childless
+     * parents between them.
+     *
+     * @param parent of the child.
+     * @param value  of the child.
+     * @return nodes to lock, null if the child exists.
+     * @throws NotFoundException in case the tree is being changed by another transaction.
+     */
+    private List<Node> insertionPoint(Node parent, int value) {
+        List<Node> result = new ArrayList<>();
+
+        if (parent.getSingleRelationship(FIRST, OUTGOING) == null) {
+            addIfNotNull(result, nearestChildOfOtherParent(parent, INCOMING, result));
+            addIfNotNull(result, nearestChildOfOtherParent(parent, OUTGOING, result));
+            return result;
+        }
+
+        Node next = findChild(parent, value, RETURN_NEXT);
+        if (next != null && otherNodeWithoutLocks(next, CHILD, INCOMING).getId() == parent.getId() && getInt(next, VALUE_PROPERTY) == value) {
+            return null;
+        }
+
+        if (next == null) {
+            //the new last child takes over the NEXT relationship to the first child of the next parent, if any
+            Node lastChild = otherNodeWithoutLocks(parent, LAST, OUTGOING);
+            result.add(lastChild);
+            Relationship nextOfLast = lastChild.getSingleRelationship(NEXT, OUTGOING);
+            if (nextOfLast != null) {
+                result.add(nextOfLast.getEndNode());
+            }
+            return result;
+        }
+
+        Relationship previous = next.getSingleRelationship(NEXT, INCOMING);
+        if (previous != null) {
+            result.add(previous.getStartNode());
+        }
+        result.add(next);
+        return result;
+    }
+
+    private static void addIfNotNull(List<Node> nodes, Node node) {
+        if (node != null) {
+            nodes.add(node);
+        }
+    }
+
+    /**
+     * Seek an existing instant by its key, if {@link InstantKeys} are enabled.
+     *
+     * @param timeRoot   root of the time tree.
+     * @param localTime  time of the instant, as local time in the time zone of the tree.
+     * @param resolution of the instant.
+     * @return instant, null if keys are disabled or no instant with the key exists (it may still exist without a key).
+     */
+    private Node findByKey(Node timeRoot, long localTime, Resolution resolution) {
+        if (!keys.isEnabled()) {
+            return null;
+        }
+
+        return keys.find(timeRoot, resolution, InstantKeys.key(localTime, resolution));
+    }
+
+    /**
+     * Find the parent of the current leaf, i.e. of the instant this tree most recently got or created, if it is also on
+     * the path to the given time. As events mostly arrive for "now", this is usually the parent of the instant to get
+     * or create, which can then be found without descending from the root.
+     * <p>
+     * The parent may have been removed, or created by a transaction that rolled back, so it is checked before it is
+     * used: it must still exist with the same value and under the same parent. Its ancestors aren't checked, because
+     * instants are only removed once they have no children, so they exist as long as it does.
+     *
+     * @param timeRoot   root of the time tree, locked by the current transaction.
+     * @param localTime  time of the instant, as local time in the time zone of the tree.
+     * @param resolution of the instant.
+     * @return parent of the current leaf, the root if it isn't on the path to the given time or isn't valid.
+     */
+    private Node fromLeafHint(Node timeRoot, long localTime, Resolution resolution) {
+        LeafHint hint = leafHint;
+        if (hint == null || hint.rootId != timeRoot.getId() || hint.resolution.ordinal() >= resolution.ordinal()) {
+            return timeRoot;
+        }
+
+        Resolution[] levels = Resolution.values();
+        for (int i = 0; i <= hint.resolution.ordinal(); i++) {
+            if (get(hint.localTime, levels[i]) != get(localTime, levels[i])) {
+                return timeRoot;
+            }
+        }
+
+        try {
+            Node parent = database.getNodeById(hint.nodeId);
+            if (!parent.hasLabel(hint.resolution.getLabel()) || getInt(parent, VALUE_PROPERTY) != get(hint.localTime, hint.resolution)) {
+                return timeRoot;
+            }
+
+            Relationship parentRelationship = parent.getSingleRelationship(CHILD, INCOMING);
+            if (parentRelationship == null || parentRelationship.getStartNode().getId() != hint.parentId) {
+                return timeRoot;
+            }
+
+            return parent;
+        } catch (NotFoundException e) {
+            return timeRoot;
+        }
+    }
+
+    /**
+     * Remember the parent of an instant this tree got or created as the current leaf's parent, see
+     * {@link #fromLeafHint(Node, long, Resolution)}.
+     *
+     * @param timeRoot   root of the time tree.
+     * @param instant    got or created.
+     * @param localTime  time of the instant, as local time in the time zone of the tree.
+     * @param resolution of the instant.
+     */
+    private void setLeafHint(Node timeRoot, Node instant, long localTime, Resolution resolution) {
+        if (resolution == YEAR) {
+            leafHint = null;
+            return;
+        }
+
+        Node parent = parent(instant);
+        Resolution parentResolution = Resolution.values()[resolution.ordinal() - 1];
+        long grandparentId = parentResolution == YEAR ? timeRoot.getId() : parent(parent).getId();
+        leafHint = new LeafHint(timeRoot.getId(), parent.getId(), grandparentId, localTime, parentResolution);
+    }
+
+    /**
+     * Acquire the write lock of a time tree root, recording the time spent waiting for it.
+     *
+     * @param tx       current transaction.
+     * @param timeRoot root to lock.
+     */
+    private static void lockRoot(Transaction tx, Node timeRoot) {
+        long start = System.nanoTime();
+        tx.acquireWriteLock(timeRoot);
+        METRICS.rootLockAcquired(System.nanoTime() - start);
+    }
+
+    /**
+     * Acquire the write locks of the roots of a number of time trees, in the order of the roots' node IDs. A transaction
+     * attaching events to several trees should do this before attaching any of them. Otherwise, it takes the locks in
+     * the order it encounters the trees, and deadlocks with transactions that encounter them in a different order.
+     * Missing roots are created. Trees that aren't {@link SingleTimeTree}s are ignored.
+     *
+     * @param tx    current transaction.
+     * @param trees time trees whose roots to lock.
+     */
+    public static void lockRoots(Transaction tx, Collection<? extends TimeTree> trees) {
+        TreeMap<Long, Node> roots = new TreeMap<>();
+        for (TimeTree tree : trees) {
+            if (tree instanceof SingleTimeTree) {
+                Node root = ((SingleTimeTree) tree).getTimeRoot(true);
+                roots.put(root.getId(), root);
+            }
+        }
+
+        for (Node root : roots.values()) {
+            lockRoot(tx, root);
+        }
+    }
+
+    /**
+     * Find an instant, or the closest one, without creating anything. No locks are needed for that; when the walk
+     * runs into a part of the tree that another transaction is changing, it fails and has to be repeated under the
+     * lock of the root.
+     *
+     * @param timeRoot            root of the time tree.
+     * @param localTime           time of the instant, as local time in the time zone of the tree.
+     * @param resolution          of the instant.
+     * @param childNotFoundPolicy what to return when the instant does not exist.
+     * @return instant, or a value specified by the given {@link ChildNotFoundPolicy}.
+     * @throws NotFoundException in case the tree has changed while it was being walked.
+     */
+    private Node findInstant(Node timeRoot, long localTime, Resolution resolution, ChildNotFoundPolicy childNotFoundPolicy) {
+        Node instant = findByKey(timeRoot, localTime, resolution);
+        if (instant != null) {
+            return instant;
+        }
+
+        METRICS.descent();
+        return childNotFoundPolicy == RETURN_NULL && traversal.isEnabled()
+                ? traversal.findInstant(timeRoot, localTime, resolution)
+                : getInstant(timeRoot, localTime, resolution, childNotFoundPolicy);
+    }
+
+    private Node getInstant(Node parent, long localTime, Resolution targetResolution, ChildNotFoundPolicy childNotFoundPolicy) {
         Resolution currentResolution = currentResolution(parent);
 
         if (targetResolution.equals(currentResolution)) {
@@ -235,25 +916,30 @@ public class SingleTimeTree implements TimeTree {
 
         Resolution newCurrentResolution = childResolution(parent);
 
-        Node child = findChild(parent, dateTime.get(newCurrentResolution.getDateTimeFieldType()), RETURN_NULL);
+        Node child = findChild(parent, get(localTime, newCurrentResolution), RETURN_NULL);
 
         if (child == null) {
             switch (childNotFoundPolicy) {
                 case RETURN_NULL:
                     return null;
                 case RETURN_NEXT:
-                    return getInstantViaClosestChild(parent, dateTime, targetResolution, childNotFoundPolicy, newCurrentResolution, FIRST);
+                    return getInstantViaClosestChild(parent, localTime, targetResolution, childNotFoundPolicy, newCurrentResolution, FIRST);
                 case RETURN_PREVIOUS:
-                    return getInstantViaClosestChild(parent, dateTime, targetResolution, childNotFoundPolicy, newCurrentResolution, LAST);
+                    return getInstantViaClosestChild(parent, localTime, targetResolution, childNotFoundPolicy, newCurrentResolution, LAST);
             }
         }
 
+        if (otherNodeWithoutLocks(child, CHILD, INCOMING).getId() != parent.getId()) {
+            //only seen without locks, when the last child of the parent has been removed during the walk
+            throw new NotFoundException(child + " is not a child of " + parent);
+        }
+
         //recursion
-        return getInstant(child, dateTime, targetResolution, childNotFoundPolicy);
+        return getInstant(child, localTime, targetResolution, childNotFoundPolicy);
     }
 
-    private Node getInstantViaClosestChild(Node parent, DateTime dateTime, Resolution targetResolution, ChildNotFoundPolicy childNotFoundPolicy, Resolution newCurrentResolution, RelationshipType relationshipType) {
-        Node closestChild = findChild(parent, dateTime.get(newCurrentResolution.getDateTimeFieldType()), childNotFoundPolicy);
+    private Node getInstantViaClosestChild(Node parent, long localTime, Resolution targetResolution, ChildNotFoundPolicy childNotFoundPolicy, Resolution newCurrentResolution, RelationshipType relationshipType) {
+        Node closestChild = findChild(parent, get(localTime, newCurrentResolution), childNotFoundPolicy);
         if (closestChild == null) {
             return null;
         }
@@ -293,6 +979,26 @@ public class SingleTimeTree implements TimeTree {
         return currentResolution(parent).getChild();
     }
 
+    /**
+     * The parent of the current leaf of a time tree, see {@link #fromLeafHint(Node, long, Resolution)}.
+     */
+    private static final class LeafHint {
+
+        private final long rootId;
+        private final long nodeId;
+        private final long parentId;
+        private final long localTime;
+        private final Resolution resolution;
+
+        private LeafHint(long rootId, long nodeId, long parentId, long localTime, Resolution resolution) {
+            this.rootId = rootId;
+            this.nodeId = nodeId;
+            this.parentId = parentId;
+            this.localTime = localTime;
+            this.resolution = resolution;
+        }
+    }
+
     enum ChildNotFoundPolicy {
         RETURN_NULL, RETURN_PREVIOUS, RETURN_NEXT
     }
@@ -302,11 +1008,11 @@ public class SingleTimeTree implements TimeTree {
      * nodes on the way down from parent (recursively).
      *
      * @param parent           parent node on path to desired instant node.
-     * @param dateTime         time instant.
+     * @param localTime        time instant, as local time in the time zone of the tree.
      * @param targetResolution target child resolution. Recursion stops when at this level.
      * @return node representing the time instant at the desired resolution level.
      */
-    private Node getOrCreateInstant(Node parent, DateTime dateTime, Resolution targetResolution) {
+    private Node getOrCreateInstant(Node parent, long localTime, Resolution targetResolution) {
         Resolution currentResolution = currentResolution(parent);
 
         if (targetResolution.equals(currentResolution)) {
@@ -315,10 +1021,10 @@ public class SingleTimeTree implements TimeTree {
 
         Resolution newCurrentResolution = childResolution(parent);
 
-        Node child = findOrCreateChild(parent, dateTime.get(newCurrentResolution.getDateTimeFieldType()));
+        Node child = findOrCreateChild(parent, get(localTime, newCurrentResolution), null);
 
         //recursion
-        return getOrCreateInstant(child, dateTime, targetResolution);
+        return getOrCreateInstant(child, localTime, targetResolution);
     }
 
     /**
@@ -336,40 +1042,47 @@ public class SingleTimeTree implements TimeTree {
             return null;
         }
 
-        Node existingChild = firstRelationship.getEndNode();
-        while (getInt(existingChild, VALUE_PROPERTY) < value && parent(existingChild).getId() == parent.getId()) {
-            Relationship nextRelationship = existingChild.getSingleRelationship(NEXT, OUTGOING);
-
-            if (nextRelationship == null) {
-                switch (childNotFoundPolicy) {
-                    case RETURN_NULL:
-                        return null;
-                    case RETURN_NEXT:
-                        return null;
-                    case RETURN_PREVIOUS:
-                        return existingChild;
-                }
-            }
+        //the LAST relationship is only seen missing without locks, while another transaction replaces it
+        Node lastChild = otherNodeWithoutLocks(parent, LAST, OUTGOING);
+        int lastValue = getInt(lastChild, VALUE_PROPERTY);
 
-            if (parent(nextRelationship.getEndNode()).getId() != parent.getId()) {
-                switch (childNotFoundPolicy) {
-                    case RETURN_NULL:
-                        return null;
-                    case RETURN_NEXT:
-                        return nextRelationship.getEndNode();
-                    case RETURN_PREVIOUS:
-                        return existingChild;
-                }
+        if (lastValue == value) {
+            return lastChild;
+        }
+
+        if (lastValue < value) {
+            switch (childNotFoundPolicy) {
+                case RETURN_NULL:
+                    return null;
+                case RETURN_NEXT:
+                    Relationship nextRelationship = lastChild.getSingleRelationship(NEXT, OUTGOING);
+                    return nextRelationship == null ? null : nextRelationship.getEndNode();
+                case RETURN_PREVIOUS:
+                    return lastChild;
             }
+        }
 
-            existingChild = nextRelationship.getEndNode();
+        Node existingChild = firstRelationship.getEndNode();
+        if (SkipPointers.isMarked(parent) && getInt(existingChild, VALUE_PROPERTY) < value) {
+            existingChild = SkipPointers.seek(existingChild, lastChild, value);
+        }
+
+        //the last child has a greater value, so the walk ends at a child of the parent without checking its parent
+        while (getInt(existingChild, VALUE_PROPERTY) < value && existingChild.getId() != lastChild.getId()) {
+            Relationship next = existingChild.getSingleRelationship(NEXT, OUTGOING);
+            if (next == null) {
+                //only seen without locks, when the rest of the chain is being changed by another transaction
+                throw new NotFoundException(existingChild + " has no next sibling");
+            }
+            existingChild = next.getEndNode();
+            METRICS.siblingStep();
         }
 
         if (getInt(existingChild, VALUE_PROPERTY) == value) {
             return existingChild;
         }
 
-        //here we claim that getInt(existingChild, VALUE_PROPERTY) > value || parent(existingChild).getId() != parent.getId()
+        //here we claim that getInt(existingChild, VALUE_PROPERTY) > value
         switch (childNotFoundPolicy) {
             case RETURN_NULL:
                 return null;
@@ -385,27 +1098,49 @@ public class SingleTimeTree implements TimeTree {
     /**
      * Find a child node with value equal to the given value. If no such child exists, create one.
      *
-     * @param parent parent of the node to be found or created.
-     * @param value  value of the node to be found or created.
+     * @param parent    parent of the node to be found or created.
+     * @param value     value of the node to be found or created.
+     * @param startFrom child of the parent to start searching from, if known to have a lower value, null to start from the first child.
      * @return child node.
      */
-    private Node findOrCreateChild(Node parent, int value) {
+    private Node findOrCreateChild(Node parent, int value, Node startFrom) {
         Relationship firstRelationship = parent.getSingleRelationship(FIRST, OUTGOING);
         if (firstRelationship == null) {
             return createFirstChildEver(parent, value);
         }
 
         Node existingChild = firstRelationship.getEndNode();
+        Node lastChild = lastChild(parent);
+        int lastValue = getInt(lastChild, VALUE_PROPERTY);
+
+        if (lastValue == value) {
+            return lastChild;
+        }
+
+        if (lastValue < value) {
+            Relationship nextRelationship = lastChild.getSingleRelationship(NEXT, OUTGOING);
+            return createLastChild(parent, lastChild, nextRelationship == null ? null : nextRelationship.getEndNode(), value);
+        }
+
+        if (startFrom == null && !SkipPointers.isMarked(parent) && value - getInt(existingChild, VALUE_PROPERTY) > lastValue - value) {
+            return findOrCreateChildFromLast(parent, existingChild, lastChild, value);
+        }
+
         boolean isFirst = true;
-        while (getInt(existingChild, VALUE_PROPERTY) < value && parent(existingChild).getId() == parent.getId()) {
+        if (startFrom != null && getInt(startFrom, VALUE_PROPERTY) < value) {
+            existingChild = startFrom;
             isFirst = false;
-            Relationship nextRelationship = existingChild.getSingleRelationship(NEXT, OUTGOING);
-
-            if (nextRelationship == null || parent(nextRelationship.getEndNode()).getId() != parent.getId()) {
-                return createLastChild(parent, existingChild, nextRelationship == null ? null : nextRelationship.getEndNode(), value);
-            }
+        }
+        if (SkipPointers.isMarked(parent) && getInt(existingChild, VALUE_PROPERTY) < value) {
+            existingChild = SkipPointers.seek(existingChild, lastChild, value);
+            isFirst = false;
+        }
 
-            existingChild = nextRelationship.getEndNode();
+        //the last child has a greater value, so the walk ends at a child of the parent without checking its parent
+        while (getInt(existingChild, VALUE_PROPERTY) < value && existingChild.getId() != lastChild.getId()) {
+            isFirst = false;
+            existingChild = existingChild.getSingleRelationship(NEXT, OUTGOING).getEndNode();
+            METRICS.siblingStep();
         }
 
         if (getInt(existingChild, VALUE_PROPERTY) == value) {
@@ -421,6 +1156,36 @@ public class SingleTimeTree implements TimeTree {
         return createChild(parent, previousRelationship.getStartNode(), existingChild, value);
     }
 
+    /**
+     * Find a child node with value equal to the given value, walking backwards from the last child of the parent. If no
+     * such child exists, create one. Used when the value is closer to the value of the last child than the first one.
+     *
+     * @param parent     parent of the node to be found or created.
+     * @param firstChild first child of the parent.
+     * @param lastChild  last child of the parent, with a value greater than the given one.
+     * @param value      value of the node to be found or created.
+     * @return child node.
+     */
+    private Node findOrCreateChildFromLast(Node parent, Node firstChild, Node lastChild, int value) {
+        Node existingChild = lastChild;
+        while (getInt(existingChild, VALUE_PROPERTY) > value) {
+            Relationship previousRelationship = existingChild.getSingleRelationship(NEXT, INCOMING);
+
+            if (existingChild.getId() == firstChild.getId()) {
+                return createFirstChild(parent, previousRelationship == null ? null : previousRelationship.getStartNode(), existingChild, value);
+            }
+
+            existingChild = previousRelationship.getStartNode();
+            METRICS.siblingStep();
+        }
+
+        if (getInt(existingChild, VALUE_PROPERTY) == value) {
+            return existingChild;
+        }
+
+        return createChild(parent, existingChild, existingChild.getSingleRelationship(NEXT, OUTGOING).getEndNode(), value);
+    }
+
     /**
      * Create the first ever child of a parent.
      *
@@ -434,35 +1199,8 @@ public class SingleTimeTree implements TimeTree {
             throw new IllegalStateException(parent + " has no " + FIRST + " relationship, but has a " + LAST + " one!");
         }
 
-        Node previousChild = null;
-        Node previousParent = parent;
-        while (previousChild == null) {
-            Relationship previousParentRelationship = previousParent.getSingleRelationship(NEXT, INCOMING);
-            if (previousParentRelationship == null) {
-                break;
-            }
-
-            previousParent = previousParentRelationship.getStartNode();
-            Relationship currentParentLastChildRelationship = previousParent.getSingleRelationship(LAST, OUTGOING);
-            if (currentParentLastChildRelationship != null) {
-                previousChild = currentParentLastChildRelationship.getEndNode();
-            }
-        }
-
-        Node nextChild = null;
-        Node nextParent = parent;
-        while (nextChild == null) {
-            Relationship nextParentRelationship = nextParent.getSingleRelationship(NEXT, OUTGOING);
-            if (nextParentRelationship == null) {
-                break;
-            }
-
-            nextParent = nextParentRelationship.getEndNode();
-            Relationship nextParentFirstChildRelationship = nextParent.getSingleRelationship(FIRST, OUTGOING);
-            if (nextParentFirstChildRelationship != null) {
-                nextChild = nextParentFirstChildRelationship.getEndNode();
-            }
-        }
+        Node previousChild = nearestChildOfOtherParent(parent, INCOMING, null);
+        Node nextChild = nearestChildOfOtherParent(parent, OUTGOING, null);
 
         Node child = createChild(parent, previousChild, nextChild, value);
 
@@ -472,6 +1210,35 @@ public class SingleTimeTree implements TimeTree {
         return child;
     }
 
+    /**
+     * Find the nearest child of another parent on the same level as the given parent, i.e. the last child of the
+     * nearest previous parent that has children, or the first child of the nearest next one.
+     *
+     * @param parent    to start from.
+     * @param direction INCOMING for previous parents, OUTGOING for next ones.
+     * @param visited   to add the parents visited on the way to, null if not needed.
+     * @return the child, null if there is none.
+     */
+    private Node nearestChildOfOtherParent(Node parent, Direction direction, List<Node> visited) {
+        Node current = parent;
+        while (true) {
+            Relationship relationship = current.getSingleRelationship(NEXT, direction);
+            if (relationship == null) {
+                return null;
+            }
+
+            current = relationship.getOtherNode(current);
+            if (visited != null) {
+                visited.add(current);
+            }
+
+            Relationship childRelationship = current.getSingleRelationship(direction == INCOMING ? LAST : FIRST, OUTGOING);
+            if (childRelationship != null) {
+                return childRelationship.getEndNode();
+            }
+        }
+    }
+
     /**
      * Create the first child node that belongs to a specific parent. "First" is with respect to ordering, not the
      * number of nodes. In other words, the node being created is not the first parent's child, but it is the child with
@@ -545,6 +1312,11 @@ public class SingleTimeTree implements TimeTree {
         Node child = database.createNode(TimeTreeLabels.getChild(parent));
         child.setProperty(VALUE_PROPERTY, value);
         parent.createRelationshipTo(child, CHILD);
+        METRICS.nodeCreated();
+
+        if (keys.isEnabled()) {
+            keys.keyNewInstant(child, parent, childResolution(parent), value);
+        }
 
         if (previous != null) {
             Relationship nextRelationship = previous.getSingleRelationship(NEXT, OUTGOING);
@@ -558,6 +1330,11 @@ public class SingleTimeTree implements TimeTree {
             child.createRelationshipTo(next, NEXT);
         }
 
+        if (SkipPointers.isMarked(parent)) {
+            SkipPointers.link(parent, child, value);
+        }
+        skipPointers.markIfNeeded(child, childResolution(parent));
+
         return child;
     }
 
@@ -572,7 +1349,7 @@ public class SingleTimeTree implements TimeTree {
     private void removeChildren(Node root) {
         for (Relationship relationship : root.getRelationships(OUTGOING)) {
             relationship.delete();
-            if (relationship.isType(CHILD)) {
+            if (relationship.isType(CHILD) || relationship.isType(BUCKET)) {
                 removeChildren(relationship.getEndNode());
             }
         }
@@ -589,6 +1366,8 @@ public class SingleTimeTree implements TimeTree {
             return;
         }
 
+        SkipPointers.unlink(instantNode);
+
         Relationship first = instantNode.getSingleRelationship(FIRST, INCOMING);
         Relationship last = instantNode.getSingleRelationship(LAST, INCOMING);
 
@@ -653,6 +1432,46 @@ public class SingleTimeTree implements TimeTree {
         return parentRelationship.getStartNode();
     }
 
+    /**
+     * Find the last child of a parent, which bounds the walk along the NEXT chain from its first child, so that
+     * the walk does not need to check the parent of every child it visits.
+     *
+     * @param parent with children.
+     * @return last child.
+     * @throws IllegalStateException in case the parent has no LAST relationship.
+     */
+    static Node lastChild(Node parent) {
+        Relationship lastRelationship = parent.getSingleRelationship(LAST, OUTGOING);
+
+        if (lastRelationship == null) {
+            LOG.error(parent + " has a " + FIRST + " relationship, but no " + LAST + " one!");
+            throw new IllegalStateException(parent + " has a " + FIRST + " relationship, but no " + LAST + " one!");
+        }
+
+        return lastRelationship.getEndNode();
+    }
+
+    /**
+     * Follow the only relationship of a type and direction, which can be missing when seen without holding locks, while
+     * another transaction replaces it. Unlike {@link #parent(Node)} and {@link #lastChild(Node)}, a missing
+     * relationship is therefore not logged as an error.
+     *
+     * @param node      to start from.
+     * @param type      of the relationship.
+     * @param direction of the relationship.
+     * @return the other node of the relationship.
+     * @throws NotFoundException in case there is no such relationship.
+     */
+    private static Node otherNodeWithoutLocks(Node node, RelationshipType type, Direction direction) {
+        Relationship relationship = node.getSingleRelationship(type, direction);
+
+        if (relationship == null) {
+            throw new NotFoundException(node + " has no " + direction + " " + type + " relationship");
+        }
+
+        return relationship.getOtherNode(node);
+    }
+
     private boolean isRoot(Node node) {
         Node timeRoot = getTimeRoot(false);
 
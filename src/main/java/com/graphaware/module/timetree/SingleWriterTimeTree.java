@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.logging.Log;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link TimeTree} decorator, which funnels all structural changes to the decorated tree through a
+ * {@link TimeTreeWriter}, i.e. a single writer per tree root. Reads are delegated to the decorated tree directly.
+ * <p>
+ * Created instants are committed by the writer in its own transaction, before they are returned to the caller. Should
+ * the writer fail (e.g. because the root of the tree has been created by the caller's uncommitted transaction) or not
+ * respond within the configured timeout (typically because it waits for a lock held by the caller's transaction),
+ * the change is performed in the caller's transaction, like with the decorated tree. The request is then cancelled, so
+ * that the writer skips it rather than performing the change again once it gets to it. A request the writer has
+ * already started on can't be cancelled; it waits for the caller's transaction and then finds the change done, as
+ * getting or creating an instant, as well as removing one that no longer exists, leaves the tree as it is.
+ */
+public class SingleWriterTimeTree implements TimeTree {
+
+    private static final Log LOG = LoggerFactory.getLogger(SingleWriterTimeTree.class);
+
+    public static final long DEFAULT_TIMEOUT = 5000;
+
+    private final GraphDatabaseService database;
+    private final TimeTree delegate;
+    private final TimeTreeWriter writer;
+    private final long timeout;
+
+    /**
+     * Create a new single writer time tree with default timeout.
+     *
+     * @param database to talk to.
+     * @param delegate decorated time tree.
+     * @param writer   of the decorated time tree.
+     */
+    public SingleWriterTimeTree(GraphDatabaseService database, TimeTree delegate, TimeTreeWriter writer) {
+        this(database, delegate, writer, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Create a new single writer time tree.
+     *
+     * @param database to talk to.
+     * @param delegate decorated time tree.
+     * @param writer   of the decorated time tree.
+     * @param timeout  in ms, after which changes are performed in the caller's transaction, if the writer hasn't performed them.
+     */
+    public SingleWriterTimeTree(GraphDatabaseService database, TimeTree delegate, TimeTreeWriter writer, long timeout) {
+        this.database = database;
+        this.delegate = delegate;
+        this.writer = writer;
+        this.timeout = timeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Node getInstant(TimeInstant timeInstant) {
+        return delegate.getInstant(timeInstant);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Node getInstantAtOrAfter(TimeInstant timeInstant) {
+        return delegate.getInstantAtOrAfter(timeInstant);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Node getInstantAtOrBefore(TimeInstant timeInstant) {
+        return delegate.getInstantAtOrBefore(timeInstant);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Node> getInstants(TimeInstant startTime, TimeInstant endTime) {
+        return delegate.getInstants(startTime, endTime);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Node getOrCreateInstant(TimeInstant timeInstant) {
+        Long instantId = await(writer.getOrCreateInstant(timeInstant));
+
+        if (instantId == null) {
+            return delegate.getOrCreateInstant(timeInstant);
+        }
+
+        return database.getNodeById(instantId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All the instants are requested from the writer at once, so that they are created in as few transactions as possible.
+     */
+    @Override
+    public List<Node> getOrCreateInstants(TimeInstant startTime, TimeInstant endTime) {
+        List<TimeInstant> instants = TimeInstant.getInstants(startTime, endTime);
+        List<CompletableFuture<Long>> futures = new LinkedList<>();
+        for (TimeInstant instant : instants) {
+            futures.add(writer.getOrCreateInstant(instant));
+        }
+
+        List<Node> result = new LinkedList<>();
+        Iterator<CompletableFuture<Long>> futureIterator = futures.iterator();
+        for (TimeInstant instant : instants) {
+            Long instantId = await(futureIterator.next());
+            result.add(instantId == null ? delegate.getOrCreateInstant(instant) : database.getNodeById(instantId));
+        }
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAll() {
+        delegate.removeAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeInstant(Node instantNode) {
+        if (await(writer.removeInstant(instantNode.getId())) == null) {
+            delegate.removeInstant(instantNode);
+        }
+    }
+
+    /**
+     * Get the writer of this tree.
+     *
+     * @return writer.
+     */
+    public TimeTreeWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Wait for the writer to complete a request.
+     *
+     * @param future representing the request.
+     * @return result of the request, <code>null</code> if the writer failed or did not complete it in time, in which
+     * case the request has been cancelled.
+     */
+    private Long await(CompletableFuture<Long> future) {
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (!future.cancel(false)) {
+                //completed just after the timeout
+                return future.isCompletedExceptionally() ? null : future.join();
+            }
+            LOG.warn("Time tree writer did not respond within " + timeout + " ms, performing the change in the calling transaction");
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for time tree writer", e);
+        } catch (ExecutionException e) {
+            LOG.debug("Time tree writer failed, performing the change in the calling transaction", e.getCause());
+            return null;
+        }
+    }
+}
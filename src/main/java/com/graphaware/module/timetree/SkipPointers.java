@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.Resolution;
+import org.neo4j.graphdb.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.graphaware.common.util.EntityUtils.getInt;
+import static com.graphaware.module.timetree.SingleTimeTree.VALUE_PROPERTY;
+import static com.graphaware.module.timetree.SingleTimeTree.parent;
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Skip pointers on the long sibling chains of a time tree, i.e. the Seconds of a Minute and the Milliseconds of a Second,
+ * which make seeking a child of such a parent take a logarithmic rather than linear number of hops.
+ * <p>
+ * Next to the NEXT chain, the children of a parent are linked by {@link #MAX_LEVEL} sparser chains: SKIP_l connects each
+ * child of level l or higher to the next such child of the same parent. The level of a child is derived from its value
+ * (children whose value is a multiple of 4^l have level l), so the structure depends only on which children exist.
+ * <p>
+ * Skip pointers are off by default. Once {@link #enable()}d for a database, parents created from then on are marked
+ * with the {@link #MARKER_PROPERTY} property, and the sibling chains of marked parents are maintained on every insert
+ * and removal, even if skip pointers are later disabled. Parents created before are not marked and are walked as usual.
+ */
+public final class SkipPointers {
+
+    public static final String MARKER_PROPERTY = "skipPointers";
+
+    static final int MAX_LEVEL = 4;
+
+    private static final RelationshipType[] SKIP = {NEXT, SKIP_1, SKIP_2, SKIP_3, SKIP_4};
+
+    private static final Map<GraphDatabaseService, SkipPointers> SKIP_POINTERS = new ConcurrentHashMap<>();
+
+    private volatile boolean enabled = false;
+
+    /**
+     * Get the skip pointer settings of a database, creating them (disabled) if needed.
+     *
+     * @param database to get the settings for.
+     * @return skip pointer settings.
+     */
+    public static SkipPointers forDatabase(GraphDatabaseService database) {
+        return SKIP_POINTERS.computeIfAbsent(database, SkipPointers::new);
+    }
+
+    private SkipPointers(GraphDatabaseService database) {
+        database.registerKernelEventHandler(new ShutdownHandler(() -> SKIP_POINTERS.remove(database)));
+    }
+
+    /**
+     * Start marking new parents of Seconds and Milliseconds.
+     */
+    public void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Stop marking new parents. Parents already marked keep their skip pointers.
+     */
+    public void disable() {
+        enabled = false;
+    }
+
+    /**
+     * @return true iff skip pointers are enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Mark a newly created instant, if skip pointers are enabled and its children will be Seconds or Milliseconds.
+     *
+     * @param instant    new instant, without children.
+     * @param resolution of the instant.
+     */
+    void markIfNeeded(Node instant, Resolution resolution) {
+        if (enabled && (resolution == Resolution.MINUTE || resolution == Resolution.SECOND)) {
+            instant.setProperty(MARKER_PROPERTY, true);
+        }
+    }
+
+    /**
+     * @param parent instant.
+     * @return true iff the children of the parent are linked by skip pointers.
+     */
+    public static boolean isMarked(Node parent) {
+        return parent.hasProperty(MARKER_PROPERTY);
+    }
+
+    /**
+     * @param relationship to check.
+     * @return true iff the relationship is a skip pointer.
+     */
+    public static boolean isSkipPointer(Relationship relationship) {
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            if (relationship.isType(SKIP[level])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Seek the last child of a marked parent with a value lower than the given one, following skip pointers from the
+     * parent's first child.
+     *
+     * @param first first child of the parent.
+     * @param last  last child of the parent, where the NEXT chain leaves the parent.
+     * @param value to seek.
+     * @return the last child with a lower value, or the first child if its value isn't lower.
+     */
+    static Node seek(Node first, Node last, int value) {
+        Node current = first;
+        boolean moved = true;
+
+        while (moved) {
+            moved = false;
+            for (int level = level(getInt(current, VALUE_PROPERTY)); level >= 0; level--) {
+                if (level == 0 && current.getId() == last.getId()) {
+                    break;
+                }
+
+                Relationship skip = current.getSingleRelationship(SKIP[level], OUTGOING);
+                if (skip != null && getInt(skip.getEndNode(), VALUE_PROPERTY) < value) {
+                    current = skip.getEndNode();
+                    moved = true;
+                    break;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Link a child that has just been inserted into the NEXT chain of a marked parent into the skip chains.
+     *
+     * @param parent of the child.
+     * @param child  new child.
+     * @param value  of the child.
+     */
+    static void link(Node parent, Node child, int value) {
+        Node previous = neighbour(parent, child, 0, INCOMING);
+        Node next = neighbour(parent, child, 0, OUTGOING);
+
+        for (int level = 1; level <= level(value); level++) {
+            previous = neighbourAtLevel(parent, previous, level, INCOMING);
+            next = neighbourAtLevel(parent, next, level, OUTGOING);
+
+            if (previous != null) {
+                Relationship skip = previous.getSingleRelationship(SKIP[level], OUTGOING);
+                if (skip != null) {
+                    skip.delete();
+                }
+                previous.createRelationshipTo(child, SKIP[level]);
+            }
+
+            if (next != null) {
+                child.createRelationshipTo(next, SKIP[level]);
+            }
+        }
+    }
+
+    /**
+     * Unlink an instant that is about to be removed from the skip chains, connecting its neighbours on each level.
+     *
+     * @param instant to unlink.
+     */
+    static void unlink(Node instant) {
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            Relationship in = instant.getSingleRelationship(SKIP[level], INCOMING);
+            Relationship out = instant.getSingleRelationship(SKIP[level], OUTGOING);
+
+            if (in != null && out != null) {
+                in.getStartNode().createRelationshipTo(out.getEndNode(), SKIP[level]);
+            }
+            if (in != null) {
+                in.delete();
+            }
+            if (out != null) {
+                out.delete();
+            }
+        }
+    }
+
+    /**
+     * Re-create the skip chains of the children of a marked parent from its NEXT chain, e.g. after the chain has been
+     * repaired.
+     *
+     * @param parent whose children to re-link.
+     */
+    public static void rebuild(Node parent) {
+        Relationship firstRelationship = parent.getSingleRelationship(FIRST, OUTGOING);
+        if (firstRelationship == null) {
+            return;
+        }
+
+        List<Node> children = new ArrayList<>();
+        for (Node child = firstRelationship.getEndNode(); child != null; child = neighbour(parent, child, 0, OUTGOING)) {
+            children.add(child);
+            for (int level = 1; level <= MAX_LEVEL; level++) {
+                for (Relationship skip : child.getRelationships(SKIP[level])) {
+                    skip.delete();
+                }
+            }
+        }
+
+        Node[] last = new Node[MAX_LEVEL + 1];
+        for (Node child : children) {
+            for (int level = 1; level <= level(getInt(child, VALUE_PROPERTY)); level++) {
+                if (last[level] != null) {
+                    last[level].createRelationshipTo(child, SKIP[level]);
+                }
+                last[level] = child;
+            }
+        }
+    }
+
+    /**
+     * Get the level of a child with the given value, i.e. the number of times 4 divides the value, at most {@link #MAX_LEVEL}.
+     */
+    static int level(int value) {
+        return Math.min(MAX_LEVEL, Integer.numberOfTrailingZeros(value) / 2);
+    }
+
+    /**
+     * Find the nearest child of level at least the given one, starting from (and including) a child of level at least
+     * one lower.
+     */
+    private static Node neighbourAtLevel(Node parent, Node start, int level, Direction direction) {
+        Node current = start;
+        while (current != null && level(getInt(current, VALUE_PROPERTY)) < level) {
+            current = neighbour(parent, current, level - 1, direction);
+        }
+        return current;
+    }
+
+    /**
+     * Get the neighbour of a child on the chain of the given level, null if there is none with the same parent.
+     */
+    private static Node neighbour(Node parent, Node child, int level, Direction direction) {
+        Relationship relationship = child.getSingleRelationship(SKIP[level], direction);
+        if (relationship == null) {
+            return null;
+        }
+
+        Node neighbour = relationship.getOtherNode(child);
+        return level > 0 || parent(neighbour).getId() == parent.getId() ? neighbour : null;
+    }
+}
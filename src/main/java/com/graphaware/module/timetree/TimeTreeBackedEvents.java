@@ -18,15 +18,20 @@ package com.graphaware.module.timetree;
 
 import com.graphaware.common.util.DirectionUtils;
 import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.EventTimestamp;
 import com.graphaware.module.timetree.domain.TimeInstant;
-import org.neo4j.graphdb.Direction;
-import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Relationship;
-import org.neo4j.graphdb.RelationshipType;
+import com.graphaware.module.timetree.domain.TimedEvent;
+import com.graphaware.module.timetree.logic.MergingIterator;
+import com.graphaware.module.timetree.metrics.OperationTrace;
+import com.graphaware.module.timetree.metrics.SlowOperationLog;
+import com.graphaware.module.timetree.metrics.TimeTreeMetrics;
+import org.joda.time.DateTimeZone;
+import org.neo4j.graphdb.*;
 
 import java.util.*;
 
-import static com.graphaware.module.timetree.SingleTimeTree.parent;
+import static com.graphaware.common.util.EntityUtils.getInt;
+import static com.graphaware.module.timetree.SingleTimeTree.lastChild;
 import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
 import static com.graphaware.module.timetree.domain.ValidationUtils.validateRange;
 import static org.neo4j.graphdb.Direction.INCOMING;
@@ -34,15 +39,41 @@ import static org.neo4j.graphdb.Direction.OUTGOING;
 
 /**
  * {@link TimedEvents} backed by a {@link TimeTree}.
+ * <p>
+ * Optionally, events can be spread over a number of bucket nodes hanging off the time instant they are attached to,
+ * so that heavily used instants do not turn into dense nodes that every writer contends on. The bucket an event ends
+ * up in is chosen by hashing the event node ID. Buckets are transparent when reading events.
+ * <p>
+ * Attaching and retrieving events is traced by the {@link SlowOperationLog}, when enabled.
  */
 public class TimeTreeBackedEvents implements TimedEvents {
 
+    static final Label BUCKET_LABEL = Label.label("TimeTreeBucket");
+
+    private static final TimeTreeMetrics METRICS = TimeTreeMetrics.getInstance();
+
     private final TimeTree timeTree;
+    private final int buckets;
 
     private static final List<String> timeTreeRelationships = getTimeTreeRelationshipNames();
 
     public TimeTreeBackedEvents(TimeTree timeTree) {
+        this(timeTree, 0);
+    }
+
+    /**
+     * Create events backed by a time tree, attaching events to bucket nodes under the time instants.
+     *
+     * @param timeTree backing the events.
+     * @param buckets  number of bucket nodes per time instant. 0 means events are attached directly to time instants.
+     */
+    public TimeTreeBackedEvents(TimeTree timeTree, int buckets) {
+        if (buckets < 0) {
+            throw new IllegalArgumentException("Number of buckets must not be negative");
+        }
+
         this.timeTree = timeTree;
+        this.buckets = buckets;
     }
 
     /**
@@ -62,27 +93,113 @@ public class TimeTreeBackedEvents implements TimedEvents {
             throw new IllegalArgumentException("Direction must be INCOMING or OUTGOING!");
         }
 
+        long start = System.nanoTime();
+        OperationTrace trace = SlowOperationLog.start("attachEvent")
+                .parameter("event", event.getId())
+                .parameter("relationshipType", relationshipType.name())
+                .parameter("direction", direction)
+                .parameter("instant", timeInstant);
+
+        boolean attached = doAttachEvent(event, relationshipType, direction, timeInstant, trace);
+
+        METRICS.eventAttached(attached, System.nanoTime() - start);
+        trace.finish();
+
+        return attached;
+    }
+
+    private boolean doAttachEvent(Node event, RelationshipType relationshipType, Direction direction, TimeInstant timeInstant, OperationTrace trace) {
+        trace.phase("instant");
         Node instant = timeTree.getOrCreateInstant(timeInstant);
+        trace.instantVisited();
 
+        trace.phase("check");
         for (Relationship existing : event.getRelationships(DirectionUtils.reverse(direction), relationshipType)) {
-            if (existing.getEndNode().getId() == instant.getId()) {
+            trace.relationshipsExpanded(1);
+            Node attachedTo = existing.getOtherNode(event);
+            if (attachedTo.getId() == instant.getId() || (attachedTo.hasLabel(BUCKET_LABEL) && bucketParent(attachedTo).getId() == instant.getId())) {
                 return false;
             }
         }
 
+        trace.phase("attach");
+        Node target = buckets > 0 ? getOrCreateBucket(instant, bucketFor(event)) : instant;
+
         if (INCOMING.equals(direction)) {
-            event.createRelationshipTo(instant, relationshipType);
+            event.createRelationshipTo(target, relationshipType);
             return true;
         }
 
         if (OUTGOING.equals(direction)) {
-            instant.createRelationshipTo(event, relationshipType);
+            target.createRelationshipTo(event, relationshipType);
             return true;
         }
 
         throw new IllegalStateException("This must never happen - it is a bug");
     }
 
+    /**
+     * Find the bucket an event belongs to.
+     *
+     * @param event to find bucket for.
+     * @return bucket number, between 0 (inclusive) and the number of buckets (exclusive).
+     */
+    private int bucketFor(Node event) {
+        return Math.floorMod(Long.hashCode(event.getId()), buckets);
+    }
+
+    /**
+     * Find a bucket node of a time instant. If it doesn't exist, create it. The time instant is only locked when the
+     * bucket needs to be created, so that attaching events to existing buckets does not contend on the instant.
+     *
+     * @param instant to find bucket for.
+     * @param bucket  number of the bucket.
+     * @return bucket node.
+     */
+    private Node getOrCreateBucket(Node instant, int bucket) {
+        Node existing = findBucket(instant, bucket);
+        if (existing != null) {
+            return existing;
+        }
+
+        Node result;
+        try (Transaction tx = instant.getGraphDatabase().beginTx()) {
+            tx.acquireWriteLock(instant);
+
+            result = findBucket(instant, bucket);
+            if (result == null) {
+                result = instant.getGraphDatabase().createNode(BUCKET_LABEL);
+                result.setProperty(SingleTimeTree.VALUE_PROPERTY, bucket);
+                instant.createRelationshipTo(result, BUCKET);
+            }
+
+            tx.success();
+        }
+
+        return result;
+    }
+
+    private Node findBucket(Node instant, int bucket) {
+        for (Relationship relationship : instant.getRelationships(OUTGOING, BUCKET)) {
+            Node candidate = relationship.getEndNode();
+            if (getInt(candidate, SingleTimeTree.VALUE_PROPERTY) == bucket) {
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
+    private Node bucketParent(Node bucket) {
+        Relationship relationship = bucket.getSingleRelationship(BUCKET, INCOMING);
+
+        if (relationship == null) {
+            throw new IllegalStateException(bucket + " is a bucket without a time instant!");
+        }
+
+        return relationship.getStartNode();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -128,13 +245,22 @@ public class TimeTreeBackedEvents implements TimedEvents {
      */
     @Override
     public List<Event> getEvents(TimeInstant timeInstant, Set<RelationshipType> types, Direction direction) {
+        long start = System.nanoTime();
+        OperationTrace trace = SlowOperationLog.start("getEvents")
+                .parameter("instant", timeInstant)
+                .parameter("types", types)
+                .parameter("direction", direction);
+
+        trace.phase("lookup");
         Node instantNode = timeTree.getInstant(timeInstant);
 
-        if (instantNode == null) {
-            return Collections.emptyList();
-        }
+        List<Event> events = instantNode == null ? Collections.emptyList() : getEventsAttachedToInstant(instantNode, types, direction, trace);
+
+        METRICS.eventsRetrieved(events.size(), System.nanoTime() - start);
+        trace.eventsReturned(events.size());
+        trace.finish();
 
-        return getEventsAttachedToNodeAndChildren(instantNode, types, direction);
+        return events;
     }
 
     /**
@@ -152,75 +278,242 @@ public class TimeTreeBackedEvents implements TimedEvents {
     public List<Event> getEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types, Direction direction) {
         validateRange(startTime, endTime);
 
+        long start = System.nanoTime();
+        OperationTrace trace = SlowOperationLog.start("getEventsInRange")
+                .parameter("start", startTime)
+                .parameter("end", endTime)
+                .parameter("types", types)
+                .parameter("direction", direction);
+
+        List<Event> events = getEventsInRange(startTime, endTime, types, direction, trace);
+
+        METRICS.eventsRetrieved(events.size(), System.nanoTime() - start);
+        trace.eventsReturned(events.size());
+        trace.finish();
+
+        return events;
+    }
+
+    private List<Event> getEventsInRange(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types, Direction direction, OperationTrace trace) {
         List<Event> events = new LinkedList<>();
 
+        for (Node timeInstant : getInstantsInRange(startTime, endTime, trace)) {
+            events.addAll(getEventsAttachedToInstant(timeInstant, types, direction, trace));
+        }
+
+        return events;
+    }
+
+    /**
+     * Get the events attached to a time instant and its children, through the {@link KernelTraversal} if enabled.
+     */
+    private List<Event> getEventsAttachedToInstant(Node instant, Set<RelationshipType> types, Direction direction, OperationTrace trace) {
+        KernelTraversal traversal = KernelTraversal.forDatabase(instant.getGraphDatabase());
+        if (!traversal.isEnabled()) {
+            return getEventsAttachedToNodeAndChildren(instant, types, direction, trace);
+        }
+
+        List<Event> result = new ArrayList<>();
+        traversal.collectEvents(instant, types, direction, result, trace);
+        return result;
+    }
+
+    /**
+     * Get the existing time instants at the start, in between and at the end of a range, without their children.
+     *
+     * @param startTime start of the range.
+     * @param endTime   end of the range.
+     * @param trace     of the operation.
+     * @return time instants in chronological order, empty if the range contains no time instants.
+     */
+    private List<Node> getInstantsInRange(TimeInstant startTime, TimeInstant endTime, OperationTrace trace) {
+        List<Node> instants = new ArrayList<>();
+
+        trace.phase("lookup");
         Node startTimeNode = timeTree.getInstantAtOrAfter(startTime);
         Node endTimeNode = timeTree.getInstantAtOrBefore(endTime);
 
         if (startTimeNode == null || endTimeNode == null) {
-            return events;
+            return instants;
         }
 
-        events.addAll(getEventsAttachedToNodeAndChildren(startTimeNode, types, direction));
+        instants.add(startTimeNode);
 
         if (startTimeNode.getId() == endTimeNode.getId()) {
-            return events;
+            return instants;
         }
 
+        trace.phase("walk");
         Relationship next = startTimeNode.getSingleRelationship(NEXT, OUTGOING);
         while (next != null && !(next.getEndNode().equals(endTimeNode))) {
             Node timeInstant = next.getEndNode();
-            events.addAll(getEventsAttachedToNodeAndChildren(timeInstant, types, direction));
+            instants.add(timeInstant);
             next = timeInstant.getSingleRelationship(NEXT, OUTGOING);
         }
-        events.addAll(getEventsAttachedToNodeAndChildren(endTimeNode, types, direction));
+        instants.add(endTimeNode);
+
+        return instants;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<TimedEvent> getEventsChronologically(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types, Direction direction, EventTimestamp timestamp) {
+        return getEventsChronologically(startTime, endTime, types, direction, timestamp, 0);
+    }
+
+    /**
+     * Get the first events attached to all time instants in a range and all their children, in chronological order of
+     * the events' own times, see {@link #getEventsChronologically(TimeInstant, TimeInstant, Set, Direction, EventTimestamp)}.
+     * All events attached in the range are still read, but only the first ones of each instant are kept and merged.
+     *
+     * @param startTime Time instant representing the start of the interval (inclusive).
+     * @param endTime   Time instant representing the end of the interval (inclusive).
+     * @param types     of the relationships between the event and the time instants, can be null for all.
+     * @param direction of the relationships between the time instants and the events from the time instants' point of view.
+     * @param timestamp where to read the time of each event from.
+     * @param limit     maximum number of events to return, non-positive for no limit.
+     * @return up to limit events attached to all time instants in the interval and their children, ordered by their time.
+     */
+    public List<TimedEvent> getEventsChronologically(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types, Direction direction, EventTimestamp timestamp, int limit) {
+        validateRange(startTime, endTime);
+
+        long start = System.nanoTime();
+        OperationTrace trace = SlowOperationLog.start("getEventsChronologically")
+                .parameter("start", startTime)
+                .parameter("end", endTime)
+                .parameter("types", types)
+                .parameter("direction", direction)
+                .parameter("timestamp", timestamp)
+                .parameter("limit", limit);
+
+        List<Iterator<TimedEvent>> streams = new ArrayList<>();
+        for (Node timeInstant : getInstantsInRange(startTime, endTime, trace)) {
+            collectTimedEventStreams(timeInstant, startTime.getTimezone(), types, direction, timestamp, limit, streams, trace);
+        }
+
+        trace.phase("merge");
+        List<TimedEvent> events = new ArrayList<>();
+        Iterator<TimedEvent> merged = new MergingIterator<>(streams, Comparator.comparingLong(TimedEvent::getTime));
+        while (merged.hasNext() && (limit <= 0 || events.size() < limit)) {
+            events.add(merged.next());
+        }
+
+        METRICS.eventsRetrieved(events.size(), System.nanoTime() - start);
+        trace.eventsReturned(events.size());
+        trace.finish();
 
         return events;
     }
 
-    private List<Event> getEventsAttachedToNodeAndChildren(Node parent, Set<RelationshipType> types, Direction direction) {
+    /**
+     * Collect a stream of events sorted by time for a time instant and each of its children, children first, so that
+     * the streams end up in the same order as events returned by {@link #getEventsAttachedToNodeAndChildren}.
+     */
+    private void collectTimedEventStreams(Node parent, DateTimeZone timezone, Set<RelationshipType> types, Direction direction, EventTimestamp timestamp, int limit, List<Iterator<TimedEvent>> streams, OperationTrace trace) {
+        trace.phase("walk");
+        trace.instantVisited();
+
+        Relationship firstRelationship = parent.getSingleRelationship(FIRST, OUTGOING);
+        if (firstRelationship != null) {
+            long lastChildId = lastChild(parent).getId();
+            Node child = firstRelationship.getEndNode();
+            while (true) {
+                collectTimedEventStreams(child, timezone, types, direction, timestamp, limit, streams, trace);
+                trace.phase("walk");
+
+                if (child.getId() == lastChildId) {
+                    break;
+                }
+                child = child.getSingleRelationship(NEXT, OUTGOING).getEndNode();
+            }
+        }
+
+        trace.phase("collect");
+        long instantTime = TimeInstant.fromNode(parent, timezone).getTime();
+        List<TimedEvent> stream = new ArrayList<>();
+        collectTimedEventsAttachedToNode(parent, parent, instantTime, types, direction, timestamp, stream, trace);
+        for (Relationship bucket : parent.getRelationships(OUTGOING, BUCKET)) {
+            collectTimedEventsAttachedToNode(bucket.getEndNode(), parent, instantTime, types, direction, timestamp, stream, trace);
+        }
+
+        if (!stream.isEmpty()) {
+            stream.sort(Comparator.comparingLong(TimedEvent::getTime));
+            //later events of an instant can't be among the first ones overall
+            streams.add(limit > 0 && stream.size() > limit ? new ArrayList<>(stream.subList(0, limit)).iterator() : stream.iterator());
+        }
+    }
+
+    private void collectTimedEventsAttachedToNode(Node node, Node instant, long instantTime, Set<RelationshipType> types, Direction direction, EventTimestamp timestamp, List<TimedEvent> result, OperationTrace trace) {
+        for (Relationship rel : node.getRelationships(direction)) {
+            trace.relationshipsExpanded(1);
+            if (isEvent(rel, types)) {
+                Node eventNode = rel.getOtherNode(node);
+                Event event = new Event(eventNode, rel.getType(), DirectionUtils.resolveDirection(rel, node), instant);
+                result.add(new TimedEvent(event, null, timestamp.getTime(rel, eventNode, instantTime)));
+            }
+        }
+    }
+
+    private List<Event> getEventsAttachedToNodeAndChildren(Node parent, Set<RelationshipType> types, Direction direction, OperationTrace trace) {
         List<Event> result = new ArrayList<>();
 
+        trace.phase("walk");
+        trace.instantVisited();
+
         Relationship firstRelationship = parent.getSingleRelationship(FIRST, OUTGOING);
         if (firstRelationship == null) {
-            return getEventsAttachedToNode(parent, types, direction);
+            return getEventsAttachedToNode(parent, types, direction, trace);
         }
 
+        long lastChildId = lastChild(parent).getId();
         Node child = null;
 
         while (true) {
             if (child == null) {
                 child = firstRelationship.getEndNode();
             } else {
-                Relationship nextRelationship = child.getSingleRelationship(NEXT, OUTGOING);
-
-                if (nextRelationship == null || parent(nextRelationship.getEndNode()).getId() != parent.getId()) {
+                if (child.getId() == lastChildId) {
                     break;
                 }
 
-                child = nextRelationship.getEndNode();
+                child = child.getSingleRelationship(NEXT, OUTGOING).getEndNode();
             }
 
-            result.addAll(getEventsAttachedToNodeAndChildren(child, types, direction));
+            result.addAll(getEventsAttachedToNodeAndChildren(child, types, direction, trace));
+            trace.phase("walk");
         }
 
-        result.addAll(getEventsAttachedToNode(parent, types, direction));
+        result.addAll(getEventsAttachedToNode(parent, types, direction, trace));
 
         return result;
     }
 
-    private List<Event> getEventsAttachedToNode(Node node, Set<RelationshipType> types, Direction direction) {
+    private List<Event> getEventsAttachedToNode(Node node, Set<RelationshipType> types, Direction direction, OperationTrace trace) {
         List<Event> result = new LinkedList<>();
 
+        trace.phase("collect");
+        collectEventsAttachedToNode(node, node, types, direction, result, trace);
+
+        for (Relationship bucket : node.getRelationships(OUTGOING, BUCKET)) {
+            collectEventsAttachedToNode(bucket.getEndNode(), node, types, direction, result, trace);
+        }
+
+        return result;
+    }
+
+    private void collectEventsAttachedToNode(Node node, Node instant, Set<RelationshipType> types, Direction direction, List<Event> result, OperationTrace trace) {
         for (Relationship rel : node.getRelationships(direction)) {
-            if (!timeTreeRelationships.contains(rel.getType().name())) {
-                if (types == null || contains(types, rel.getType())) {
-                    result.add(new Event(rel.getOtherNode(node), rel.getType(), DirectionUtils.resolveDirection(rel, node)));
-                }
+            trace.relationshipsExpanded(1);
+            if (isEvent(rel, types)) {
+                result.add(new Event(rel.getOtherNode(node), rel.getType(), DirectionUtils.resolveDirection(rel, node), instant));
             }
         }
+    }
 
-        return result;
+    private boolean isEvent(Relationship rel, Set<RelationshipType> types) {
+        return !timeTreeRelationships.contains(rel.getType().name()) && (types == null || contains(types, rel.getType()));
     }
 
     private boolean contains(Set<RelationshipType> types, RelationshipType toCheck) {
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link TimeTree}s of a database, so that tree objects (and anything they hold, such as locks or
+ * navigation hints) are reused across calls, instead of being created for every call.
+ * <p>
+ * There is a single registry per database, holding the {@link SingleTimeTree} with the default root and a bounded,
+ * least-recently-used cache of {@link CustomRootTimeTree}s keyed by root node ID. Trees of custom roots are evicted when
+ * the cache is full, and invalidated when their root node is deleted. The registry is discarded when its database
+ * shuts down.
+ */
+public final class TimeTreeRegistry {
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    private static final Map<GraphDatabaseService, TimeTreeRegistry> REGISTRIES = new ConcurrentHashMap<>();
+
+    private final GraphDatabaseService database;
+    private final SingleTimeTree defaultTree;
+    private final LinkedHashMap<Long, CustomRootTimeTree> customRootTrees = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile int capacity = DEFAULT_CAPACITY;
+
+    /**
+     * Get the registry of a database, creating it if needed.
+     *
+     * @param database to get the registry for.
+     * @return registry.
+     */
+    public static TimeTreeRegistry forDatabase(GraphDatabaseService database) {
+        return REGISTRIES.computeIfAbsent(database, TimeTreeRegistry::new);
+    }
+
+    private TimeTreeRegistry(GraphDatabaseService database) {
+        this.database = database;
+        this.defaultTree = new SingleTimeTree(database);
+
+        database.registerTransactionEventHandler(new TransactionEventHandler.Adapter<Void>() {
+            @Override
+            public void afterCommit(TransactionData data, Void state) {
+                invalidate(data.deletedNodes());
+            }
+
+            @Override
+            public void afterRollback(TransactionData data, Void state) {
+                invalidate(data.createdNodes());
+            }
+        });
+
+        database.registerKernelEventHandler(new ShutdownHandler(() -> REGISTRIES.remove(database)));
+    }
+
+    /**
+     * @return the time tree with the default root.
+     */
+    public TimeTree getDefault() {
+        return defaultTree;
+    }
+
+    /**
+     * Get the time tree with a custom root. Must be called within a transaction if the tree isn't cached.
+     *
+     * @param rootId ID of the root node.
+     * @return time tree.
+     * @throws org.neo4j.graphdb.NotFoundException if the root node does not exist.
+     */
+    public TimeTree get(long rootId) {
+        synchronized (customRootTrees) {
+            CustomRootTimeTree tree = customRootTrees.get(rootId);
+            if (tree != null) {
+                return tree;
+            }
+        }
+
+        return put(new CustomRootTimeTree(database.getNodeById(rootId)));
+    }
+
+    /**
+     * Get the time tree with a custom root.
+     *
+     * @param root root node.
+     * @return time tree.
+     */
+    public TimeTree get(Node root) {
+        synchronized (customRootTrees) {
+            CustomRootTimeTree tree = customRootTrees.get(root.getId());
+            if (tree != null) {
+                return tree;
+            }
+        }
+
+        return put(new CustomRootTimeTree(root));
+    }
+
+    /**
+     * Remove the time tree of a custom root from the registry.
+     *
+     * @param rootId ID of the root node.
+     */
+    public void invalidate(long rootId) {
+        synchronized (customRootTrees) {
+            customRootTrees.remove(rootId);
+        }
+    }
+
+    /**
+     * Set the maximum number of cached time trees with custom roots.
+     *
+     * @param capacity maximum number of trees, must be positive.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        synchronized (customRootTrees) {
+            evict();
+        }
+    }
+
+    /**
+     * @return number of cached time trees with custom roots.
+     */
+    public int size() {
+        synchronized (customRootTrees) {
+            return customRootTrees.size();
+        }
+    }
+
+    private TimeTree put(CustomRootTimeTree tree) {
+        long rootId = tree.getTimeRoot(false).getId();
+
+        synchronized (customRootTrees) {
+            CustomRootTimeTree existing = customRootTrees.putIfAbsent(rootId, tree);
+            if (existing != null) {
+                return existing;
+            }
+            evict();
+        }
+
+        return tree;
+    }
+
+    private void evict() {
+        while (customRootTrees.size() > capacity) {
+            customRootTrees.remove(customRootTrees.keySet().iterator().next());
+        }
+    }
+
+    private void invalidate(Iterable<Node> nodes) {
+        synchronized (customRootTrees) {
+            if (customRootTrees.isEmpty()) {
+                return;
+            }
+
+            for (Node node : nodes) {
+                customRootTrees.remove(node.getId());
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * The single writer of a {@link TimeTree}. All structural changes to the tree requested through this writer are
+ * performed one batch at a time, each batch in a single transaction, so that concurrent callers do not compete for the
+ * root lock of the tree and do not hold their own transaction resources while waiting for it.
+ * <p>
+ * Requests are queued and a drain of the queue is submitted to the provided {@link Executor} whenever there is work to
+ * do and no drain is running. At most one drain runs at any time, so many writers (one per tree root) can share a
+ * small pool of threads. Callers get a {@link CompletableFuture} completed with the ID of the affected instant node
+ * once the batch that contained their request has been committed.
+ * <p>
+ * Note that a caller must not wait for the future while holding locks on nodes the writer might need (e.g. instant
+ * nodes it has attached events to in its transaction), as the writer would wait for the caller's transaction to finish.
+ * {@link SingleWriterTimeTree} takes care of that by falling back to a write in the caller's transaction on timeout.
+ * Requests whose futures have been cancelled by then are skipped.
+ */
+public class TimeTreeWriter {
+
+    private static final Log LOG = LoggerFactory.getLogger(TimeTreeWriter.class);
+
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private final GraphDatabaseService database;
+    private final TimeTree timeTree;
+    private final Executor executor;
+
+    private final Queue<Request> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    /**
+     * Create a new writer.
+     *
+     * @param database to write to.
+     * @param timeTree to perform the changes on.
+     * @param executor to run the writes in.
+     */
+    public TimeTreeWriter(GraphDatabaseService database, TimeTree timeTree, Executor executor) {
+        this.database = database;
+        this.timeTree = timeTree;
+        this.executor = executor;
+    }
+
+    /**
+     * Request a node representing a specific time instant to be created, if it does not exist.
+     *
+     * @param timeInstant specific time instant.
+     * @return future completed with the ID of the node representing the time instant.
+     */
+    public CompletableFuture<Long> getOrCreateInstant(TimeInstant timeInstant) {
+        return submit(tree -> tree.getOrCreateInstant(timeInstant).getId());
+    }
+
+    /**
+     * Request a time instant to be removed. See {@link TimeTree#removeInstant(org.neo4j.graphdb.Node)}.
+     *
+     * @param instantId ID of the node representing the time instant.
+     * @return future completed with the ID of the removed node.
+     */
+    public CompletableFuture<Long> removeInstant(long instantId) {
+        return submit(tree -> {
+            Node instant;
+            try {
+                instant = database.getNodeById(instantId);
+            } catch (NotFoundException e) {
+                //already removed, e.g. by the caller after it stopped waiting for this request
+                return instantId;
+            }
+            tree.removeInstant(instant);
+            return instantId;
+        });
+    }
+
+    /**
+     * Get the number of requests waiting to be written.
+     *
+     * @return number of queued requests.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private CompletableFuture<Long> submit(Function<TimeTree, Long> operation) {
+        Request request = new Request(operation);
+        queue.add(request);
+        scheduleDrain();
+        return request.future;
+    }
+
+    private void scheduleDrain() {
+        if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            draining.set(false);
+            Request request;
+            while ((request = queue.poll()) != null) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            List<Request> batch = new ArrayList<>();
+            Request request;
+            while (batch.size() < MAX_BATCH_SIZE && (request = queue.poll()) != null) {
+                if (!request.future.isCancelled()) {
+                    batch.add(request);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Time tree writer failed", e);
+        } finally {
+            draining.set(false);
+        }
+
+        //one batch per drain, so that writers sharing an executor take turns
+        scheduleDrain();
+    }
+
+    private void write(List<Request> batch) {
+        List<Long> results = new ArrayList<>(batch.size());
+
+        try (Transaction tx = database.beginTx()) {
+            for (Request request : batch) {
+                //the caller may have stopped waiting while the earlier requests were written
+                results.add(request.future.isCancelled() ? null : request.operation.apply(timeTree));
+            }
+            tx.success();
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).future.completeExceptionally(e);
+                return;
+            }
+
+            LOG.warn("Failed to write a batch of " + batch.size() + " time tree changes, writing them one by one", e);
+            for (Request request : batch) {
+                write(Collections.singletonList(request));
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future.complete(results.get(i));
+        }
+    }
+
+    private static class Request {
+
+        private final Function<TimeTree, Long> operation;
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        private Request(Function<TimeTree, Long> operation) {
+            this.operation = operation;
+        }
+    }
+}
@@ -17,7 +17,9 @@
 package com.graphaware.module.timetree;
 
 import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.EventTimestamp;
 import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.domain.TimedEvent;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.RelationshipType;
@@ -145,4 +147,21 @@ public interface TimedEvents {
      * resolution before events with lower resolution.
      */
     List<Event> getEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> relationshipTypes, Direction direction);
+
+    /**
+     * Get events attached (via a relationship of one of the specified types and the scpecified direction) to all time
+     * instants in the specified range (inclusive) and all their children, in chronological order of the events' own
+     * times. Events of each time instant are sorted by time and the per-instant streams are merged, so that events of
+     * a coarser time instant end up among the events of its children. Events with the same time keep the order in
+     * which {@link #getEvents(TimeInstant, TimeInstant, Set, Direction)} would return them.
+     * The time instants that don't exist will <b>not</b> be created.
+     *
+     * @param startTime         Time instant representing the start of the interval (inclusive).
+     * @param endTime           Time instant representing the end of the interval (inclusive).
+     * @param relationshipTypes of the relationships between the event and the time instants, can be null for all.
+     * @param direction         of the relationships between the time instants and the events from the time instants' point of view.
+     * @param timestamp         where to read the time of each event from.
+     * @return events attached to all time instants in the interval and their children, ordered by their time.
+     */
+    List<TimedEvent> getEventsChronologically(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> relationshipTypes, Direction direction, EventTimestamp timestamp);
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.graphaware.module.timetree;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Retries of instants created by procedures that fail transiently, e.g. with a
+ * {@link org.neo4j.kernel.DeadlockDetectedException} or a lock timeout caused by contention on the root of a tree.
+ * A Neo4j transaction that has failed can't continue, so such a failure normally fails the whole client transaction
+ * calling the procedure. With retries enabled, missing instants are created by a {@link RetryingTimeTree} in separate
+ * transactions, each of which can be retried on its own.
+ * <p>
+ * Retries are off by default.
+ */
+public final class TransientFailureRetry {
+
+    private static final Map<GraphDatabaseService, TransientFailureRetry> SETTINGS = new ConcurrentHashMap<>();
+
+    private volatile int maxRetries = 0;
+
+    /**
+     * Get the retry settings of a database, creating them (disabled) if needed.
+     *
+     * @param database to get the settings for.
+     * @return settings.
+     */
+    public static TransientFailureRetry forDatabase(GraphDatabaseService database) {
+        return SETTINGS.computeIfAbsent(database, TransientFailureRetry::new);
+    }
+
+    private TransientFailureRetry(GraphDatabaseService database) {
+        database.registerKernelEventHandler(new ShutdownHandler(() -> SETTINGS.remove(database)));
+    }
+
+    /**
+     * Start retrying instant creation after transient failures.
+     *
+     * @param maxRetries maximum number of retries of a single instant, must be positive.
+     */
+    public void enable(int maxRetries) {
+        if (maxRetries < 1) {
+            throw new IllegalArgumentException("Number of retries must be positive!");
+        }
+
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Stop retrying instant creation.
+     */
+    public void disable() {
+        maxRetries = 0;
+    }
+
+    /**
+     * @return true iff instant creation is retried.
+     */
+    public boolean isEnabled() {
+        return maxRetries > 0;
+    }
+
+    /**
+     * @return maximum number of retries of a single instant, 0 if disabled.
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.domain;
+
+import org.joda.time.DateTimeZone;
+
+/**
+ * Primitive calendar arithmetic in the ISO chronology, working with ms since the epoch without allocating objects.
+ * It gives the same results as Joda {@link org.joda.time.DateTime}s in the ISO chronology, but is meant for the hot
+ * paths of the time tree, such as the descent from the root to an instant and the enumeration of instants in a range.
+ * <p>
+ * Times are either UTC (ms since the epoch) or local, i.e. shifted by the offset of a time zone at that time. Fields are
+ * read from local times. Offsets are looked up in the zone's own transition tables, which Joda caches for the zones it
+ * hands out, so no lookup allocates.
+ */
+public final class CalendarArithmetic {
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    private static final long DAYS_PER_ERA = 146_097;
+    private static final long DAYS_FROM_ERA_START_TO_EPOCH = 719_468;
+
+    private CalendarArithmetic() {
+    }
+
+    /**
+     * Convert a UTC time to local time in a time zone.
+     *
+     * @param time UTC time in ms since the epoch.
+     * @param zone time zone.
+     * @return local time.
+     */
+    public static long toLocal(long time, DateTimeZone zone) {
+        return zone.convertUTCToLocal(time);
+    }
+
+    /**
+     * Get the value of the field represented by a resolution, e.g. the day of month for {@link Resolution#DAY}.
+     *
+     * @param localTime  local time, see {@link #toLocal(long, DateTimeZone)}.
+     * @param resolution field to get.
+     * @return value of the field, as {@link org.joda.time.DateTime#get(org.joda.time.DateTimeFieldType)} would return it.
+     */
+    public static int get(long localTime, Resolution resolution) {
+        switch (resolution) {
+            case YEAR:
+                return (int) civil(Math.floorDiv(localTime, MILLIS_PER_DAY), Resolution.YEAR);
+            case MONTH:
+                return (int) civil(Math.floorDiv(localTime, MILLIS_PER_DAY), Resolution.MONTH);
+            case DAY:
+                return (int) civil(Math.floorDiv(localTime, MILLIS_PER_DAY), Resolution.DAY);
+            case HOUR:
+                return (int) (Math.floorMod(localTime, MILLIS_PER_DAY) / MILLIS_PER_HOUR);
+            case MINUTE:
+                return (int) (Math.floorMod(localTime, MILLIS_PER_HOUR) / MILLIS_PER_MINUTE);
+            case SECOND:
+                return (int) (Math.floorMod(localTime, MILLIS_PER_MINUTE) / MILLIS_PER_SECOND);
+            case MILLISECOND:
+                return (int) Math.floorMod(localTime, MILLIS_PER_SECOND);
+            default:
+                throw new IllegalStateException("Unknown resolution " + resolution + ". This is a bug.");
+        }
+    }
+
+    /**
+     * Get the start of the period of a resolution that a local time falls into, e.g. the midnight for {@link Resolution#DAY}.
+     *
+     * @param localTime  local time, see {@link #toLocal(long, DateTimeZone)}.
+     * @param resolution of the period.
+     * @return local time of the start of the period.
+     */
+    public static long startOf(long localTime, Resolution resolution) {
+        switch (resolution) {
+            case YEAR:
+                return daysFromCivil(get(localTime, Resolution.YEAR), 1, 1) * MILLIS_PER_DAY;
+            case MONTH:
+                return daysFromCivil(get(localTime, Resolution.YEAR), get(localTime, Resolution.MONTH), 1) * MILLIS_PER_DAY;
+            case DAY:
+                return localTime - Math.floorMod(localTime, MILLIS_PER_DAY);
+            case HOUR:
+                return localTime - Math.floorMod(localTime, MILLIS_PER_HOUR);
+            case MINUTE:
+                return localTime - Math.floorMod(localTime, MILLIS_PER_MINUTE);
+            case SECOND:
+                return localTime - Math.floorMod(localTime, MILLIS_PER_SECOND);
+            case MILLISECOND:
+                return localTime;
+            default:
+                throw new IllegalStateException("Unknown resolution " + resolution + ". This is a bug.");
+        }
+    }
+
+    /**
+     * Set the value of the field represented by a resolution, keeping the other fields, except for clamping the day of
+     * month to the length of the resulting month.
+     *
+     * @param localTime  local time, see {@link #toLocal(long, DateTimeZone)}.
+     * @param resolution field to set.
+     * @param value      new value of the field, must be valid for the field.
+     * @return local time with the field set.
+     */
+    public static long with(long localTime, Resolution resolution, int value) {
+        switch (resolution) {
+            case YEAR:
+            case MONTH:
+            case DAY:
+                long days = Math.floorDiv(localTime, MILLIS_PER_DAY);
+                long year = resolution == Resolution.YEAR ? value : civil(days, Resolution.YEAR);
+                long month = resolution == Resolution.MONTH ? value : civil(days, Resolution.MONTH);
+                long day = resolution == Resolution.DAY ? value : Math.min(civil(days, Resolution.DAY), daysInMonth(year, month));
+                return daysFromCivil(year, month, day) * MILLIS_PER_DAY + Math.floorMod(localTime, MILLIS_PER_DAY);
+            case HOUR:
+                return localTime + (value - get(localTime, resolution)) * MILLIS_PER_HOUR;
+            case MINUTE:
+                return localTime + (value - get(localTime, resolution)) * MILLIS_PER_MINUTE;
+            case SECOND:
+                return localTime + (value - get(localTime, resolution)) * MILLIS_PER_SECOND;
+            case MILLISECOND:
+                return localTime + (value - get(localTime, resolution));
+            default:
+                throw new IllegalStateException("Unknown resolution " + resolution + ". This is a bug.");
+        }
+    }
+
+    /**
+     * Add a number of units of a resolution to a time, like adding to a {@link org.joda.time.MutableDateTime} in the
+     * given zone would: units of an hour or less are added to the UTC time, longer units to the local time, keeping the
+     * time of day and clamping the day of month to the length of the resulting month.
+     *
+     * @param time       UTC time in ms since the epoch.
+     * @param zone       time zone to add in.
+     * @param resolution unit to add.
+     * @param amount     number of units to add.
+     * @return UTC time in ms since the epoch.
+     */
+    public static long add(long time, DateTimeZone zone, Resolution resolution, int amount) {
+        if (amount == 0) {
+            return time;
+        }
+
+        switch (resolution) {
+            case HOUR:
+                return time + amount * MILLIS_PER_HOUR;
+            case MINUTE:
+                return time + amount * MILLIS_PER_MINUTE;
+            case SECOND:
+                return time + amount * MILLIS_PER_SECOND;
+            case MILLISECOND:
+                return time + amount;
+            default:
+                long localTime = addLocal(zone.convertUTCToLocal(time), resolution, amount);
+                return localTime - zone.getOffsetFromLocal(localTime);
+        }
+    }
+
+    private static long addLocal(long localTime, Resolution resolution, int amount) {
+        if (resolution == Resolution.DAY) {
+            return localTime + amount * MILLIS_PER_DAY;
+        }
+
+        long days = Math.floorDiv(localTime, MILLIS_PER_DAY);
+        long millisOfDay = Math.floorMod(localTime, MILLIS_PER_DAY);
+        long year = civil(days, Resolution.YEAR);
+        long month = civil(days, Resolution.MONTH);
+        long day = civil(days, Resolution.DAY);
+
+        long months = year * 12 + (month - 1) + (resolution == Resolution.YEAR ? 12L * amount : amount);
+        year = Math.floorDiv(months, 12);
+        month = Math.floorMod(months, 12) + 1;
+        day = Math.min(day, daysInMonth(year, month));
+
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY + millisOfDay;
+    }
+
+    /**
+     * Get the year, month or day of month of a day since the epoch (Howard Hinnant's civil_from_days).
+     */
+    private static long civil(long days, Resolution field) {
+        long z = days + DAYS_FROM_ERA_START_TO_EPOCH;
+        long era = Math.floorDiv(z, DAYS_PER_ERA);
+        long dayOfEra = z - era * DAYS_PER_ERA;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+
+        if (field == Resolution.DAY) {
+            return dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        }
+
+        long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        if (field == Resolution.MONTH) {
+            return month;
+        }
+
+        return yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    }
+
+    /**
+     * Get the number of days since the epoch of a date (Howard Hinnant's days_from_civil).
+     */
+    private static long daysFromCivil(long year, long month, long day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * DAYS_PER_ERA + dayOfEra - DAYS_FROM_ERA_START_TO_EPOCH;
+    }
+
+    private static long daysInMonth(long year, long month) {
+        if (month == 2) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+}
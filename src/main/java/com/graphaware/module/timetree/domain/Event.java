@@ -27,6 +27,7 @@ public class Event {
     private final Node node;
     private final RelationshipType relationshipType;
     private final Direction direction;
+    private final Node instant;
 
     /**
      * Create a new event.
@@ -36,9 +37,22 @@ public class Event {
      * @param direction to use when attaching the event to the time tree.
      */
     public Event(Node node, RelationshipType relationshipType, Direction direction) {
+        this(node, relationshipType, direction, null);
+    }
+
+    /**
+     * Create a new event attached to a time instant.
+     *
+     * @param node             representing the event.
+     * @param relationshipType to use when attaching the event to the time tree.
+     * @param direction        to use when attaching the event to the time tree.
+     * @param instant          node representing the time instant the event is attached to, null if unknown.
+     */
+    public Event(Node node, RelationshipType relationshipType, Direction direction, Node instant) {
         this.node = node;
         this.relationshipType = relationshipType;
         this.direction = direction;
+        this.instant = instant;
     }
 
     /**
@@ -67,4 +81,13 @@ public class Event {
     public Direction getDirection() {
         return direction;
     }
+
+    /**
+     * Get the node representing the time instant the event is attached to.
+     *
+     * @return time instant node, null if unknown.
+     */
+    public Node getInstant() {
+        return instant;
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.domain;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+
+/**
+ * Where to read the time of an event from, when returning events in chronological order. The time is either a numeric
+ * property of the event node, a numeric property of the relationship attaching the event to its time instant, or the
+ * start of the time instant itself. Events missing the property (or having a non-numeric value) fall back to the start
+ * of their time instant.
+ */
+public final class EventTimestamp {
+
+    private static final EventTimestamp INSTANT = new EventTimestamp(null, false);
+
+    private final String property;
+    private final boolean onRelationship;
+
+    private EventTimestamp(String property, boolean onRelationship) {
+        this.property = property;
+        this.onRelationship = onRelationship;
+    }
+
+    /**
+     * @return timestamp taken from the start of the time instant an event is attached to.
+     */
+    public static EventTimestamp instant() {
+        return INSTANT;
+    }
+
+    /**
+     * @param property name of the event node property holding the time in ms since the epoch.
+     * @return timestamp taken from a property of the event node.
+     */
+    public static EventTimestamp nodeProperty(String property) {
+        return new EventTimestamp(requireProperty(property), false);
+    }
+
+    /**
+     * @param property name of the relationship property holding the time in ms since the epoch.
+     * @return timestamp taken from a property of the relationship attaching the event to its time instant.
+     */
+    public static EventTimestamp relationshipProperty(String property) {
+        return new EventTimestamp(requireProperty(property), true);
+    }
+
+    /**
+     * Get the time of an event.
+     *
+     * @param relationship attaching the event to its time instant (or its bucket).
+     * @param event        event node.
+     * @param instantTime  start of the time instant the event is attached to, in ms since the epoch.
+     * @return time of the event in ms since the epoch.
+     */
+    public long getTime(Relationship relationship, Node event, long instantTime) {
+        if (property == null) {
+            return instantTime;
+        }
+
+        PropertyContainer container = onRelationship ? relationship : event;
+        Object value = container.getProperty(property, null);
+
+        return value instanceof Number ? ((Number) value).longValue() : instantTime;
+    }
+
+    private static String requireProperty(String property) {
+        if (property == null || property.trim().isEmpty()) {
+            throw new IllegalArgumentException("Timestamp property must not be null or empty");
+        }
+        return property;
+    }
+
+    @Override
+    public String toString() {
+        if (property == null) {
+            return "instant";
+        }
+        return (onRelationship ? "relationship." : "node.") + property;
+    }
+}
@@ -17,14 +17,18 @@ package com.graphaware.module.timetree.domain;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
-import org.joda.time.MutableDateTime;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.TimeZone;
 
+import static com.graphaware.common.util.EntityUtils.getInt;
 import static com.graphaware.module.timetree.domain.Resolution.DAY;
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.CHILD;
 import static com.graphaware.module.timetree.domain.ValidationUtils.validateRange;
+import static org.neo4j.graphdb.Direction.INCOMING;
 
 /**
  * An instant of time.
@@ -32,6 +36,7 @@ import static com.graphaware.module.timetree.domain.ValidationUtils.validateRang
 public class TimeInstant {
 
     private static final Resolution DEFAULT_RESOLUTION = DAY;
+    private static final String VALUE_PROPERTY = "value";
     private static final DateTimeZone DEFAULT_TIME_ZONE = DateTimeZone.forTimeZone(TimeZone.getTimeZone("UTC"));
 
     private final long time;
@@ -83,10 +88,19 @@ public class TimeInstant {
      * @return next instant.
      */
     public TimeInstant next() {
-        MutableDateTime time = new MutableDateTime(getTime());
-        time.add(getResolution().getDateTimeFieldType().getDurationType(), 1);
+        return new TimeInstant(next(getTime(), getResolution()), getTimezone(), getResolution());
+    }
 
-        return new TimeInstant(time.getMillis(), getTimezone(), getResolution());
+    /**
+     * Get the time immediately following the given one, i.e. with the resolution unit incremented by 1. Like
+     * {@link #next()}, but without allocating anything. Units longer than an hour are added in the default time zone.
+     *
+     * @param time       UTC time in ms since the epoch.
+     * @param resolution unit to increment.
+     * @return next time in ms since the epoch.
+     */
+    public static long next(long time, Resolution resolution) {
+        return CalendarArithmetic.add(time, DateTimeZone.getDefault(), resolution, 1);
     }
 
     private TimeInstant(long time, DateTimeZone timezone, Resolution resolution) {
@@ -129,9 +143,7 @@ public class TimeInstant {
      * @return true iff this instant is after the given one.
      */
     public boolean isAfter(TimeInstant timeInstant) {
-        DateTime thisTime = new DateTime(getTime());
-        DateTime thatTime = new DateTime(timeInstant.getTime());
-        return thisTime.isAfter(thatTime);
+        return getTime() > timeInstant.getTime();
     }
 
     /**
@@ -156,16 +168,47 @@ public class TimeInstant {
     public static List<TimeInstant> getInstants(TimeInstant startTime, TimeInstant endTime) {
         validateRange(startTime, endTime);
 
-        List<TimeInstant> result = new LinkedList<>();
+        List<TimeInstant> result = new ArrayList<>();
 
-        while (!startTime.isAfter(endTime)) {
-            result.add(new TimeInstant(startTime.getTime(), startTime.getTimezone(), startTime.getResolution()));
-            startTime = startTime.next();
+        for (long time = startTime.getTime(); time <= endTime.getTime(); time = next(time, startTime.getResolution())) {
+            result.add(new TimeInstant(time, startTime.getTimezone(), startTime.getResolution()));
         }
 
         return result;
     }
     
+    /**
+     * Create a time instant represented by a node of a time tree, by collecting the values of the node and its
+     * ancestors.
+     *
+     * @param instant  node representing a time instant, must not be the root of the tree.
+     * @param timezone time zone the tree has been built in.
+     * @return time instant, with the resolution of the node, starting at the beginning of the period it represents.
+     * @throws IllegalArgumentException if the node is not a time instant or it is not connected to its ancestors.
+     */
+    public static TimeInstant fromNode(Node instant, DateTimeZone timezone) {
+        Resolution resolution = Resolution.findForNode(instant);
+
+        int[] values = new int[resolution.ordinal() + 1];
+        Node current = instant;
+        for (int i = resolution.ordinal(); i >= 0; i--) {
+            values[i] = getInt(current, VALUE_PROPERTY);
+
+            Relationship parent = current.getSingleRelationship(CHILD, INCOMING);
+            if (parent == null) {
+                throw new IllegalArgumentException(current + " has no parent, it is not a time instant");
+            }
+            current = parent.getStartNode();
+        }
+
+        DateTime dateTime = new DateTime(values[0], 1, 1, 0, 0, timezone);
+        for (int i = 1; i < values.length; i++) {
+            dateTime = dateTime.withField(Resolution.values()[i].getDateTimeFieldType(), values[i]);
+        }
+
+        return new TimeInstant(dateTime.getMillis(), timezone, resolution);
+    }
+
     public static TimeInstant createInstant(long time, String resolution, String timezone) {
         TimeInstant instant = TimeInstant.instant(time);
 
@@ -179,4 +222,12 @@ public class TimeInstant {
 
         return instant;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return new DateTime(time, timezone) + " (" + resolution + ")";
+    }
 }
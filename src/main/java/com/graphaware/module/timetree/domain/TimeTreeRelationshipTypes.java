@@ -26,7 +26,7 @@ import java.util.List;
  */
 public enum TimeTreeRelationshipTypes implements RelationshipType {
 
-    FIRST, LAST, NEXT, CHILD;
+    FIRST, LAST, NEXT, CHILD, BUCKET, SKIP_1, SKIP_2, SKIP_3, SKIP_4;
 
     /**
      * Get all TimeTree relationship names
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.domain;
+
+import org.neo4j.graphdb.Node;
+
+/**
+ * An {@link Event} together with the time it is ordered by and, when known, the root of the time tree it has been found in.
+ */
+public class TimedEvent {
+
+    private final Event event;
+    private final Node root;
+    private final long time;
+
+    /**
+     * Create a new timed event.
+     *
+     * @param event the event.
+     * @param root  root of the time tree the event has been found in, can be null if not known.
+     * @param time  time of the event, in ms since the epoch.
+     */
+    public TimedEvent(Event event, Node root, long time) {
+        this.event = event;
+        this.root = root;
+        this.time = time;
+    }
+
+    public Event getEvent() {
+        return event;
+    }
+
+    public Node getRoot() {
+        return root;
+    }
+
+    public long getTime() {
+        return time;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.logic;
+
+import java.util.*;
+
+/**
+ * {@link Iterator} merging a number of iterators, each of which returns elements in ascending order, into a single
+ * iterator returning all elements in ascending order. It keeps the head of each iterator in a heap, so taking the next
+ * element costs O(log k) for k iterators. Elements that compare equal are returned in the order of their iterators.
+ *
+ * @param <T> type of the elements.
+ */
+public class MergingIterator<T> implements Iterator<T> {
+
+    private final Comparator<? super T> comparator;
+    private final PriorityQueue<Head<T>> heads;
+
+    /**
+     * Create a new iterator.
+     *
+     * @param iterators  to merge, each returning elements ordered by the comparator.
+     * @param comparator of the elements.
+     */
+    public MergingIterator(List<? extends Iterator<? extends T>> iterators, Comparator<? super T> comparator) {
+        this.comparator = comparator;
+        this.heads = new PriorityQueue<>(Math.max(1, iterators.size()), this::compare);
+
+        for (int i = 0; i < iterators.size(); i++) {
+            advance(new Head<>(i, iterators.get(i)));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T next() {
+        Head<T> head = heads.poll();
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+
+        T result = head.value;
+        advance(head);
+        return result;
+    }
+
+    private void advance(Head<T> head) {
+        if (head.iterator.hasNext()) {
+            head.value = head.iterator.next();
+            heads.add(head);
+        }
+    }
+
+    private int compare(Head<T> first, Head<T> second) {
+        int result = comparator.compare(first.value, second.value);
+        return result != 0 ? result : Integer.compare(first.index, second.index);
+    }
+
+    private static class Head<T> {
+
+        private final int index;
+        private final Iterator<? extends T> iterator;
+        private T value;
+
+        Head(int index, Iterator<? extends T> iterator) {
+            this.index = index;
+            this.iterator = iterator;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.logic;
+
+/**
+ * Mode of retrieving a range of time instants.
+ */
+public enum RangeMode {
+
+    /**
+     * Return only the instants that exist, create nothing.
+     */
+    EXISTING,
+
+    /**
+     * Get or create only the instants at the start and the end of the range. Useful for range scans, which only need
+     * the endpoints and follow the NEXT relationships between them.
+     */
+    ENDPOINTS,
+
+    /**
+     * Get or create all the instants in the range.
+     */
+    ALL
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.graphaware.module.timetree.logic;
+
+import com.graphaware.module.timetree.RetryingTimeTree;
+import com.graphaware.module.timetree.ShutdownHandler;
+import com.graphaware.module.timetree.TimeTree;
+import com.graphaware.module.timetree.TransientFailureRetry;
+import com.graphaware.module.timetree.module.NamedThreadFactory;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoration of the time trees that procedures create instants in by {@link RetryingTimeTree}s, when
+ * {@link TransientFailureRetry} is enabled for the database. The separate transactions of all the trees of a database
+ * run on a pool shared by all callers, with a bounded queue, so that instants are created in the callers' transactions
+ * when the pool can't keep up.
+ */
+public final class RetryingTimeTrees {
+
+    public static final int QUEUE_CAPACITY = 1000;
+
+    private static final Map<GraphDatabaseService, ExecutorService> RETRY_EXECUTORS = new ConcurrentHashMap<>();
+
+    private RetryingTimeTrees() {
+    }
+
+    /**
+     * Decorate a time tree, so that its instants are created with retries, if enabled.
+     *
+     * @param database the tree belongs to.
+     * @param timeTree to decorate.
+     * @return decorated tree, or the given one if retries are disabled.
+     */
+    public static TimeTree retrying(GraphDatabaseService database, TimeTree timeTree) {
+        TransientFailureRetry retry = TransientFailureRetry.forDatabase(database);
+        if (!retry.isEnabled()) {
+            return timeTree;
+        }
+
+        return new RetryingTimeTree(database, timeTree, retryExecutor(database), retry.getMaxRetries());
+    }
+
+    /**
+     * Get the pool running the separate transactions of a database, creating it if needed. The pool is shut down with
+     * the database.
+     *
+     * @param database to get the pool for.
+     * @return pool.
+     */
+    private static ExecutorService retryExecutor(GraphDatabaseService database) {
+        return RETRY_EXECUTORS.computeIfAbsent(database, db -> {
+            int threads = Runtime.getRuntime().availableProcessors();
+            ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_CAPACITY), new NamedThreadFactory("TimeTree-Retry"));
+            db.registerKernelEventHandler(new ShutdownHandler(() -> {
+                RETRY_EXECUTORS.remove(db);
+                executor.shutdownNow();
+            }));
+            return executor;
+        });
+    }
+}
@@ -15,25 +15,30 @@
  */
 package com.graphaware.module.timetree.logic;
 
-import com.graphaware.module.timetree.CustomRootTimeTree;
-import com.graphaware.module.timetree.SingleTimeTree;
 import com.graphaware.module.timetree.TimeTree;
+import com.graphaware.module.timetree.TimeTreeRegistry;
 import com.graphaware.module.timetree.domain.TimeInstant;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.Transaction;
 
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 
+import static com.graphaware.module.timetree.domain.ValidationUtils.validateRange;
+
 public class TimeTreeBusinessLogic {
 
     private final GraphDatabaseService database;
+    private final TimeTreeRegistry registry;
     private final TimeTree timeTree;
 
     public TimeTreeBusinessLogic(GraphDatabaseService database) {
         this.database = database;
-        this.timeTree = new SingleTimeTree(database);
+        this.registry = TimeTreeRegistry.forDatabase(database);
+        this.timeTree = registry.getDefault();
     }
 
     public Node getInstant(long time, String resolution, String timezone) throws NotFoundException {
@@ -53,7 +58,7 @@ public class TimeTreeBusinessLogic {
         TimeInstant timeInstant = TimeInstant.createInstant(time, resolution, timezone);
         Node instant;
         try (Transaction tx = database.beginTx()) {
-            instant = timeTree.getOrCreateInstant(timeInstant);
+            instant = RetryingTimeTrees.retrying(database, timeTree).getOrCreateInstant(timeInstant);
             tx.success();
         }
         return instant;
@@ -85,7 +90,7 @@ public class TimeTreeBusinessLogic {
       TimeInstant timeInstant = TimeInstant.createInstant(time, resolution, timezone);
       Node instant;
       try (Transaction tx = database.beginTx()) {
-          instant = new CustomRootTimeTree(database.getNodeById(rootNodeId)).getInstant(timeInstant);
+          instant = registry.get(rootNodeId).getInstant(timeInstant);
           tx.success();
       }
       if (instant == null) {
@@ -98,7 +103,7 @@ public class TimeTreeBusinessLogic {
       TimeInstant timeInstant = TimeInstant.createInstant(time, resolution, timezone);
       Node instant;
       try (Transaction tx = database.beginTx()) {
-          instant = new CustomRootTimeTree(database.getNodeById(rootNodeId)).getOrCreateInstant(timeInstant);
+          instant = RetryingTimeTrees.retrying(database, registry.get(rootNodeId)).getOrCreateInstant(timeInstant);
           tx.success();
       }
         return instant;
@@ -109,7 +114,7 @@ public class TimeTreeBusinessLogic {
       TimeInstant endTimeInstant = TimeInstant.createInstant(endTime, resolution, timezone);
       List<Node> nodes;
       try (Transaction tx = database.beginTx()) {
-          nodes = new CustomRootTimeTree(database.getNodeById(rootNodeId)).getInstants(startTimeInstant, endTimeInstant);
+          nodes = registry.get(rootNodeId).getInstants(startTimeInstant, endTimeInstant);
           tx.success();
       }
         return nodes;
@@ -120,9 +125,76 @@ public class TimeTreeBusinessLogic {
       TimeInstant endTimeInstant = TimeInstant.createInstant(endTime, resolution, timezone);
       List<Node> nodes;
       try (Transaction tx = database.beginTx()) {
-          nodes = new CustomRootTimeTree(database.getNodeById(rootNodeId)).getOrCreateInstants(startTimeInstant, endTimeInstant);
+          nodes = registry.get(rootNodeId).getOrCreateInstants(startTimeInstant, endTimeInstant);
           tx.success();
       }
         return nodes;
     }
+
+    public List<Node> getInstants(RangeMode mode, long startTime, long endTime, String resolution, String timezone, int batchSize) {
+        return getInstants(timeTree, mode, startTime, endTime, resolution, timezone, batchSize);
+    }
+
+    public List<Node> getInstantsWithCustomRoot(RangeMode mode, long rootNodeId, long startTime, long endTime, String resolution, String timezone, int batchSize) {
+        TimeTree customRootTimeTree;
+        try (Transaction tx = database.beginTx()) {
+            customRootTimeTree = registry.get(rootNodeId);
+            tx.success();
+        }
+        return getInstants(customRootTimeTree, mode, startTime, endTime, resolution, timezone, batchSize);
+    }
+
+    /**
+     * Get nodes representing time instants in the specified range (inclusive).
+     *
+     * @param timeTree   to get the instants from.
+     * @param mode       which instants to return and whether to create them.
+     * @param startTime  start of the range.
+     * @param endTime    end of the range.
+     * @param resolution resolution of the instants.
+     * @param timezone   time zone of the instants.
+     * @param batchSize  maximum number of instants created per transaction in {@link RangeMode#ALL} mode. 0 or less for
+     *                   a single transaction. Has no effect when called within a transaction, e.g. from a procedure.
+     * @return nodes representing time instants, ordered chronologically.
+     */
+    private List<Node> getInstants(TimeTree timeTree, RangeMode mode, long startTime, long endTime, String resolution, String timezone, int batchSize) {
+        TimeInstant startTimeInstant = TimeInstant.createInstant(startTime, resolution, timezone);
+        TimeInstant endTimeInstant = TimeInstant.createInstant(endTime, resolution, timezone);
+        validateRange(startTimeInstant, endTimeInstant);
+
+        List<Node> nodes = new LinkedList<>();
+        switch (mode) {
+            case EXISTING:
+                try (Transaction tx = database.beginTx()) {
+                    nodes.addAll(timeTree.getInstants(startTimeInstant, endTimeInstant));
+                    tx.success();
+                }
+                break;
+            case ENDPOINTS:
+                try (Transaction tx = database.beginTx()) {
+                    Node start = timeTree.getOrCreateInstant(startTimeInstant);
+                    Node end = timeTree.getOrCreateInstant(endTimeInstant);
+                    nodes.add(start);
+                    if (start.getId() != end.getId()) {
+                        nodes.add(end);
+                    }
+                    tx.success();
+                }
+                break;
+            case ALL:
+                List<TimeInstant> instants = new ArrayList<>(TimeInstant.getInstants(startTimeInstant, endTimeInstant));
+                int size = batchSize > 0 ? batchSize : instants.size();
+                for (int from = 0; from < instants.size(); from += size) {
+                    try (Transaction tx = database.beginTx()) {
+                        nodes.addAll(timeTree.getOrCreateInstants(instants.get(from), instants.get(Math.min(from + size, instants.size()) - 1)));
+                        tx.success();
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown range mode: " + mode);
+        }
+
+        return nodes;
+    }
 }
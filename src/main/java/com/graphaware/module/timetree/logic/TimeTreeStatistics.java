@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.logic;
+
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes;
+import com.graphaware.module.timetree.metrics.Histogram;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Statistics of a time tree: number of instants per resolution, the longest chain of siblings under a single parent,
+ * and the distribution of the number of events attached to instants.
+ * <p>
+ * The tree is walked level by level. The instants of a level are enumerated along the NEXT chain that links all of
+ * them, also across parent boundaries, and their children are visited from the FIRST to the LAST child, so nothing but
+ * the current position is held in memory. Event counts come from relationship degrees, so dense instants are not
+ * expanded. When sampling, the children of each instant are only visited with the given probability, and counts at
+ * the level below are scaled up accordingly, which makes the statistics estimates. The instants of every level are
+ * sampled independently, so each level is scaled by the same factor, rather than by one compounding with its depth;
+ * in exchange, all instants above the finest level are walked.
+ */
+public class TimeTreeStatistics {
+
+    private final GraphDatabaseService database;
+    private final Random random;
+
+    public TimeTreeStatistics(GraphDatabaseService database) {
+        this(database, new Random());
+    }
+
+    public TimeTreeStatistics(GraphDatabaseService database, Random random) {
+        this.database = database;
+        this.random = random;
+    }
+
+    /**
+     * Compute statistics of a time tree.
+     *
+     * @param root   root of the time tree.
+     * @param sample probability of visiting the children of an instant, greater than 0 and at most 1 (visit all).
+     * @return statistics for each resolution present in the tree, from the coarsest to the finest.
+     */
+    public List<LevelStatistics> compute(Node root, double sample) {
+        if (sample <= 0 || sample > 1) {
+            throw new IllegalArgumentException("Sample must be greater than 0 and at most 1");
+        }
+
+        List<LevelStatistics> levels = new ArrayList<>();
+
+        try (Transaction tx = database.beginTx()) {
+            Node firstParent = root;
+            for (int depth = 0; depth < Resolution.values().length && firstParent != null; depth++) {
+                LevelStatistics level = new LevelStatistics(Resolution.values()[depth]);
+                double weight = depth == 0 ? 1.0 : 1.0 / sample;
+                Node firstChild = null;
+
+                for (Node parent = firstParent; parent != null; parent = depth == 0 ? null : next(parent)) {
+                    Relationship firstRelationship = parent.getSingleRelationship(FIRST, OUTGOING);
+                    if (firstRelationship == null) {
+                        continue;
+                    }
+
+                    if (firstChild == null) {
+                        firstChild = firstRelationship.getEndNode();
+                    }
+
+                    if (depth == 0 || sample >= 1 || random.nextDouble() < sample) {
+                        visitChildren(parent, firstRelationship.getEndNode(), weight, level);
+                    }
+                }
+
+                if (firstChild != null) {
+                    levels.add(level);
+                }
+                firstParent = firstChild;
+            }
+
+            tx.success();
+        }
+
+        return levels;
+    }
+
+    private void visitChildren(Node parent, Node first, double weight, LevelStatistics level) {
+        Relationship lastRelationship = parent.getSingleRelationship(LAST, OUTGOING);
+        if (lastRelationship == null) {
+            throw new IllegalStateException(parent + " has a " + FIRST + " relationship, but no " + LAST + " one");
+        }
+
+        long lastId = lastRelationship.getEndNode().getId();
+        Node child = first;
+        long siblings = 0;
+
+        while (true) {
+            siblings++;
+            level.instantVisited(weight, eventDegree(child));
+
+            if (child.getId() == lastId) {
+                break;
+            }
+
+            child = next(child);
+            if (child == null) {
+                throw new IllegalStateException("A child of " + parent + " has no " + NEXT + " relationship, but is not its last child");
+            }
+        }
+
+        level.siblingChain(siblings);
+    }
+
+    private static Node next(Node instant) {
+        Relationship next = instant.getSingleRelationship(NEXT, OUTGOING);
+        return next == null ? null : next.getEndNode();
+    }
+
+    private long eventDegree(Node node) {
+        long degree = node.getDegree();
+
+        for (TimeTreeRelationshipTypes type : TimeTreeRelationshipTypes.values()) {
+            degree -= node.getDegree(type);
+        }
+
+        for (Relationship bucket : node.getRelationships(OUTGOING, BUCKET)) {
+            degree += eventDegree(bucket.getEndNode());
+        }
+
+        return degree;
+    }
+
+    /**
+     * Statistics of a single level (resolution) of a time tree.
+     */
+    public static class LevelStatistics {
+
+        private final Resolution resolution;
+        private final Histogram eventsPerInstant = new Histogram();
+        private double estimatedInstants;
+        private double estimatedEvents;
+        private long maxSiblingChain;
+
+        LevelStatistics(Resolution resolution) {
+            this.resolution = resolution;
+        }
+
+        void instantVisited(double weight, long events) {
+            estimatedInstants += weight;
+            estimatedEvents += weight * events;
+            eventsPerInstant.record(events);
+        }
+
+        void siblingChain(long length) {
+            maxSiblingChain = Math.max(maxSiblingChain, length);
+        }
+
+        public Resolution getResolution() {
+            return resolution;
+        }
+
+        /**
+         * @return number of instants at this level, estimated if sampled.
+         */
+        public long getInstants() {
+            return Math.round(estimatedInstants);
+        }
+
+        /**
+         * @return number of instants at this level that have actually been visited.
+         */
+        public long getVisitedInstants() {
+            return eventsPerInstant.getCount();
+        }
+
+        /**
+         * @return length of the longest chain of siblings (children of the same parent) visited at this level.
+         */
+        public long getMaxSiblingChain() {
+            return maxSiblingChain;
+        }
+
+        /**
+         * @return number of events attached to instants at this level, estimated if sampled.
+         */
+        public long getEvents() {
+            return Math.round(estimatedEvents);
+        }
+
+        /**
+         * @return distribution of the number of events attached to visited instants at this level.
+         */
+        public Histogram getEventsPerInstant() {
+            return eventsPerInstant;
+        }
+    }
+}
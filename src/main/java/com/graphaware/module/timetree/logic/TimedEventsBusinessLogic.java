@@ -15,26 +15,40 @@
  */
 package com.graphaware.module.timetree.logic;
 
-import com.graphaware.module.timetree.CustomRootTimeTree;
+import com.graphaware.module.timetree.ShutdownHandler;
+import com.graphaware.module.timetree.TimeTree;
 import com.graphaware.module.timetree.TimeTreeBackedEvents;
+import com.graphaware.module.timetree.TimeTreeRegistry;
 import com.graphaware.module.timetree.TimedEvents;
 import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.EventTimestamp;
 import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.domain.TimedEvent;
+import com.graphaware.module.timetree.module.NamedThreadFactory;
 import org.neo4j.graphdb.*;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class TimedEventsBusinessLogic {
 
+    /**
+     * Maximum time to wait for the events of a single root when reading events across several roots. A root's read
+     * can be blocked indefinitely by a lock held by the calling transaction, e.g. when an event has been attached to
+     * that root earlier in the same transaction.
+     */
+    public static final long FAN_OUT_TIMEOUT_SECONDS = 60;
+
+    private static final Map<GraphDatabaseService, ExecutorService> FAN_OUT_EXECUTORS = new ConcurrentHashMap<>();
+
     private final GraphDatabaseService database;
     private final TimedEvents timedEvents;
+    private final TimeTreeRegistry registry;
 
     public TimedEventsBusinessLogic(GraphDatabaseService database, TimedEvents timedEvents) {
         this.database = database;
         this.timedEvents = timedEvents;
+        this.registry = TimeTreeRegistry.forDatabase(database);
     }
 
     public List<Event> getEvents(long time, String resolution, String timezone, Collection<String> relationshipTypes, String direction) {
@@ -62,7 +76,7 @@ public class TimedEventsBusinessLogic {
       TimeInstant timeInstant = TimeInstant.createInstant(time, resolution, timezone);
       List<Event> events;
       try (Transaction tx = database.beginTx()) {
-          CustomRootTimeTree timeTree = new CustomRootTimeTree(database.getNodeById(rootNodeId));
+          TimeTree timeTree = registry.get(rootNodeId);
           events = new TimeTreeBackedEvents(timeTree).getEvents(timeInstant, getRelationshipTypes(relationshipTypes), resolveDirection(direction));
           tx.success();
       }
@@ -74,13 +88,157 @@ public class TimedEventsBusinessLogic {
       TimeInstant endTimeInstant = TimeInstant.createInstant(endTime, resolution, timezone);
       List<Event> events;
       try (Transaction tx = database.beginTx()) {
-          CustomRootTimeTree timeTree = new CustomRootTimeTree(database.getNodeById(rootNodeId));
+          TimeTree timeTree = registry.get(rootNodeId);
           events = new TimeTreeBackedEvents(timeTree).getEvents(startTimeInstant, endTimeInstant, getRelationshipTypes(relationshipTypes), resolveDirection(direction));
           tx.success();
       }
         return events;
     }
     
+    /**
+     * Get events attached to a number of time trees with custom roots within a time range, ordered by time. The trees
+     * are read concurrently on a bounded pool shared by all callers of the database, each in its own read transaction,
+     * and their events are merged by time. Events of the same time are returned in the order of the roots. With a
+     * limit, no more than that many events are merged from each tree. The trees are read without taking any locks.
+     * <p>
+     * The read transactions are begun by the threads of the pool, so they don't run in the security context of the
+     * caller, nor do they see the caller's uncommitted changes.
+     *
+     * @param rootNodeIds       IDs of the roots of the trees to read.
+     * @param startTime         start of the range.
+     * @param endTime           end of the range.
+     * @param resolution        resolution of the range, can be null for default.
+     * @param timezone          timezone, can be null for default.
+     * @param relationshipTypes of the events, can be null for all.
+     * @param direction         of the relationships from the instants to the events, can be null for default.
+     * @param timestamp         where to read the time of each event from.
+     * @param limit             maximum number of events to return, non-positive for no limit.
+     * @return events ordered by time.
+     */
+    public List<TimedEvent> getEventsCustomRoots(List<Long> rootNodeIds, long startTime, long endTime, String resolution, String timezone, Collection<String> relationshipTypes, String direction, EventTimestamp timestamp, int limit) {
+        TimeInstant startTimeInstant = TimeInstant.createInstant(startTime, resolution, timezone);
+        TimeInstant endTimeInstant = TimeInstant.createInstant(endTime, resolution, timezone);
+        Set<RelationshipType> types = getRelationshipTypes(relationshipTypes);
+        Direction resolvedDirection = resolveDirection(direction);
+
+        ExecutorService executor = fanOutExecutor(database);
+        List<Future<List<TimedEvent>>> futures = new ArrayList<>(rootNodeIds.size());
+        for (long rootNodeId : rootNodeIds) {
+            futures.add(executor.submit(() -> getTimedEvents(rootNodeId, startTimeInstant, endTimeInstant, types, resolvedDirection, timestamp, limit)));
+        }
+
+        List<Iterator<TimedEvent>> iterators = new ArrayList<>(futures.size());
+        try {
+            for (Future<List<TimedEvent>> future : futures) {
+                iterators.add(future.get(FAN_OUT_TIMEOUT_SECONDS, TimeUnit.SECONDS).iterator());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading events", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Reading events of a root took longer than " + FAN_OUT_TIMEOUT_SECONDS + "s", e);
+        } finally {
+            for (Future<List<TimedEvent>> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        List<TimedEvent> result = new ArrayList<>();
+        Iterator<TimedEvent> merged = new MergingIterator<>(iterators, Comparator.comparingLong(TimedEvent::getTime));
+        while (merged.hasNext() && (limit <= 0 || result.size() < limit)) {
+            result.add(merged.next());
+        }
+        return result;
+    }
+
+    private List<TimedEvent> getTimedEvents(long rootNodeId, TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types, Direction direction, EventTimestamp timestamp, int limit) {
+        List<TimedEvent> result;
+
+        try (Transaction tx = database.beginTx()) {
+            Node root = database.getNodeById(rootNodeId);
+            List<TimedEvent> events = new TimeTreeBackedEvents(registry.get(root)).getEventsChronologically(startTime, endTime, types, direction, timestamp, limit);
+
+            result = new ArrayList<>(events.size());
+            for (TimedEvent event : events) {
+                result.add(new TimedEvent(event.getEvent(), root, event.getTime()));
+            }
+
+            tx.success();
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the pool reading the roots of a database concurrently, creating it if needed. It is shut down with the
+     * database.
+     *
+     * @param database to get the pool for.
+     * @return pool.
+     */
+    private static ExecutorService fanOutExecutor(GraphDatabaseService database) {
+        return FAN_OUT_EXECUTORS.computeIfAbsent(database, db -> {
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new NamedThreadFactory("TimeTree-FanOut"));
+            db.registerKernelEventHandler(new ShutdownHandler(() -> {
+                FAN_OUT_EXECUTORS.remove(db);
+                executor.shutdownNow();
+            }));
+            return executor;
+        });
+    }
+
+    /**
+     * Get events attached to the default time tree, or a time tree with a custom root, within a time range, in
+     * chronological order of the events' own times.
+     *
+     * @param rootNodeId        ID of the custom root, null for the default time tree.
+     * @param startTime         start of the range.
+     * @param endTime           end of the range.
+     * @param resolution        resolution of the range, can be null for default.
+     * @param timezone          timezone, can be null for default.
+     * @param relationshipTypes of the events, can be null for all.
+     * @param direction         of the relationships from the instants to the events, can be null for default.
+     * @param timestamp         where to read the time of each event from.
+     * @return events ordered by time.
+     */
+    public List<TimedEvent> getEventsChronologically(Long rootNodeId, long startTime, long endTime, String resolution, String timezone, Collection<String> relationshipTypes, String direction, EventTimestamp timestamp) {
+        TimeInstant startTimeInstant = TimeInstant.createInstant(startTime, resolution, timezone);
+        TimeInstant endTimeInstant = TimeInstant.createInstant(endTime, resolution, timezone);
+        List<TimedEvent> events;
+        try (Transaction tx = database.beginTx()) {
+            TimedEvents source = rootNodeId == null ? timedEvents : new TimeTreeBackedEvents(registry.get(rootNodeId));
+            events = source.getEventsChronologically(startTimeInstant, endTimeInstant, getRelationshipTypes(relationshipTypes), resolveDirection(direction), timestamp);
+            tx.success();
+        }
+        return events;
+    }
+
+    /**
+     * Resolve where to read the time of events from.
+     *
+     * @param nodeProperty         name of the event node property holding the time, can be null.
+     * @param relationshipProperty name of the relationship property holding the time, can be null.
+     * @return timestamp; the start of the time instants if neither property is given.
+     * @throws IllegalArgumentException if both properties are given.
+     */
+    public static EventTimestamp resolveTimestamp(String nodeProperty, String relationshipProperty) {
+        if (nodeProperty != null && relationshipProperty != null) {
+            throw new IllegalArgumentException("Only one of node and relationship timestamp properties can be specified");
+        }
+
+        if (nodeProperty != null) {
+            return EventTimestamp.nodeProperty(nodeProperty);
+        }
+
+        if (relationshipProperty != null) {
+            return EventTimestamp.relationshipProperty(relationshipProperty);
+        }
+
+        return EventTimestamp.instant();
+    }
+
     public boolean attachEvent(Node eventNode, 
             RelationshipType relationshipType, 
             String direction, 
@@ -109,7 +267,7 @@ public class TimedEventsBusinessLogic {
 
         boolean attached;
         try (Transaction tx = database.beginTx()) {
-            CustomRootTimeTree timeTree = new CustomRootTimeTree(root);
+            TimeTree timeTree = RetryingTimeTrees.retrying(database, registry.get(root));
             TimedEvents customTimedEvents = new TimeTreeBackedEvents(timeTree);
             attached = customTimedEvents.attachEvent(
                     eventNode,
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trace of a single operation, obtained from {@link SlowOperationLog#start(String)}. An operation consists of named
+ * phases; time is accounted to the current phase until another one is entered, so phases can be re-entered and their
+ * times add up. A trace is used by a single thread.
+ */
+public class OperationTrace {
+
+    static final OperationTrace NOOP = new OperationTrace(null, -1);
+
+    private final String operation;
+    private final long thresholdNanos;
+    private final long start;
+    private final Map<String, Object> parameters = new LinkedHashMap<>();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    private String phase;
+    private long phaseStart;
+    private long instantsVisited;
+    private long relationshipsExpanded;
+    private long eventsReturned;
+
+    OperationTrace(String operation, long thresholdNanos) {
+        this.operation = operation;
+        this.thresholdNanos = thresholdNanos;
+        this.start = thresholdNanos < 0 ? 0 : System.nanoTime();
+        this.phaseStart = start;
+    }
+
+    /**
+     * @return <code>true</code> iff this operation is being traced.
+     */
+    public boolean isTraced() {
+        return thresholdNanos >= 0;
+    }
+
+    /**
+     * Record a parameter of the operation.
+     *
+     * @param name  of the parameter.
+     * @param value of the parameter.
+     * @return this trace.
+     */
+    public OperationTrace parameter(String name, Object value) {
+        if (isTraced()) {
+            parameters.put(name, value);
+        }
+        return this;
+    }
+
+    /**
+     * Enter a phase of the operation, ending the current one.
+     *
+     * @param name of the phase.
+     */
+    public void phase(String name) {
+        if (!isTraced()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        endPhase(now);
+        phase = name;
+        phaseStart = now;
+    }
+
+    /**
+     * Record a time instant visited by the operation.
+     */
+    public void instantVisited() {
+        if (isTraced()) {
+            instantsVisited++;
+        }
+    }
+
+    /**
+     * Record relationships expanded by the operation.
+     *
+     * @param count number of relationships.
+     */
+    public void relationshipsExpanded(int count) {
+        if (isTraced()) {
+            relationshipsExpanded += count;
+        }
+    }
+
+    /**
+     * Record events returned by the operation.
+     *
+     * @param count number of events.
+     */
+    public void eventsReturned(int count) {
+        if (isTraced()) {
+            eventsReturned += count;
+        }
+    }
+
+    /**
+     * Finish the operation and log it if it took longer than the threshold.
+     */
+    public void finish() {
+        if (!isTraced()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        endPhase(now);
+        phase = null;
+
+        long elapsed = now - start;
+        if (elapsed < thresholdNanos) {
+            return;
+        }
+
+        StringBuilder phaseTimes = new StringBuilder();
+        for (Map.Entry<String, Long> entry : phases.entrySet()) {
+            if (phaseTimes.length() > 0) {
+                phaseTimes.append(", ");
+            }
+            phaseTimes.append(entry.getKey()).append("=").append(TimeUnit.NANOSECONDS.toMicros(entry.getValue())).append("us");
+        }
+
+        SlowOperationLog.log("Slow time tree operation " + operation + " took " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms. " +
+                "Parameters: " + parameters + ", instants visited: " + instantsVisited + ", relationships expanded: " + relationshipsExpanded +
+                ", events returned: " + eventsReturned + ", phases: {" + phaseTimes + "}");
+    }
+
+    private void endPhase(long now) {
+        if (phase != null) {
+            phases.merge(phase, now - phaseStart, Long::sum);
+        }
+    }
+}
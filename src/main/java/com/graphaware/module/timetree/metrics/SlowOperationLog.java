@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.metrics;
+
+import com.graphaware.common.log.LoggerFactory;
+import org.neo4j.logging.Log;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in log of slow event operations. When enabled, a sample of operations is traced, i.e. the number of instants
+ * visited, relationships expanded, events returned and the time spent in each phase of the operation are recorded.
+ * Traced operations that take longer than a threshold are written to the Neo4j log with their parameters.
+ * <p>
+ * The log is JVM-wide and disabled by default. Operations that are not sampled get a no-op {@link OperationTrace},
+ * so leaving the log enabled with a low sampling rate is safe under load.
+ */
+public final class SlowOperationLog {
+
+    private static final Log LOG = LoggerFactory.getLogger(SlowOperationLog.class);
+
+    private static volatile long thresholdNanos = -1;
+    private static volatile double sampling = 1.0;
+
+    private SlowOperationLog() {
+    }
+
+    /**
+     * Enable the slow operation log.
+     *
+     * @param thresholdMillis duration (in ms) above which a traced operation is logged. Must not be negative.
+     * @param sampling        fraction of operations to trace, between 0 and 1.
+     */
+    public static void enable(long thresholdMillis, double sampling) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("Slow operation threshold must not be negative");
+        }
+
+        if (sampling < 0 || sampling > 1) {
+            throw new IllegalArgumentException("Slow operation sampling must be between 0 and 1");
+        }
+
+        SlowOperationLog.sampling = sampling;
+        SlowOperationLog.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Disable the slow operation log.
+     */
+    public static void disable() {
+        thresholdNanos = -1;
+    }
+
+    /**
+     * @return <code>true</code> iff the slow operation log is enabled.
+     */
+    public static boolean isEnabled() {
+        return thresholdNanos >= 0;
+    }
+
+    /**
+     * Start tracing an operation.
+     *
+     * @param operation name of the operation, e.g. "getEvents".
+     * @return trace of the operation, which must be {@link OperationTrace#finish() finished} when the operation is
+     * done. A no-op trace when the log is disabled or the operation is not sampled.
+     */
+    public static OperationTrace start(String operation) {
+        long threshold = thresholdNanos;
+
+        if (threshold < 0 || (sampling < 1 && ThreadLocalRandom.current().nextDouble() >= sampling)) {
+            return OperationTrace.NOOP;
+        }
+
+        return new OperationTrace(operation, threshold);
+    }
+
+    static void log(String message) {
+        LOG.warn(message);
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.metrics;
+
+import com.graphaware.common.log.LoggerFactory;
+import org.neo4j.logging.Log;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the time tree hot paths: descents from the root to an instant, steps taken along
+ * {@link com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes#NEXT} chains when looking for a child,
+ * instant nodes created, waiting for the lock of a time tree root, event attachment and event retrieval.
+ * <p>
+ * Metrics are JVM-wide, i.e. shared by all time trees and databases in the JVM. They are backed by striped counters
+ * ({@link LongAdder}) so that recording them does not introduce contention between threads. They are exposed over JMX
+ * under {@link #OBJECT_NAME} and via the <code>ga.timetree.metrics()</code> procedure.
+ */
+public final class TimeTreeMetrics {
+
+    private static final Log LOG = LoggerFactory.getLogger(TimeTreeMetrics.class);
+
+    public static final String OBJECT_NAME = "com.graphaware.module.timetree:type=Metrics";
+
+    private static final TimeTreeMetrics INSTANCE = new TimeTreeMetrics();
+
+    static {
+        registerMBean(INSTANCE);
+    }
+
+    private final LongAdder descents = new LongAdder();
+    private final LongAdder siblingSteps = new LongAdder();
+    private final LongAdder nodesCreated = new LongAdder();
+    private final LongAdder eventsAttached = new LongAdder();
+    private final LongAdder eventsReturned = new LongAdder();
+    private final LongAdder insertConflicts = new LongAdder();
+    private final LongAdder transientFailureRetries = new LongAdder();
+    private final LongAdder transientFailureGiveUps = new LongAdder();
+    private final LongAdder asyncEventsAttached = new LongAdder();
+    private final LongAdder asyncEventsFailed = new LongAdder();
+    private final LongAdder asyncEventsDropped = new LongAdder();
+
+    private final Histogram rootLockWait = new Histogram();
+    private final Histogram instantLookup = new Histogram();
+    private final Histogram instantCreation = new Histogram();
+    private final Histogram eventAttachment = new Histogram();
+    private final Histogram eventRetrieval = new Histogram();
+    private final Histogram eventsPerRetrieval = new Histogram();
+    private final Histogram asyncBatchLag = new Histogram();
+
+    private TimeTreeMetrics() {
+    }
+
+    /**
+     * @return the JVM-wide metrics.
+     */
+    public static TimeTreeMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record a single descent from a time tree root towards an instant.
+     */
+    public void descent() {
+        descents.increment();
+    }
+
+    /**
+     * Record a single step along a chain of siblings connected by NEXT relationships.
+     */
+    public void siblingStep() {
+        siblingSteps.increment();
+    }
+
+    /**
+     * Record the creation of a time instant node.
+     */
+    public void nodeCreated() {
+        nodesCreated.increment();
+    }
+
+    /**
+     * Record an optimistic insertion of an instant that had to be retried, because another transaction changed the
+     * affected part of the tree before the locks were taken.
+     */
+    public void insertConflict() {
+        insertConflicts.increment();
+    }
+
+    /**
+     * Record a retry of a transaction creating an instant, after it failed transiently.
+     */
+    public void transientFailureRetried() {
+        transientFailureRetries.increment();
+    }
+
+    /**
+     * Record a transaction creating an instant that failed transiently and has run out of retries.
+     */
+    public void transientFailureGaveUp() {
+        transientFailureGiveUps.increment();
+    }
+
+    /**
+     * Record events attached to the time tree asynchronously, after the transaction that created them committed.
+     *
+     * @param events number of events attached.
+     */
+    public void asyncEventsAttached(int events) {
+        asyncEventsAttached.add(events);
+    }
+
+    /**
+     * Record an event that was queued for asynchronous attachment, but could not be attached.
+     */
+    public void asyncEventFailed() {
+        asyncEventsFailed.increment();
+    }
+
+    /**
+     * Record an event that could not be queued for asynchronous attachment, because the queue of its tree was full.
+     */
+    public void asyncEventDropped() {
+        asyncEventsDropped.increment();
+    }
+
+    /**
+     * Record the age of the oldest event in a batch of asynchronously attached events, at the time the batch was written.
+     *
+     * @param millis age of the oldest event.
+     */
+    public void asyncBatchWritten(long millis) {
+        asyncBatchLag.record(millis);
+    }
+
+    /**
+     * Record the time spent waiting for the write lock of a time tree root.
+     *
+     * @param nanos time waited.
+     */
+    public void rootLockAcquired(long nanos) {
+        rootLockWait.record(nanos);
+    }
+
+    /**
+     * Record a read-only lookup of a time instant.
+     *
+     * @param nanos duration of the lookup.
+     */
+    public void instantLookedUp(long nanos) {
+        instantLookup.record(nanos);
+    }
+
+    /**
+     * Record a lookup of a time instant that creates it when missing.
+     *
+     * @param nanos duration of the lookup, including creation.
+     */
+    public void instantCreatedOrLookedUp(long nanos) {
+        instantCreation.record(nanos);
+    }
+
+    /**
+     * Record an attempt to attach an event to a time instant.
+     *
+     * @param attached whether the event has been attached, i.e. wasn't attached already.
+     * @param nanos    duration of the attempt.
+     */
+    public void eventAttached(boolean attached, long nanos) {
+        if (attached) {
+            eventsAttached.increment();
+        }
+        eventAttachment.record(nanos);
+    }
+
+    /**
+     * Record a retrieval of events.
+     *
+     * @param events number of events returned.
+     * @param nanos  duration of the retrieval.
+     */
+    public void eventsRetrieved(int events, long nanos) {
+        eventsReturned.add(events);
+        eventsPerRetrieval.record(events);
+        eventRetrieval.record(nanos);
+    }
+
+    /**
+     * Take a snapshot of all metrics. Latencies are in nanoseconds, the lag of asynchronous batches is in milliseconds.
+     *
+     * @return metric names mapped to their current values, in a stable order.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> result = new LinkedHashMap<>();
+
+        result.put("descents", descents.sum());
+        result.put("siblingSteps", siblingSteps.sum());
+        result.put("nodesCreated", nodesCreated.sum());
+        result.put("eventsAttached", eventsAttached.sum());
+        result.put("eventsReturned", eventsReturned.sum());
+        result.put("insertConflicts", insertConflicts.sum());
+        result.put("transientFailureRetries", transientFailureRetries.sum());
+        result.put("transientFailureGiveUps", transientFailureGiveUps.sum());
+        result.put("asyncEventsAttached", asyncEventsAttached.sum());
+        result.put("asyncEventsFailed", asyncEventsFailed.sum());
+        result.put("asyncEventsDropped", asyncEventsDropped.sum());
+
+        addHistogram(result, "rootLockWait", rootLockWait);
+        addHistogram(result, "instantLookup", instantLookup);
+        addHistogram(result, "instantCreation", instantCreation);
+        addHistogram(result, "eventAttachment", eventAttachment);
+        addHistogram(result, "eventRetrieval", eventRetrieval);
+        addHistogram(result, "eventsPerRetrieval", eventsPerRetrieval);
+        addHistogram(result, "asyncBatchLag", asyncBatchLag);
+
+        return result;
+    }
+
+    /**
+     * Reset all metrics to zero.
+     */
+    public void reset() {
+        descents.reset();
+        siblingSteps.reset();
+        nodesCreated.reset();
+        eventsAttached.reset();
+        eventsReturned.reset();
+        insertConflicts.reset();
+        transientFailureRetries.reset();
+        transientFailureGiveUps.reset();
+        asyncEventsAttached.reset();
+        asyncEventsFailed.reset();
+        asyncEventsDropped.reset();
+
+        rootLockWait.reset();
+        instantLookup.reset();
+        instantCreation.reset();
+        eventAttachment.reset();
+        eventRetrieval.reset();
+        eventsPerRetrieval.reset();
+        asyncBatchLag.reset();
+    }
+
+    private static void addHistogram(Map<String, Long> result, String name, Histogram histogram) {
+        result.put(name + ".count", histogram.getCount());
+        result.put(name + ".mean", histogram.getMean());
+        result.put(name + ".p50", histogram.getPercentile(50));
+        result.put(name + ".p99", histogram.getPercentile(99));
+        result.put(name + ".max", histogram.getMax());
+    }
+
+    private static void registerMBean(TimeTreeMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new TimeTreeMetricsMBean(metrics), name);
+            }
+        } catch (Exception e) {
+            LOG.warn("Could not register time tree metrics with JMX", e);
+        }
+    }
+}
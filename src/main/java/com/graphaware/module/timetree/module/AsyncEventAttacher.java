@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.module;
+
+import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.module.timetree.metrics.TimeTreeMetrics;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Attaches events to the time tree asynchronously, after the transactions that created them have committed.
+ * <p>
+ * Events are queued per time tree root. Each queue is drained by a background thread in batches sorted by timestamp,
+ * one batch (i.e. one transaction) at a time, so there is only ever a single writer per tree and business transactions
+ * never take time tree locks. The price is that the tree lags behind the events by up to the configured delay plus the
+ * time it takes to write a batch. The lag and the number of queued events can be observed using {@link #getLag()}
+ * and {@link #getQueueDepth()}.
+ * <p>
+ * Queued events are only held in memory. Events of transactions that committed shortly before the database crashed or
+ * was killed, as well as events that did not fit into a full queue, are not attached by the attacher. They can be
+ * queued again by {@link TimeTreeModule#queueUnattachedEvents()}, which the module does on start.
+ */
+class AsyncEventAttacher {
+
+    private static final Log LOG = LoggerFactory.getLogger(AsyncEventAttacher.class);
+    private static final TimeTreeMetrics METRICS = TimeTreeMetrics.getInstance();
+
+    static final long DEFAULT_ROOT = -1;
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int QUEUE_CAPACITY = 100_000;
+    private static final long ENQUEUE_TIMEOUT = 100;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final GraphDatabaseService database;
+    private final long delay;
+    private final Consumer<Node> attacher;
+    private final ScheduledExecutorService executor;
+    private final ConcurrentMap<Long, RootQueue> queues = new ConcurrentHashMap<>();
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * Create a new attacher.
+     *
+     * @param database to attach events in.
+     * @param delay    maximum time in ms, for which events are buffered before being written.
+     * @param attacher performing the actual attachment of a single event node, within a transaction.
+     */
+    AsyncEventAttacher(GraphDatabaseService database, long delay, Consumer<Node> attacher) {
+        this.database = database;
+        this.delay = delay;
+        this.attacher = attacher;
+        this.executor = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), new NamedThreadFactory("TimeTree-AsyncAttacher"));
+    }
+
+    /**
+     * Queue the events of a committed transaction for attachment. When the queue of a tree is full, waits for the
+     * background writer to catch up for no longer than {@link #ENQUEUE_TIMEOUT} ms in total, so as not to hold up the
+     * committing thread, and drops the events that don't fit in by then.
+     *
+     * @param events to queue.
+     */
+    void enqueue(Collection<PendingEvent> events) {
+        long deadline = System.currentTimeMillis() + ENQUEUE_TIMEOUT;
+        int dropped = 0;
+
+        for (PendingEvent event : events) {
+            try {
+                if (!enqueue(event, Math.max(0, deadline - System.currentTimeMillis()))) {
+                    METRICS.asyncEventDropped();
+                    dropped++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted while queueing event " + event.getNodeId() + " for attachment, it will not be attached to the time tree");
+                METRICS.asyncEventFailed();
+                return;
+            }
+        }
+
+        if (dropped > 0) {
+            LOG.warn(dropped + " events could not be queued for attachment to the time tree, because the queue is full");
+        }
+    }
+
+    /**
+     * Queue an event for attachment, waiting for space in the queue of its tree if needed.
+     *
+     * @param event   to queue.
+     * @param timeout maximum time to wait in ms.
+     * @return true iff the event has been queued.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    boolean enqueue(PendingEvent event, long timeout) throws InterruptedException {
+        return queues.computeIfAbsent(event.getRootId(), rootId -> new RootQueue()).add(event, timeout);
+    }
+
+    /**
+     * Get the number of events waiting to be attached.
+     *
+     * @return queue depth.
+     */
+    long getQueueDepth() {
+        long result = 0;
+        for (RootQueue queue : queues.values()) {
+            result += queue.size();
+        }
+        return result;
+    }
+
+    /**
+     * Get the age of the oldest event waiting to be attached.
+     *
+     * @return lag in ms, 0 if there are no events waiting.
+     */
+    long getLag() {
+        long now = System.currentTimeMillis();
+        long result = 0;
+        for (RootQueue queue : queues.values()) {
+            long oldest = queue.oldest();
+            if (oldest > 0) {
+                result = Math.max(result, now - oldest);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stop the background writers and attach all remaining events in the calling thread.
+     */
+    void shutdown() {
+        shutdown = true;
+        executor.shutdown();
+
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Asynchronous event attachment did not finish within " + SHUTDOWN_TIMEOUT_SECONDS + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (RootQueue queue : queues.values()) {
+            queue.drain();
+        }
+    }
+
+    private void writeBatch(List<PendingEvent> batch) {
+        batch.sort(Comparator.comparingLong(PendingEvent::getTimestamp));
+
+        long oldest = Long.MAX_VALUE;
+        for (PendingEvent event : batch) {
+            oldest = Math.min(oldest, event.getCreated());
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            for (PendingEvent event : batch) {
+                attach(event);
+            }
+            tx.success();
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to attach a batch of " + batch.size() + " events, attaching them one by one", e);
+            writeOneByOne(batch);
+            return;
+        } finally {
+            METRICS.asyncBatchWritten(System.currentTimeMillis() - oldest);
+        }
+
+        METRICS.asyncEventsAttached(batch.size());
+    }
+
+    private void writeOneByOne(List<PendingEvent> batch) {
+        for (PendingEvent event : batch) {
+            try (Transaction tx = database.beginTx()) {
+                attach(event);
+                tx.success();
+            } catch (RuntimeException e) {
+                LOG.error("Failed to attach event " + event.getNodeId() + " to the time tree", e);
+                METRICS.asyncEventFailed();
+                continue;
+            }
+            METRICS.asyncEventsAttached(1);
+        }
+    }
+
+    private void attach(PendingEvent event) {
+        Node node;
+        try {
+            node = database.getNodeById(event.getNodeId());
+        } catch (NotFoundException e) {
+            LOG.debug("Event " + event.getNodeId() + " has been deleted before it could be attached to the time tree");
+            return;
+        }
+
+        attacher.accept(node);
+    }
+
+    /**
+     * Queue of events for a single time tree root. At most one drain of the queue is scheduled or running at any time.
+     */
+    private class RootQueue implements Runnable {
+
+        private final BlockingQueue<PendingEvent> pending = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        boolean add(PendingEvent event, long timeout) throws InterruptedException {
+            if (!pending.offer(event, timeout, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+
+            schedule(delay);
+            return true;
+        }
+
+        int size() {
+            return pending.size();
+        }
+
+        long oldest() {
+            PendingEvent head = pending.peek();
+            return head == null ? 0 : head.getCreated();
+        }
+
+        private void schedule(long delay) {
+            if (shutdown || !scheduled.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                drain();
+            } catch (RuntimeException e) {
+                LOG.error("Asynchronous event attachment failed", e);
+            } finally {
+                scheduled.set(false);
+            }
+
+            if (!pending.isEmpty()) {
+                schedule(0);
+            }
+        }
+
+        synchronized void drain() {
+            List<PendingEvent> batch = new ArrayList<>(BATCH_SIZE);
+            while (pending.drainTo(batch, BATCH_SIZE) > 0) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.module;
+
+/**
+ * An event waiting to be attached to the time tree by {@link AsyncEventAttacher}.
+ */
+public class PendingEvent {
+
+    private final long nodeId;
+    private final long timestamp;
+    private final long rootId;
+    private final long created;
+
+    /**
+     * Create a new pending event.
+     *
+     * @param nodeId    ID of the event node.
+     * @param timestamp of the event at the time it was queued. Only used for ordering, the event is attached according
+     *                  to the timestamp it has at the time it is written to the tree.
+     * @param rootId    ID of the custom time tree root the event belongs to, {@link AsyncEventAttacher#DEFAULT_ROOT} for
+     *                  the default tree.
+     */
+    PendingEvent(long nodeId, long timestamp, long rootId) {
+        this.nodeId = nodeId;
+        this.timestamp = timestamp;
+        this.rootId = rootId;
+        this.created = System.currentTimeMillis();
+    }
+
+    long getNodeId() {
+        return nodeId;
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    long getRootId() {
+        return rootId;
+    }
+
+    /**
+     * Get the time this event was queued.
+     *
+     * @return time in ms since epoch.
+     */
+    long getCreated() {
+        return created;
+    }
+}
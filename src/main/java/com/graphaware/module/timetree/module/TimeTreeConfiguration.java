@@ -18,6 +18,7 @@ package com.graphaware.module.timetree.module;
 import com.graphaware.common.policy.inclusion.InclusionPolicies;
 import com.graphaware.common.policy.inclusion.fluent.IncludeNodes;
 import com.graphaware.common.policy.inclusion.fluent.IncludeRelationships;
+import com.graphaware.module.timetree.TimeTreeRegistry;
 import com.graphaware.module.timetree.domain.Resolution;
 import com.graphaware.runtime.config.BaseTxDrivenModuleConfiguration;
 import com.graphaware.runtime.policy.InclusionPoliciesFactory;
@@ -42,6 +43,19 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
     private static final RelationshipType DEFAULT_RELATIONSHIP_TYPE = RelationshipType.withName("AT_TIME");
     private static final Direction DEFAULT_DIRECTION = Direction.INCOMING;
     private static final boolean DEFAULT_AUTO_ATTACH = false;
+    private static final int DEFAULT_EVENT_BUCKETS = 0;
+    private static final boolean DEFAULT_ASYNC_ATTACH = false;
+    private static final long DEFAULT_ASYNC_ATTACH_DELAY = 100;
+    private static final boolean DEFAULT_SINGLE_WRITER = false;
+    private static final int DEFAULT_PRE_CREATE_PERIODS = 0;
+    private static final long DEFAULT_SLOW_OPERATION_THRESHOLD = -1;
+    private static final double DEFAULT_SLOW_OPERATION_SAMPLING = 1.0;
+    private static final int DEFAULT_ROOT_CACHE_SIZE = TimeTreeRegistry.DEFAULT_CAPACITY;
+    private static final boolean DEFAULT_INSTANT_KEYS = false;
+    private static final boolean DEFAULT_SKIP_POINTERS = false;
+    private static final boolean DEFAULT_KERNEL_TRAVERSAL = false;
+    private static final boolean DEFAULT_OPTIMISTIC_CREATION = false;
+    private static final int DEFAULT_TRANSIENT_FAILURE_RETRIES = 0;
 
     private static final InclusionPolicies DEFAULT_INCLUSION_POLICIES =
             InclusionPoliciesFactory.allBusiness()
@@ -55,6 +69,19 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
     private final String relationshipType;
     private final Direction direction;
     private final boolean autoAttach;
+    private final int eventBuckets;
+    private final boolean asyncAttach;
+    private final long asyncAttachDelay;
+    private final boolean singleWriter;
+    private final int preCreatePeriods;
+    private final long slowOperationThreshold;
+    private final double slowOperationSampling;
+    private final int rootCacheSize;
+    private final boolean instantKeys;
+    private final boolean skipPointers;
+    private final boolean kernelTraversal;
+    private final boolean optimisticCreation;
+    private final int transientFailureRetries;
 
     /**
      * Create a new configuration.
@@ -73,8 +100,21 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @param relationshipType           with which the events are attached to the tree.
      * @param direction                  with which the events are attached to the tree (from the tree's point of view).
      * @param autoAttach                 <code>true</code> iff events should be automatically attached upon first module run and when config changes.
+     * @param eventBuckets               number of bucket nodes per time instant, over which attached events are spread. 0 for attaching events directly to instants.
+     * @param asyncAttach                <code>true</code> iff events should be attached asynchronously, after the transaction that created them has committed.
+     * @param asyncAttachDelay           maximum time in ms, for which events to be attached asynchronously are buffered before being written to the tree.
+     * @param singleWriter               <code>true</code> iff structural changes to time trees should be funnelled through a single writer per tree root.
+     * @param preCreatePeriods           number of periods (at the configured resolution) to pre-create in the default time tree ahead of time. 0 for no pre-creation.
+     * @param slowOperationThreshold     threshold (in ms) above which event operations are logged as slow. Negative for no slow operation logging.
+     * @param slowOperationSampling      fraction of event operations (between 0 and 1) traced by the slow operation log.
+     * @param rootCacheSize              maximum number of time trees with custom roots kept in the registry of the database.
+     * @param instantKeys                true for keying and indexing time instants, see {@link com.graphaware.module.timetree.InstantKeys}.
+     * @param skipPointers               true for linking Seconds and Milliseconds by skip pointers, see {@link com.graphaware.module.timetree.SkipPointers}.
+     * @param kernelTraversal            true for traversing the hot paths through the Kernel API, see {@link com.graphaware.module.timetree.KernelTraversal}.
+     * @param optimisticCreation         true for creating instants without locking the root, see {@link com.graphaware.module.timetree.OptimisticCreation}.
+     * @param transientFailureRetries    number of retries of instants created by procedures, see {@link com.graphaware.module.timetree.TransientFailureRetry}.
      */
-    protected TimeTreeConfiguration(InclusionPolicies inclusionPolicies, long initializeUntil, String timestampProperty, String customTimeTreeRootProperty, Resolution resolution, DateTimeZone timeZone, RelationshipType relationshipType, Direction direction, boolean autoAttach) {
+    protected TimeTreeConfiguration(InclusionPolicies inclusionPolicies, long initializeUntil, String timestampProperty, String customTimeTreeRootProperty, Resolution resolution, DateTimeZone timeZone, RelationshipType relationshipType, Direction direction, boolean autoAttach, int eventBuckets, boolean asyncAttach, long asyncAttachDelay, boolean singleWriter, int preCreatePeriods, long slowOperationThreshold, double slowOperationSampling, int rootCacheSize, boolean instantKeys, boolean skipPointers, boolean kernelTraversal, boolean optimisticCreation, int transientFailureRetries) {
         super(inclusionPolicies, initializeUntil);
         this.timestampProperty = timestampProperty;
         this.customTimeTreeRootProperty = customTimeTreeRootProperty;
@@ -83,6 +123,19 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
         this.relationshipType = relationshipType.name();
         this.direction = direction;
         this.autoAttach = autoAttach;
+        this.eventBuckets = eventBuckets;
+        this.asyncAttach = asyncAttach;
+        this.asyncAttachDelay = asyncAttachDelay;
+        this.singleWriter = singleWriter;
+        this.preCreatePeriods = preCreatePeriods;
+        this.slowOperationThreshold = slowOperationThreshold;
+        this.slowOperationSampling = slowOperationSampling;
+        this.rootCacheSize = rootCacheSize;
+        this.instantKeys = instantKeys;
+        this.skipPointers = skipPointers;
+        this.kernelTraversal = kernelTraversal;
+        this.optimisticCreation = optimisticCreation;
+        this.transientFailureRetries = transientFailureRetries;
     }
 
     /**
@@ -91,15 +144,16 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * default timestamp property = {@link #DEFAULT_TIMESTAMP_PROPERTY},
      * default customTimeTree root property = {@link #DEFAULT_CUSTOM_TIMETREE_ROOT_PROPERTY},
      * default resolution = {@link #DEFAULT_RESOLUTION},
-     * default time zone = {@link #DEFAULT_TIME_ZONE}, and
-     * default relationship type = {@link #DEFAULT_RELATIONSHIP_TYPE}
+     * default time zone = {@link #DEFAULT_TIME_ZONE},
+     * default relationship type = {@link #DEFAULT_RELATIONSHIP_TYPE}, and
+     * default event buckets = {@link #DEFAULT_EVENT_BUCKETS}
      * <p>
      * Change the configuration by using the fluent with* methods.
      *
      * @return default config.
      */
     public static TimeTreeConfiguration defaultConfiguration() {
-        return new TimeTreeConfiguration(DEFAULT_INCLUSION_POLICIES, ALWAYS, DEFAULT_TIMESTAMP_PROPERTY, DEFAULT_CUSTOM_TIMETREE_ROOT_PROPERTY, DEFAULT_RESOLUTION, DEFAULT_TIME_ZONE, DEFAULT_RELATIONSHIP_TYPE, DEFAULT_DIRECTION, DEFAULT_AUTO_ATTACH);
+        return new TimeTreeConfiguration(DEFAULT_INCLUSION_POLICIES, ALWAYS, DEFAULT_TIMESTAMP_PROPERTY, DEFAULT_CUSTOM_TIMETREE_ROOT_PROPERTY, DEFAULT_RESOLUTION, DEFAULT_TIME_ZONE, DEFAULT_RELATIONSHIP_TYPE, DEFAULT_DIRECTION, DEFAULT_AUTO_ATTACH, DEFAULT_EVENT_BUCKETS, DEFAULT_ASYNC_ATTACH, DEFAULT_ASYNC_ATTACH_DELAY, DEFAULT_SINGLE_WRITER, DEFAULT_PRE_CREATE_PERIODS, DEFAULT_SLOW_OPERATION_THRESHOLD, DEFAULT_SLOW_OPERATION_SAMPLING, DEFAULT_ROOT_CACHE_SIZE, DEFAULT_INSTANT_KEYS, DEFAULT_SKIP_POINTERS, DEFAULT_KERNEL_TRAVERSAL, DEFAULT_OPTIMISTIC_CREATION, DEFAULT_TRANSIENT_FAILURE_RETRIES);
     }
 
     /**
@@ -109,7 +163,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @return new instance.
      */
     public TimeTreeConfiguration withTimestampProperty(final String timestampProperty) {
-        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), timestampProperty, getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach());
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), timestampProperty, getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
     }
 
     /**
@@ -119,7 +173,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @return new instance
      */
     public TimeTreeConfiguration withCustomTimeTreeRootProperty(final String customTimeTreeRootProperty) {
-        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), customTimeTreeRootProperty, getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach());
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), customTimeTreeRootProperty, getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
     }
 
     /**
@@ -129,7 +183,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @return new instance.
      */
     public TimeTreeConfiguration withResolution(Resolution resolution) {
-        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), resolution, getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach());
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), resolution, getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
     }
 
     /**
@@ -139,7 +193,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @return new instance.
      */
     public TimeTreeConfiguration withTimeZone(DateTimeZone timeZone) {
-        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), timeZone, getRelationshipType(), getDirection(), isAutoAttach());
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), timeZone, getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
     }
 
     /**
@@ -149,7 +203,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @return new instance.
      */
     public TimeTreeConfiguration withRelationshipType(final RelationshipType relationshipType) {
-        return new TimeTreeConfiguration(getInclusionPolicies().with(IncludeRelationships.all().with(relationshipType)), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), relationshipType, getDirection(), isAutoAttach());
+        return new TimeTreeConfiguration(getInclusionPolicies().with(IncludeRelationships.all().with(relationshipType)), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), relationshipType, getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
     }
 
     /**
@@ -162,7 +216,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
         if (!Direction.INCOMING.equals(direction) && !Direction.OUTGOING.equals(direction)) {
             throw new IllegalArgumentException("Direction must be INCOMING or OUTGOING!");
         }
-        return new TimeTreeConfiguration(getInclusionPolicies().with(IncludeRelationships.all().with(relationshipType)), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), direction, isAutoAttach());
+        return new TimeTreeConfiguration(getInclusionPolicies().with(IncludeRelationships.all().with(relationshipType)), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), direction, isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
     }
 
     /**
@@ -172,7 +226,155 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @return new instance.
      */
     public TimeTreeConfiguration withAutoAttach(final boolean autoAttach) {
-        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), autoAttach);
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), autoAttach, getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with different number of event buckets.
+     *
+     * @param eventBuckets of the new instance. 0 for attaching events directly to time instants.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withEventBuckets(final int eventBuckets) {
+        if (eventBuckets < 0) {
+            throw new IllegalArgumentException("Number of event buckets must not be negative!");
+        }
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), eventBuckets, isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with different setting for asynchronous (write-behind) attachment of events.
+     *
+     * @param asyncAttach of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withAsyncAttach(final boolean asyncAttach) {
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), asyncAttach, getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with different maximum delay before asynchronously attached events are written.
+     *
+     * @param asyncAttachDelay of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withAsyncAttachDelay(final long asyncAttachDelay) {
+        if (asyncAttachDelay < 0) {
+            throw new IllegalArgumentException("Asynchronous attach delay must not be negative!");
+        }
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), asyncAttachDelay, isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with different setting for funnelling structural changes of time trees through a single writer per tree root.
+     *
+     * @param singleWriter of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withSingleWriter(final boolean singleWriter) {
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), singleWriter, getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with different number of periods (at the configured resolution) to pre-create in the default time tree ahead of time.
+     *
+     * @param preCreatePeriods of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withPreCreatePeriods(final int preCreatePeriods) {
+        if (preCreatePeriods < 0) {
+            throw new IllegalArgumentException("Number of periods to pre-create must not be negative!");
+        }
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), preCreatePeriods, getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with the given threshold (in ms) above which event operations are logged as slow.
+     *
+     * @param slowOperationThreshold of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withSlowOperationThreshold(final long slowOperationThreshold) {
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), slowOperationThreshold, getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with the given fraction of event operations traced by the slow operation log.
+     *
+     * @param slowOperationSampling of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withSlowOperationSampling(final double slowOperationSampling) {
+        if (slowOperationSampling < 0 || slowOperationSampling > 1) {
+            throw new IllegalArgumentException("Slow operation sampling must be between 0 and 1");
+        }
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), slowOperationSampling, getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with the given maximum number of cached time trees with custom roots.
+     *
+     * @param rootCacheSize of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withRootCacheSize(final int rootCacheSize) {
+        if (rootCacheSize < 1) {
+            throw new IllegalArgumentException("Root cache size must be positive");
+        }
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), rootCacheSize, isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with instant keys enabled or disabled.
+     *
+     * @param instantKeys of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withInstantKeys(final boolean instantKeys) {
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), instantKeys, isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with skip pointers on the sibling chains of Seconds and Milliseconds.
+     *
+     * @param skipPointers of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withSkipPointers(final boolean skipPointers) {
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), skipPointers, isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with the Kernel API traversal of the hot paths.
+     *
+     * @param kernelTraversal of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withKernelTraversal(final boolean kernelTraversal) {
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), kernelTraversal, isOptimisticCreation(), getTransientFailureRetries());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with optimistic creation of instants, locking only the nodes an insertion affects instead of the whole tree, switched on or off.
+     *
+     * @param optimisticCreation of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withOptimisticCreation(final boolean optimisticCreation) {
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), optimisticCreation, getTransientFailureRetries());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with different number of times instants created by procedures are retried in their own transaction after a transient failure, 0 for no retries.
+     *
+     * @param transientFailureRetries of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withTransientFailureRetries(final int transientFailureRetries) {
+        if (transientFailureRetries < 0) {
+            throw new IllegalArgumentException("Number of retries must not be negative!");
+        }
+        return new TimeTreeConfiguration(getInclusionPolicies(), initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), transientFailureRetries);
     }
 
     /**
@@ -182,7 +384,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
     protected TimeTreeConfiguration newInstance(InclusionPolicies inclusionPolicies, long initializeUntil) {
         return new TimeTreeConfiguration(inclusionPolicies
                 .with(IncludeRelationships.all().with(getRelationshipType())),
-                initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach());
+                initializeUntil(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), getDirection(), isAutoAttach(), getEventBuckets(), isAsyncAttach(), getAsyncAttachDelay(), isSingleWriter(), getPreCreatePeriods(), getSlowOperationThreshold(), getSlowOperationSampling(), getRootCacheSize(), isInstantKeys(), isSkipPointers(), isKernelTraversal(), isOptimisticCreation(), getTransientFailureRetries());
     }
 
     public String getTimestampProperty() {
@@ -213,6 +415,58 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
         return autoAttach;
     }
 
+    public int getEventBuckets() {
+        return eventBuckets;
+    }
+
+    public boolean isAsyncAttach() {
+        return asyncAttach;
+    }
+
+    public long getAsyncAttachDelay() {
+        return asyncAttachDelay;
+    }
+
+    public boolean isSingleWriter() {
+        return singleWriter;
+    }
+
+    public int getPreCreatePeriods() {
+        return preCreatePeriods;
+    }
+
+    public long getSlowOperationThreshold() {
+        return slowOperationThreshold;
+    }
+
+    public double getSlowOperationSampling() {
+        return slowOperationSampling;
+    }
+
+    public int getRootCacheSize() {
+        return rootCacheSize;
+    }
+
+    public boolean isInstantKeys() {
+        return instantKeys;
+    }
+
+    public boolean isSkipPointers() {
+        return skipPointers;
+    }
+
+    public boolean isKernelTraversal() {
+        return kernelTraversal;
+    }
+
+    public boolean isOptimisticCreation() {
+        return optimisticCreation;
+    }
+
+    public int getTransientFailureRetries() {
+        return transientFailureRetries;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -233,6 +487,9 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
         if (autoAttach != that.autoAttach) {
             return false;
         }
+        if (eventBuckets != that.eventBuckets) {
+            return false;
+        }
         if (!relationshipType.equals(that.relationshipType)) {
             return false;
         }
@@ -251,6 +508,42 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
         if (!customTimeTreeRootProperty.equals(that.customTimeTreeRootProperty)) {
             return false;
         }
+        if (asyncAttach != that.asyncAttach) {
+            return false;
+        }
+        if (asyncAttachDelay != that.asyncAttachDelay) {
+            return false;
+        }
+        if (singleWriter != that.singleWriter) {
+            return false;
+        }
+        if (preCreatePeriods != that.preCreatePeriods) {
+            return false;
+        }
+        if (slowOperationThreshold != that.slowOperationThreshold) {
+            return false;
+        }
+        if (Double.compare(slowOperationSampling, that.slowOperationSampling) != 0) {
+            return false;
+        }
+        if (rootCacheSize != that.rootCacheSize) {
+            return false;
+        }
+        if (instantKeys != that.instantKeys) {
+            return false;
+        }
+        if (skipPointers != that.skipPointers) {
+            return false;
+        }
+        if (kernelTraversal != that.kernelTraversal) {
+            return false;
+        }
+        if (optimisticCreation != that.optimisticCreation) {
+            return false;
+        }
+        if (transientFailureRetries != that.transientFailureRetries) {
+            return false;
+        }
 
         return true;
     }
@@ -268,6 +561,19 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
         result = 31 * result + relationshipType.hashCode();
         result = 31 * result + direction.name().hashCode();
         result = 31 * result + (autoAttach ? 1 : 0);
+        result = 31 * result + eventBuckets;
+        result = 31 * result + (asyncAttach ? 1 : 0);
+        result = 31 * result + (int) (asyncAttachDelay ^ (asyncAttachDelay >>> 32));
+        result = 31 * result + (singleWriter ? 1 : 0);
+        result = 31 * result + preCreatePeriods;
+        result = 31 * result + (int) (slowOperationThreshold ^ (slowOperationThreshold >>> 32));
+        result = 31 * result + Double.hashCode(slowOperationSampling);
+        result = 31 * result + rootCacheSize;
+        result = 31 * result + (instantKeys ? 1 : 0);
+        result = 31 * result + (skipPointers ? 1 : 0);
+        result = 31 * result + (kernelTraversal ? 1 : 0);
+        result = 31 * result + (optimisticCreation ? 1 : 0);
+        result = 31 * result + transientFailureRetries;
         return result;
     }
 }
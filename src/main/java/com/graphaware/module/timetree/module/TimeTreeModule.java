@@ -18,11 +18,20 @@ package com.graphaware.module.timetree.module;
 
 import com.graphaware.common.log.LoggerFactory;
 import com.graphaware.common.util.Change;
-import com.graphaware.module.timetree.CustomRootTimeTree;
+import com.graphaware.module.timetree.InstantKeys;
+import com.graphaware.module.timetree.KernelTraversal;
+import com.graphaware.module.timetree.OptimisticCreation;
 import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.SkipPointers;
+import com.graphaware.module.timetree.SingleWriterTimeTree;
+import com.graphaware.module.timetree.TimeTree;
 import com.graphaware.module.timetree.TimeTreeBackedEvents;
+import com.graphaware.module.timetree.TimeTreeRegistry;
+import com.graphaware.module.timetree.TimeTreeWriter;
 import com.graphaware.module.timetree.TimedEvents;
+import com.graphaware.module.timetree.TransientFailureRetry;
 import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.metrics.SlowOperationLog;
 import com.graphaware.runtime.config.TxDrivenModuleConfiguration;
 import com.graphaware.runtime.module.BaseTxDrivenModule;
 import com.graphaware.runtime.module.DeliberateTransactionRollbackException;
@@ -31,28 +40,128 @@ import com.graphaware.tx.executor.batch.IterableInputBatchTransactionExecutor;
 import com.graphaware.tx.executor.batch.UnitOfWork;
 import com.graphaware.tx.executor.input.TransactionalInput;
 import com.graphaware.tx.executor.single.TransactionCallback;
+import org.joda.time.chrono.ISOChronology;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.logging.Log;
 
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
 import static com.graphaware.common.util.EntityUtils.getLong;
 
 /**
  * A {@link com.graphaware.runtime.module.TxDrivenModule} that automatically attaches events to a {@link com.graphaware.module.timetree.TimeTree}.
+ * <p>
+ * Events are attached within the transaction that created them, unless asynchronous attachment is configured, in which
+ * case they are attached by an {@link AsyncEventAttacher} after the transaction has committed. As its queues are only
+ * held in memory, events that are not attached yet are queued again by a background job on start.
+ * <p>
+ * When single writer is configured (and events are attached synchronously), structural changes to each time tree are
+ * funnelled through a {@link TimeTreeWriter}. All instants needed by a transaction are then created by the writers
+ * before any event is attached, so that the writers never wait for locks held by the transaction. Otherwise, a
+ * transaction attaching events to several time trees locks their roots in the order of their IDs before attaching any.
+ * <p>
+ * When pre-creation is configured, a background job keeps the configured number of future periods (at the configured
+ * resolution) present in the default time tree, so that events arriving in a new period do not have to create it.
  */
-public class TimeTreeModule extends BaseTxDrivenModule<Void> {
+public class TimeTreeModule extends BaseTxDrivenModule<List<PendingEvent>> {
 
     private static final Log LOG = LoggerFactory.getLogger(TimeTreeModule.class);
 
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+    private static final long MIN_PRE_CREATE_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    private static final int KEY_MIGRATION_BATCH_SIZE = 1000;
+    private static final long MAX_PRE_CREATE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
     private final TimeTreeConfiguration configuration;
+    private final GraphDatabaseService database;
+    private final AsyncEventAttacher asyncAttacher;
+    private final ExecutorService writerExecutor;
+    private final ConcurrentMap<Long, SingleWriterTimeTree> singleWriterTrees = new ConcurrentHashMap<>();
+    private final TimeTree timeTree;
     private final TimedEvents timedEvents;
+    private ScheduledExecutorService preCreator;
+    private ExecutorService keyMigrator;
+    private ExecutorService catchUp;
 
     public TimeTreeModule(String moduleId, TimeTreeConfiguration configuration, GraphDatabaseService database) {
         super(moduleId);
         this.configuration = configuration;
-        this.timedEvents = new TimeTreeBackedEvents(new SingleTimeTree(database));
+        this.database = database;
+        this.asyncAttacher = configuration.isAsyncAttach() ? new AsyncEventAttacher(database, configuration.getAsyncAttachDelay(), this::createTimeTreeRelationship) : null;
+        this.writerExecutor = configuration.isSingleWriter() && !configuration.isAsyncAttach() ? Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new NamedThreadFactory("TimeTree-Writer")) : null;
+        this.timeTree = timeTree(AsyncEventAttacher.DEFAULT_ROOT);
+        this.timedEvents = new TimeTreeBackedEvents(timeTree, configuration.getEventBuckets());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start(GraphDatabaseService database) {
+        super.start(database);
+
+        TimeTreeRegistry.forDatabase(database).setCapacity(configuration.getRootCacheSize());
+
+        if (configuration.getSlowOperationThreshold() >= 0) {
+            SlowOperationLog.enable(configuration.getSlowOperationThreshold(), configuration.getSlowOperationSampling());
+        }
+
+        if (configuration.isInstantKeys()) {
+            InstantKeys instantKeys = InstantKeys.forDatabase(database);
+            instantKeys.enable();
+
+            keyMigrator = Executors.newSingleThreadExecutor(new NamedThreadFactory("TimeTree-KeyMigration"));
+            keyMigrator.submit(() -> {
+                try {
+                    instantKeys.populate(KEY_MIGRATION_BATCH_SIZE);
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to key existing time instants", e);
+                }
+            });
+        }
+
+        if (configuration.isSkipPointers()) {
+            SkipPointers.forDatabase(database).enable();
+        }
+
+        if (configuration.isKernelTraversal()) {
+            KernelTraversal.forDatabase(database).enable();
+        }
+
+        if (configuration.isOptimisticCreation()) {
+            OptimisticCreation.forDatabase(database).enable();
+        }
+
+        if (configuration.getTransientFailureRetries() > 0) {
+            TransientFailureRetry.forDatabase(database).enable(configuration.getTransientFailureRetries());
+        }
+
+        if (asyncAttacher != null) {
+            catchUp = Executors.newSingleThreadExecutor(new NamedThreadFactory("TimeTree-AsyncCatchUp"));
+            catchUp.submit(() -> {
+                try {
+                    queueUnattachedEvents();
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to queue unattached events for asynchronous attachment", e);
+                }
+            });
+        }
+
+        if (configuration.getPreCreatePeriods() > 0) {
+            long period = configuration.getResolution().getDateTimeFieldType().getDurationType().getField(ISOChronology.getInstanceUTC()).getUnitMillis();
+            long interval = Math.max(MIN_PRE_CREATE_INTERVAL, Math.min(MAX_PRE_CREATE_INTERVAL, period));
+
+            preCreator = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("TimeTree-PreCreator"));
+            preCreator.scheduleWithFixedDelay(this::preCreateInstants, 0, interval, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
@@ -67,19 +176,258 @@ public class TimeTreeModule extends BaseTxDrivenModule<Void> {
      * {@inheritDoc}
      */
     @Override
-    public Void beforeCommit(ImprovedTransactionData transactionData) throws DeliberateTransactionRollbackException {
-        for (Node created : transactionData.getAllCreatedNodes()) {
-            createTimeTreeRelationship(created);
-        }
+    public List<PendingEvent> beforeCommit(ImprovedTransactionData transactionData) throws DeliberateTransactionRollbackException {
+        List<Node> toAttach = new LinkedList<>(transactionData.getAllCreatedNodes());
+        List<Node> toDetach = new LinkedList<>();
 
         for (Change<Node> change : transactionData.getAllChangedNodes()) {
             if (shouldReattach(transactionData, change)) {
-                deleteTimeTreeRelationship(change.getPrevious());
-                createTimeTreeRelationship(change.getCurrent());
+                toDetach.add(change.getPrevious());
+                toAttach.add(change.getCurrent());
+            }
+        }
+
+        if (writerExecutor != null) {
+            createInstants(toAttach);
+        } else if (asyncAttacher == null) {
+            lockRoots(toAttach);
+        }
+
+        for (Node node : toDetach) {
+            deleteTimeTreeRelationship(node);
+        }
+
+        List<PendingEvent> pending = new LinkedList<>();
+        for (Node node : toAttach) {
+            attachOrDefer(node, pending);
+        }
+
+        return pending;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterCommit(List<PendingEvent> pending) {
+        if (asyncAttacher != null && pending != null && !pending.isEmpty()) {
+            asyncAttacher.enqueue(pending);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        if (configuration.getSlowOperationThreshold() >= 0) {
+            SlowOperationLog.disable();
+        }
+
+        if (keyMigrator != null) {
+            keyMigrator.shutdownNow();
+        }
+
+        if (catchUp != null) {
+            catchUp.shutdownNow();
+        }
+
+        if (preCreator != null) {
+            preCreator.shutdownNow();
+        }
+
+        if (asyncAttacher != null) {
+            asyncAttacher.shutdown();
+        }
+
+        if (writerExecutor != null) {
+            writerExecutor.shutdown();
+            try {
+                if (!writerExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOG.warn("Time tree writers did not finish within " + SHUTDOWN_TIMEOUT_SECONDS + " seconds");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
 
-        return null;
+        super.shutdown();
+    }
+
+    /**
+     * Get the number of events waiting to be attached asynchronously.
+     *
+     * @return queue depth, 0 if events are attached synchronously.
+     */
+    public long getAsyncQueueDepth() {
+        return asyncAttacher == null ? 0 : asyncAttacher.getQueueDepth();
+    }
+
+    /**
+     * Get the age of the oldest event waiting to be attached asynchronously.
+     *
+     * @return lag in ms, 0 if there are no events waiting or events are attached synchronously.
+     */
+    public long getAsyncLag() {
+        return asyncAttacher == null ? 0 : asyncAttacher.getLag();
+    }
+
+    /**
+     * Queue all events that have a timestamp, but are not attached to a time tree, for asynchronous attachment, e.g.
+     * those whose queued attachment has been lost by a crash. All nodes included by the inclusion policy are read,
+     * in a single read transaction, waiting for the queues to make room for them.
+     *
+     * @return number of queued events.
+     * @throws IllegalStateException if events are attached synchronously.
+     */
+    public long queueUnattachedEvents() {
+        if (asyncAttacher == null) {
+            throw new IllegalStateException("Events are attached synchronously");
+        }
+
+        long queued = 0;
+        try (Transaction tx = database.beginTx()) {
+            for (Node node : configuration.getInclusionPolicies().getNodeInclusionPolicy().getAll(database)) {
+                Object timestamp = node.getProperty(configuration.getTimestampProperty(), null);
+                if (!(timestamp instanceof Long) || node.hasRelationship(configuration.getRelationshipType())) {
+                    continue;
+                }
+
+                if (asyncAttacher.enqueue(new PendingEvent(node.getId(), (Long) timestamp, rootId(node)), Long.MAX_VALUE)) {
+                    queued++;
+                }
+            }
+            tx.success();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while queueing unattached events, " + queued + " have been queued");
+            return queued;
+        }
+
+        if (queued > 0) {
+            LOG.info("Queued " + queued + " unattached events for asynchronous attachment");
+        }
+        return queued;
+    }
+
+    /**
+     * Create instants in the default time tree from now until the configured number of periods ahead, all in one
+     * transaction.
+     */
+    private void preCreateInstants() {
+        TimeInstant start = instant(System.currentTimeMillis());
+        TimeInstant end = start;
+        for (int i = 0; i < configuration.getPreCreatePeriods(); i++) {
+            end = end.next();
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            timeTree.getOrCreateInstants(start, end);
+            tx.success();
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to pre-create time instants", e);
+        }
+    }
+
+    private void attachOrDefer(Node node, List<PendingEvent> pending) {
+        if (asyncAttacher == null) {
+            createTimeTreeRelationship(node);
+            return;
+        }
+
+        Long timestamp = getTimestamp(node);
+        if (timestamp == null) {
+            return;
+        }
+
+        pending.add(new PendingEvent(node.getId(), timestamp, rootId(node)));
+    }
+
+    /**
+     * Make the single writers create all the instants the given events will be attached to, before any of the events
+     * is attached (and any instant thus locked) by the current transaction. Instants that aren't created in time will
+     * be created in the current transaction.
+     *
+     * @param events to be attached.
+     */
+    private void createInstants(List<Node> events) {
+        List<CompletableFuture<Long>> futures = new LinkedList<>();
+
+        for (Node event : events) {
+            if (event.getProperty(configuration.getTimestampProperty(), null) instanceof Long) {
+                SingleWriterTimeTree timeTree = singleWriterTree(rootId(event));
+                futures.add(timeTree.getWriter().getOrCreateInstant(instant(getLong(event, configuration.getTimestampProperty()))));
+            }
+        }
+
+        if (futures.isEmpty()) {
+            return;
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).get(SingleWriterTimeTree.DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOG.debug("Time tree writers could not create all instants, the rest will be created in the current transaction", e);
+        }
+    }
+
+    /**
+     * Lock the roots of the time trees the given events will be attached to in the order of their IDs, if there are
+     * several such trees, see {@link SingleTimeTree#lockRoots(Transaction, java.util.Collection)}. Transactions that
+     * only attach events to a single tree lock its root only if they need to create instants.
+     *
+     * @param events to be attached.
+     */
+    private void lockRoots(List<Node> events) {
+        Map<Long, TimeTree> trees = new HashMap<>();
+        for (Node event : events) {
+            if (event.getProperty(configuration.getTimestampProperty(), null) instanceof Long) {
+                trees.computeIfAbsent(rootId(event), this::timeTree);
+            }
+        }
+
+        if (trees.size() < 2) {
+            return;
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            SingleTimeTree.lockRoots(tx, trees.values());
+            tx.success();
+        }
+    }
+
+    private long rootId(Node node) {
+        if (configuration.getCustomTimeTreeRootProperty() != null && node.hasProperty(configuration.getCustomTimeTreeRootProperty())) {
+            return getLong(node, configuration.getCustomTimeTreeRootProperty());
+        }
+
+        return AsyncEventAttacher.DEFAULT_ROOT;
+    }
+
+    private TimeTree timeTree(long rootId) {
+        if (writerExecutor != null) {
+            return singleWriterTree(rootId);
+        }
+
+        return registeredTimeTree(rootId);
+    }
+
+    private TimeTree registeredTimeTree(long rootId) {
+        TimeTreeRegistry registry = TimeTreeRegistry.forDatabase(database);
+        return rootId == AsyncEventAttacher.DEFAULT_ROOT ? registry.getDefault() : registry.get(rootId);
+    }
+
+    private SingleWriterTimeTree singleWriterTree(long rootId) {
+        return singleWriterTrees.computeIfAbsent(rootId, id -> {
+            TimeTree timeTree = registeredTimeTree(id);
+            return new SingleWriterTimeTree(database, timeTree, new TimeTreeWriter(database, timeTree, writerExecutor));
+        });
+    }
+
+    private TimeInstant instant(long timestamp) {
+        return TimeInstant.instant(timestamp).with(configuration.getResolution()).with(configuration.getTimeZone());
     }
 
     private boolean shouldReattach(ImprovedTransactionData transactionData, Change<Node> change) {
@@ -91,28 +439,30 @@ public class TimeTreeModule extends BaseTxDrivenModule<Void> {
                 || transactionData.hasPropertyBeenDeleted(change.getPrevious(), configuration.getCustomTimeTreeRootProperty());
     }
 
-    private void createTimeTreeRelationship(Node created) {
+    private Long getTimestamp(Node created) {
         if (!created.hasProperty(configuration.getTimestampProperty())) {
             LOG.warn("Created node with ID " + created.getId() + " does not have a " + configuration.getTimestampProperty() + " property!");
-            return;
+            return null;
         }
 
-        Long timestamp;
         try {
-            timestamp = (Long) created.getProperty(configuration.getTimestampProperty());
+            return (Long) created.getProperty(configuration.getTimestampProperty());
         } catch (Throwable throwable) {
             LOG.warn("Created node with ID " + created.getId() + " does not have a valid timestamp property", throwable);
-            return;
+            return null;
         }
+    }
 
-        TimedEvents timedEventsToUse;
-        if (configuration.getCustomTimeTreeRootProperty() != null && created.hasProperty(configuration.getCustomTimeTreeRootProperty())) {
-            timedEventsToUse = new TimeTreeBackedEvents(new CustomRootTimeTree(created.getGraphDatabase().getNodeById(getLong(created, configuration.getCustomTimeTreeRootProperty()))));
-        } else {
-            timedEventsToUse = timedEvents;
+    private void createTimeTreeRelationship(Node created) {
+        Long timestamp = getTimestamp(created);
+        if (timestamp == null) {
+            return;
         }
 
-        timedEventsToUse.attachEvent(created, configuration.getRelationshipType(), configuration.getDirection(), TimeInstant.instant(timestamp).with(configuration.getResolution()).with(configuration.getTimeZone()));
+        long rootId = rootId(created);
+        TimedEvents timedEventsToUse = rootId == AsyncEventAttacher.DEFAULT_ROOT ? timedEvents : new TimeTreeBackedEvents(timeTree(rootId), configuration.getEventBuckets());
+
+        timedEventsToUse.attachEvent(created, configuration.getRelationshipType(), configuration.getDirection(), instant(timestamp));
     }
 
     private void deleteTimeTreeRelationship(Node changed) {
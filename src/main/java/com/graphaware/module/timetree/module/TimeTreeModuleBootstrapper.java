@@ -46,6 +46,19 @@ public class TimeTreeModuleBootstrapper extends BaseRuntimeModuleBootstrapper<Ti
     private static final String RELATIONSHIP = "relationship";
     private static final String DIRECTION = "direction";
     private static final String AUTO_ATTACH = "autoAttach";
+    private static final String EVENT_BUCKETS = "eventBuckets";
+    private static final String ASYNC_ATTACH = "asyncAttach";
+    private static final String ASYNC_ATTACH_DELAY = "asyncAttachDelay";
+    private static final String SINGLE_WRITER = "singleWriter";
+    private static final String PRE_CREATE_PERIODS = "preCreatePeriods";
+    private static final String SLOW_OPERATION_THRESHOLD = "slowOperationThreshold";
+    private static final String SLOW_OPERATION_SAMPLING = "slowOperationSampling";
+    private static final String ROOT_CACHE_SIZE = "rootCacheSize";
+    private static final String INSTANT_KEYS = "instantKeys";
+    private static final String SKIP_POINTERS = "skipPointers";
+    private static final String KERNEL_TRAVERSAL = "kernelTraversal";
+    private static final String OPTIMISTIC_CREATION = "optimisticCreation";
+    private static final String TRANSIENT_FAILURE_RETRIES = "transientFailureRetries";
 
     @Override
     protected TimeTreeConfiguration defaultConfiguration() {
@@ -108,6 +121,84 @@ public class TimeTreeModuleBootstrapper extends BaseRuntimeModuleBootstrapper<Ti
             configuration = configuration.withAutoAttach(autoAttach);
         }
 
+        if (configExists(config, EVENT_BUCKETS)) {
+            int eventBuckets = Integer.valueOf(config.get(EVENT_BUCKETS));
+            LOG.info("Event buckets set to %s", eventBuckets);
+            configuration = configuration.withEventBuckets(eventBuckets);
+        }
+
+        if (configExists(config, ASYNC_ATTACH)) {
+            boolean asyncAttach = Boolean.valueOf(config.get(ASYNC_ATTACH));
+            LOG.info("AsyncAttach set to %s", asyncAttach);
+            configuration = configuration.withAsyncAttach(asyncAttach);
+        }
+
+        if (configExists(config, ASYNC_ATTACH_DELAY)) {
+            long asyncAttachDelay = Long.valueOf(config.get(ASYNC_ATTACH_DELAY));
+            LOG.info("AsyncAttach delay set to %s ms", asyncAttachDelay);
+            configuration = configuration.withAsyncAttachDelay(asyncAttachDelay);
+        }
+
+        if (configExists(config, SINGLE_WRITER)) {
+            boolean singleWriter = Boolean.valueOf(config.get(SINGLE_WRITER));
+            LOG.info("SingleWriter set to %s", singleWriter);
+            configuration = configuration.withSingleWriter(singleWriter);
+        }
+
+        if (configExists(config, PRE_CREATE_PERIODS)) {
+            int preCreatePeriods = Integer.valueOf(config.get(PRE_CREATE_PERIODS));
+            LOG.info("Pre-create periods set to %s", preCreatePeriods);
+            configuration = configuration.withPreCreatePeriods(preCreatePeriods);
+        }
+
+        if (configExists(config, SLOW_OPERATION_THRESHOLD)) {
+            long slowOperationThreshold = Long.valueOf(config.get(SLOW_OPERATION_THRESHOLD));
+            LOG.info("Slow operation threshold set to %s ms", slowOperationThreshold);
+            configuration = configuration.withSlowOperationThreshold(slowOperationThreshold);
+        }
+
+        if (configExists(config, SLOW_OPERATION_SAMPLING)) {
+            double slowOperationSampling = Double.valueOf(config.get(SLOW_OPERATION_SAMPLING));
+            LOG.info("Slow operation sampling set to %s", slowOperationSampling);
+            configuration = configuration.withSlowOperationSampling(slowOperationSampling);
+        }
+
+        if (configExists(config, ROOT_CACHE_SIZE)) {
+            int rootCacheSize = Integer.valueOf(config.get(ROOT_CACHE_SIZE));
+            LOG.info("Root cache size set to %s", rootCacheSize);
+            configuration = configuration.withRootCacheSize(rootCacheSize);
+        }
+
+        if (configExists(config, INSTANT_KEYS)) {
+            boolean instantKeys = Boolean.valueOf(config.get(INSTANT_KEYS));
+            LOG.info("Instant keys set to %s", instantKeys);
+            configuration = configuration.withInstantKeys(instantKeys);
+        }
+
+        if (configExists(config, SKIP_POINTERS)) {
+            boolean skipPointers = Boolean.valueOf(config.get(SKIP_POINTERS));
+            LOG.info("Skip pointers set to %s", skipPointers);
+            configuration = configuration.withSkipPointers(skipPointers);
+        }
+
+        if (configExists(config, KERNEL_TRAVERSAL)) {
+            boolean kernelTraversal = Boolean.valueOf(config.get(KERNEL_TRAVERSAL));
+            LOG.info("Kernel traversal set to %s", kernelTraversal);
+            configuration = configuration.withKernelTraversal(kernelTraversal);
+        }
+
+        if (configExists(config, OPTIMISTIC_CREATION)) {
+            boolean optimisticCreation = Boolean.valueOf(config.get(OPTIMISTIC_CREATION));
+            LOG.info("Optimistic creation set to %s", optimisticCreation);
+            configuration = configuration.withOptimisticCreation(optimisticCreation);
+        }
+
+        if (configExists(config, TRANSIENT_FAILURE_RETRIES)) {
+            int transientFailureRetries = Integer.valueOf(config.get(TRANSIENT_FAILURE_RETRIES));
+            LOG.info("Transient failure retries set to %s", transientFailureRetries);
+            configuration = configuration.withTransientFailureRetries(transientFailureRetries);
+        }
+
         return new TimeTreeModule(moduleId, configuration, database);
     }
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.proc;
+
+import com.graphaware.module.timetree.logic.TimeTreeStatistics;
+
+/**
+ * Statistics of a single resolution of a time tree, returned by the <code>ga.timetree.stats</code> procedure.
+ */
+public class StatsResult {
+
+    public final String resolution;
+    public final long instants;
+    public final long visitedInstants;
+    public final long maxSiblingChain;
+    public final long events;
+    public final long meanEventsPerInstant;
+    public final long p50EventsPerInstant;
+    public final long p99EventsPerInstant;
+    public final long maxEventsPerInstant;
+
+    public StatsResult(TimeTreeStatistics.LevelStatistics level) {
+        this.resolution = level.getResolution().name();
+        this.instants = level.getInstants();
+        this.visitedInstants = level.getVisitedInstants();
+        this.maxSiblingChain = level.getMaxSiblingChain();
+        this.events = level.getEvents();
+        this.meanEventsPerInstant = level.getEventsPerInstant().getMean();
+        this.p50EventsPerInstant = level.getEventsPerInstant().getPercentile(50);
+        this.p99EventsPerInstant = level.getEventsPerInstant().getPercentile(99);
+        this.maxEventsPerInstant = level.getEventsPerInstant().getMax();
+    }
+}
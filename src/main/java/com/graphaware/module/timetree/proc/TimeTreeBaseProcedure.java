@@ -30,6 +30,15 @@ public class TimeTreeBaseProcedure {
     protected static final String PARAMETER_NAME_DIRECTION = "direction";
     protected static final String PARAMETER_NAME_RELATIONSHIP_TYPES = "relationshipTypes";
     protected static final String PARAMETER_NAME_CREATE = "create";
+    protected static final String PARAMETER_NAME_MODE = "mode";
+    protected static final String PARAMETER_NAME_BATCH_SIZE = "batchSize";
+    protected static final String PARAMETER_NAME_SAMPLE = "sample";
+    protected static final String PARAMETER_NAME_REPAIR = "repair";
+    protected static final String PARAMETER_NAME_WORKERS = "workers";
+    protected static final String PARAMETER_NAME_ROOTS = "roots";
+    protected static final String PARAMETER_NAME_LIMIT = "limit";
+    protected static final String PARAMETER_NAME_TIMESTAMP_PROPERTY = "timestampProperty";
+    protected static final String PARAMETER_NAME_RELATIONSHIP_TIMESTAMP_PROPERTY = "relationshipTimestampProperty";
 
     protected void checkTime(Map<String, Object> inputParams, String param) throws RuntimeException {
         try {
@@ -15,7 +15,12 @@
  */
 package com.graphaware.module.timetree.proc;
 
+import com.graphaware.module.timetree.domain.TimeTreeLabels;
+import com.graphaware.module.timetree.logic.RangeMode;
 import com.graphaware.module.timetree.logic.TimeTreeBusinessLogic;
+import com.graphaware.module.timetree.logic.TimeTreeStatistics;
+import com.graphaware.module.timetree.metrics.TimeTreeMetrics;
+import com.graphaware.module.timetree.verify.TimeTreeVerifier;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.NotFoundException;
@@ -28,6 +33,8 @@ import java.util.stream.Stream;
 
 public class TimeTreeProcedure extends TimeTreeBaseProcedure {
 
+    private static final int DEFAULT_REPAIR_BATCH_SIZE = 1000;
+
     @Context
     public GraphDatabaseAPI db;
 
@@ -79,6 +86,8 @@ public class TimeTreeProcedure extends TimeTreeBaseProcedure {
     public Stream<Instant> range(@Name("params") Map<String, Object> params) {
         validateRangeParameters(params);
         boolean create = (boolean) params.getOrDefault(PARAMETER_NAME_CREATE, false);
+        RangeMode mode = getRangeMode(params, create);
+        Number batchSize = (Number) params.get(PARAMETER_NAME_BATCH_SIZE);
         Node rootNode = (Node) params.getOrDefault(PARAMETER_NAME_ROOT, null);
         long startTime = (long) params.get(PARAMETER_NAME_START_TIME);
         long endTime = (long) params.get(PARAMETER_NAME_END_TIME);
@@ -88,25 +97,61 @@ public class TimeTreeProcedure extends TimeTreeBaseProcedure {
         final TimeTreeBusinessLogic timeTree = initTimeTree(db);
 
         List<Node> instants;
-        if (!create) {
-            try {
-                if (rootNode == null) {
-                    instants = timeTree.getInstants(startTime, endTime, resolution, timezone);
-                } else {
-                    instants = timeTree.getInstantsWithCustomRoot(rootNode.getId(), startTime, endTime, resolution, timezone);
-                }
-            } catch (NotFoundException ex) {
-                return Stream.empty();
+        try {
+            if (rootNode == null) {
+                instants = timeTree.getInstants(mode, startTime, endTime, resolution, timezone, batchSize == null ? 0 : batchSize.intValue());
+            } else {
+                instants = timeTree.getInstantsWithCustomRoot(mode, rootNode.getId(), startTime, endTime, resolution, timezone, batchSize == null ? 0 : batchSize.intValue());
             }
-        } else if (rootNode == null) {
-            instants = timeTree.getOrCreateInstants(startTime, endTime, resolution, timezone);
-        } else {
-            instants = timeTree.getOrCreateInstantsWithCustomRoot(rootNode.getId(), startTime, endTime, resolution, timezone);
+        } catch (NotFoundException ex) {
+            return Stream.empty();
         }
 
         return instants.stream().map(Instant::new);
     }
 
+    @Procedure(name = "ga.timetree.stats")
+    @Description(value = "CALL ga.timetree.stats({sample: 0.1}) yield resolution, instants, maxSiblingChain, events return *")
+    public Stream<StatsResult> stats(@Name(value = "params", defaultValue = "{}") Map<String, Object> params) {
+        Object sample = params.getOrDefault(PARAMETER_NAME_SAMPLE, 1.0);
+        if (!(sample instanceof Number) || ((Number) sample).doubleValue() <= 0 || ((Number) sample).doubleValue() > 1) {
+            throw new RuntimeException("Wrong parameter value for 'sample': " + sample + ". It must be a number greater than 0 and at most 1");
+        }
+
+        Node rootNode = findRoot(params);
+        if (rootNode == null) {
+            return Stream.empty();
+        }
+
+        return new TimeTreeStatistics(db).compute(rootNode, ((Number) sample).doubleValue()).stream().map(StatsResult::new);
+    }
+
+    @Procedure(mode = Mode.WRITE, name = "ga.timetree.verify")
+    @Description(value = "CALL ga.timetree.verify({repair: false}) yield valid, issues, details return *")
+    public Stream<VerificationResult> verify(@Name(value = "params", defaultValue = "{}") Map<String, Object> params) {
+        checkBatchSize(params);
+        boolean repair = Boolean.parseBoolean(String.valueOf(params.getOrDefault(PARAMETER_NAME_REPAIR, false)));
+        Number batchSize = (Number) params.getOrDefault(PARAMETER_NAME_BATCH_SIZE, DEFAULT_REPAIR_BATCH_SIZE);
+        Object workers = params.getOrDefault(PARAMETER_NAME_WORKERS, 1);
+        if (!(workers instanceof Number) || ((Number) workers).intValue() < 1) {
+            throw new RuntimeException("Wrong parameter value for 'workers': " + workers + ". It must be a positive number");
+        }
+
+        Node rootNode = findRoot(params);
+        if (rootNode == null) {
+            return Stream.empty();
+        }
+
+        TimeTreeVerifier verifier = new TimeTreeVerifier(db);
+        return Stream.of(new VerificationResult(repair ? verifier.repair(rootNode, batchSize.intValue()) : verifier.verify(rootNode, ((Number) workers).intValue())));
+    }
+
+    @Procedure(name = "ga.timetree.metrics")
+    @Description(value = "CALL ga.timetree.metrics() yield name, value return name, value")
+    public Stream<MetricResult> metrics() {
+        return TimeTreeMetrics.getInstance().snapshot().entrySet().stream().map(e -> new MetricResult(e.getKey(), e.getValue()));
+    }
+
     private Stream<Instant> getInstant(boolean create, Node rootNode, long time, String resolution, String timezone) {
         final TimeTreeBusinessLogic timeTree = initTimeTree(db);
 
@@ -143,5 +188,35 @@ public class TimeTreeProcedure extends TimeTreeBaseProcedure {
         checkCreate(inputParams);
         checkTime(inputParams, PARAMETER_NAME_START_TIME);
         checkTime(inputParams, PARAMETER_NAME_END_TIME);
+        checkBatchSize(inputParams);
+    }
+
+    private Node findRoot(Map<String, Object> inputParams) {
+        Node rootNode = (Node) inputParams.get(PARAMETER_NAME_ROOT);
+        if (rootNode != null) {
+            return rootNode;
+        }
+
+        return db.findNodes(TimeTreeLabels.TimeTreeRoot).stream().findFirst().orElse(null);
+    }
+
+    private RangeMode getRangeMode(Map<String, Object> inputParams, boolean create) {
+        Object mode = inputParams.get(PARAMETER_NAME_MODE);
+        if (mode == null) {
+            return create ? RangeMode.ALL : RangeMode.EXISTING;
+        }
+
+        try {
+            return RangeMode.valueOf(mode.toString().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            throw new RuntimeException("Wrong parameter value for 'mode': " + mode + ". Admitted values are: 'all', 'endpoints', 'existing', or no value at all (means 'all' if create is true, 'existing' otherwise)", ex);
+        }
+    }
+
+    private void checkBatchSize(Map<String, Object> inputParams) {
+        Object batchSize = inputParams.get(PARAMETER_NAME_BATCH_SIZE);
+        if (batchSize != null && !(batchSize instanceof Number)) {
+            throw new RuntimeException("Wrong parameter value for 'batchSize': " + batchSize + ". It must be a number");
+        }
     }
 }
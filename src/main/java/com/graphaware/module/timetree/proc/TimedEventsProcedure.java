@@ -15,9 +15,12 @@
  */
 package com.graphaware.module.timetree.proc;
 
-import com.graphaware.module.timetree.SingleTimeTree;
 import com.graphaware.module.timetree.TimeTreeBackedEvents;
+import com.graphaware.module.timetree.TimeTreeRegistry;
 import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.EventTimestamp;
+import com.graphaware.module.timetree.domain.TimedEvent;
+import com.graphaware.module.timetree.logic.RetryingTimeTrees;
 import com.graphaware.module.timetree.logic.TimedEventsBusinessLogic;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
@@ -25,6 +28,7 @@ import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.procedure.*;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
@@ -35,7 +39,7 @@ public class TimedEventsProcedure extends TimeTreeBaseProcedure {
     public GraphDatabaseAPI db;
 
     private TimedEventsBusinessLogic initTimeTree(GraphDatabaseService db) {
-        return new TimedEventsBusinessLogic(db, new TimeTreeBackedEvents(new SingleTimeTree(db)));
+        return new TimedEventsBusinessLogic(db, new TimeTreeBackedEvents(RetryingTimeTrees.retrying(db, TimeTreeRegistry.forDatabase(db).getDefault())));
     }
 
     @Procedure(mode = Mode.WRITE, name = "ga.timetree.events.single")
@@ -98,6 +102,21 @@ public class TimedEventsProcedure extends TimeTreeBaseProcedure {
 
         checkTime(params, PARAMETER_NAME_START_TIME);
         checkTime(params, PARAMETER_NAME_END_TIME);
+        if (params.containsKey(PARAMETER_NAME_TIMESTAMP_PROPERTY) || params.containsKey(PARAMETER_NAME_RELATIONSHIP_TIMESTAMP_PROPERTY)) {
+            Node root = (Node) params.get(PARAMETER_NAME_ROOT);
+            List<TimedEvent> events = timedEventsLogic.getEventsChronologically(
+                    root == null ? null : root.getId(),
+                    (long) params.get(PARAMETER_NAME_START_TIME),
+                    (long) params.get(PARAMETER_NAME_END_TIME),
+                    (String) params.get(PARAMETER_NAME_RESOLUTION),
+                    (String) params.get(PARAMETER_NAME_TIMEZONE),
+                    (List<String>) params.get(PARAMETER_NAME_RELATIONSHIP_TYPES),
+                    (String) params.get(PARAMETER_NAME_DIRECTION),
+                    getTimestamp(params));
+
+            return events.stream().map(event -> new EventResult(event.getEvent()));
+        }
+
         List<Event> events;
         if (params.containsKey(PARAMETER_NAME_ROOT)) {
             events = timedEventsLogic.getEventsCustomRoot(
@@ -121,6 +140,53 @@ public class TimedEventsProcedure extends TimeTreeBaseProcedure {
         return events.stream().map(event -> new EventResult(event));
     }
 
+    @Procedure(mode = Mode.READ, name = "ga.timetree.events.rangeAcrossRoots")
+    @Description(value = "CALL ga.timetree.events.rangeAcrossRoots({roots: [r1, r2], start: 1463659567468, end: 1463859569504, limit: 100}) YIELD node, relationshipType, direction, root, time RETURN *")
+    public Stream<TimedEventResult> rangeAcrossRoots(@Name("params") Map<String, Object> params) {
+        final TimedEventsBusinessLogic timedEventsLogic = initTimeTree(db);
+
+        checkTime(params, PARAMETER_NAME_START_TIME);
+        checkTime(params, PARAMETER_NAME_END_TIME);
+        Object limit = params.getOrDefault(PARAMETER_NAME_LIMIT, 0);
+        if (!(limit instanceof Number)) {
+            throw new RuntimeException("Wrong parameter value for 'limit': " + limit + ". It must be a number");
+        }
+
+        List<TimedEvent> events = timedEventsLogic.getEventsCustomRoots(
+                getRootIds(params.get(PARAMETER_NAME_ROOTS)),
+                (long) params.get(PARAMETER_NAME_START_TIME),
+                (long) params.get(PARAMETER_NAME_END_TIME),
+                (String) params.get(PARAMETER_NAME_RESOLUTION),
+                (String) params.get(PARAMETER_NAME_TIMEZONE),
+                (List<String>) params.get(PARAMETER_NAME_RELATIONSHIP_TYPES),
+                (String) params.get(PARAMETER_NAME_DIRECTION),
+                getTimestamp(params),
+                ((Number) limit).intValue());
+
+        return events.stream().map(TimedEventResult::new);
+    }
+
+    private EventTimestamp getTimestamp(Map<String, Object> params) {
+        return TimedEventsBusinessLogic.resolveTimestamp(
+                (String) params.get(PARAMETER_NAME_TIMESTAMP_PROPERTY),
+                (String) params.get(PARAMETER_NAME_RELATIONSHIP_TIMESTAMP_PROPERTY));
+    }
+
+    private List<Long> getRootIds(Object roots) {
+        if (!(roots instanceof List) || ((List<?>) roots).isEmpty()) {
+            throw new RuntimeException("Roots are necessary. Parameter " + PARAMETER_NAME_ROOTS + " must be a non-empty list of nodes");
+        }
+
+        List<Long> result = new ArrayList<>();
+        for (Object root : (List<?>) roots) {
+            if (!(root instanceof Node)) {
+                throw new RuntimeException("Wrong parameter value for '" + PARAMETER_NAME_ROOTS + "': " + root + " is not a node");
+            }
+            result.add(((Node) root).getId());
+        }
+        return result;
+    }
+
     private void checkEventNode(Node eventNode) {
         if (eventNode == null)
             throw new RuntimeException("Event node is necessary. Parameter " + PARAMETER_NAME_NODE + " is missing");
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.proc;
+
+import com.graphaware.module.timetree.verify.TreeIssue;
+import com.graphaware.module.timetree.verify.VerificationReport;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Result of the <code>ga.timetree.verify</code> procedure.
+ */
+public class VerificationResult {
+
+    public final boolean valid;
+    public final long instantsVisited;
+    public final long issues;
+    public final long repaired;
+    public final List<String> details;
+
+    public VerificationResult(VerificationReport report) {
+        this.valid = report.isValid();
+        this.instantsVisited = report.getInstantsVisited();
+        this.issues = report.getIssueCount();
+        this.repaired = report.getRepairedCount();
+        this.details = report.getIssues().stream().map(TreeIssue::toString).collect(Collectors.toList());
+    }
+}
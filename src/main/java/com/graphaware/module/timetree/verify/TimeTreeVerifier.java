@@ -0,0 +1,677 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.verify;
+
+import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.module.timetree.OptimisticCreation;
+import com.graphaware.module.timetree.SkipPointers;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.module.NamedThreadFactory;
+import org.neo4j.graphdb.*;
+import org.neo4j.logging.Log;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Verifies the structure of a time tree and optionally repairs it. The tree is walked depth-first, in chronological
+ * order, checking for every parent that
+ * <ul>
+ * <li>each child has a single parent and a value,</li>
+ * <li>no two children have the same value,</li>
+ * <li>FIRST and LAST point to the children with the lowest and the highest value,</li>
+ * <li>children are connected by NEXT relationships in increasing order of their values,</li>
+ * <li>the last child is connected by a NEXT relationship to the first child of the next parent on the same level.</li>
+ * </ul>
+ * Only the children of the parents on the current path and the last instant seen on each level are held in memory,
+ * so memory use is bounded by the fan-out of the tree, not its size.
+ * <p>
+ * When repairing, the CHILD relationships are taken as the source of truth: duplicate children are merged (all their
+ * relationships are moved to the one with the lowest ID), and FIRST, LAST and NEXT relationships are re-created where
+ * they are wrong. The {@link SkipPointers} of the children of a repaired parent are then re-built. Repairs are committed in batches of transactions, each holding the write lock of the root while it
+ * changes the tree, so that the tree can be repaired while it is in use. A parent found broken is checked again, and its
+ * children re-loaded, once the lock is held, so that instants created in the meantime are not left out of the repaired
+ * relationships. Instants created optimistically (see {@link OptimisticCreation}) do not take the lock of the root,
+ * so trees cannot be repaired while optimistic creation is enabled.
+ * <p>
+ * Verification (but not repair) can be spread over a pool of workers. The subtree of each Month is then verified
+ * independently by a worker in its own read-only transaction, while the Years and Months themselves, as well as the
+ * NEXT relationships connecting the subtrees, are verified by the calling thread once the workers are done.
+ */
+public class TimeTreeVerifier {
+
+    private static final Log LOG = LoggerFactory.getLogger(TimeTreeVerifier.class);
+
+    private static final String VALUE_PROPERTY = "value";
+    private static final int DEFAULT_MAX_ISSUES = 1000;
+
+    private final GraphDatabaseService database;
+    private final int maxIssues;
+
+    public TimeTreeVerifier(GraphDatabaseService database) {
+        this(database, DEFAULT_MAX_ISSUES);
+    }
+
+    /**
+     * Create a new verifier.
+     *
+     * @param database  to verify trees in.
+     * @param maxIssues maximum number of issues retained in a report.
+     */
+    public TimeTreeVerifier(GraphDatabaseService database, int maxIssues) {
+        this.database = database;
+        this.maxIssues = maxIssues;
+    }
+
+    /**
+     * Verify a time tree without changing it.
+     *
+     * @param root of the time tree.
+     * @return report.
+     */
+    public VerificationReport verify(Node root) {
+        return run(root, false, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Verify a time tree without changing it, using a pool of workers.
+     *
+     * @param root    of the time tree.
+     * @param workers number of worker threads verifying subtrees of Months in parallel. 1 for verifying the whole tree
+     *                in the calling thread.
+     * @return report.
+     */
+    public VerificationReport verify(Node root, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Number of workers must be positive");
+        }
+
+        if (workers == 1) {
+            return verify(root);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers, new NamedThreadFactory("TimeTree-Verifier"));
+        try {
+            return runInParallel(root, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Verify a time tree and repair the issues that can be repaired.
+     *
+     * @param root      of the time tree.
+     * @param batchSize maximum number of changes per transaction.
+     * @return report.
+     * @throws IllegalStateException if optimistic creation is enabled for the database.
+     */
+    public VerificationReport repair(Node root, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+
+        if (OptimisticCreation.forDatabase(database).isEnabled()) {
+            throw new IllegalStateException("Time trees cannot be repaired while optimistic creation is enabled");
+        }
+
+        return run(root, true, batchSize);
+    }
+
+    private VerificationReport run(Node root, boolean repair, int batchSize) {
+        Walk walk = new Walk(root, repair, batchSize);
+
+        boolean success = false;
+        try {
+            walk.children(root, 0);
+            walk.levelEnds();
+            success = true;
+        } finally {
+            walk.close(success);
+        }
+
+        if (!walk.report.isValid()) {
+            LOG.warn("Time tree with root " + root.getId() + " has " + walk.report.getIssueCount() + " issues, " + walk.report.getRepairedCount() + " have been repaired");
+        }
+
+        return walk.report;
+    }
+
+    private VerificationReport runInParallel(Node root, ExecutorService executor) {
+        Walk top = new Walk(root, false, Integer.MAX_VALUE);
+
+        boolean success = false;
+        try {
+            List<Future<Walk>> subtrees = new ArrayList<>();
+            for (Child year : top.check(root, 0)) {
+                top.report.instantVisited();
+                for (Child month : top.check(year.node, 1)) {
+                    top.report.instantVisited();
+                    subtrees.add(executor.submit(() -> verifySubtree(root, month.node, 2)));
+                }
+            }
+
+            for (Future<Walk> future : subtrees) {
+                top.merge(future.get());
+            }
+
+            top.levelEnds();
+            success = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while verifying time tree with root " + root.getId(), e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to verify time tree with root " + root.getId(), e.getCause());
+        } finally {
+            top.close(success);
+        }
+
+        if (!top.report.isValid()) {
+            LOG.warn("Time tree with root " + root.getId() + " has " + top.report.getIssueCount() + " issues");
+        }
+
+        return top.report;
+    }
+
+    private Walk verifySubtree(Node root, Node parent, int depth) {
+        Walk walk = new Walk(root, false, Integer.MAX_VALUE);
+        walk.levelFirst = new Node[walk.levelLast.length];
+
+        boolean success = false;
+        try {
+            walk.children(parent, depth);
+            success = true;
+        } finally {
+            walk.close(success);
+        }
+
+        return walk;
+    }
+
+    /**
+     * A single walk through a tree or a subtree.
+     */
+    private class Walk {
+
+        private final Node root;
+        private final boolean repair;
+        private final int batchSize;
+        private final VerificationReport report = new VerificationReport(maxIssues);
+        private final Node[] levelLast = new Node[Resolution.values().length];
+
+        /**
+         * First instant of each level, when walking a subtree. Its NEXT relationship from the previous instant on the
+         * same level is then checked when the subtrees are merged.
+         */
+        private Node[] levelFirst;
+
+        private Transaction tx;
+        private boolean locked;
+        private int changes;
+
+        /**
+         * Whether a parent is being checked before taking the lock of the root, in which case issues are only counted.
+         */
+        private boolean probing;
+        private int probedIssues;
+
+        Walk(Node root, boolean repair, int batchSize) {
+            this.root = root;
+            this.repair = repair;
+            this.batchSize = batchSize;
+            this.tx = database.beginTx();
+        }
+
+        void children(Node parent, int depth) {
+            for (Child child : check(parent, depth)) {
+                report.instantVisited();
+                children(child.node, depth + 1);
+            }
+        }
+
+        /**
+         * Check a parent and its children.
+         *
+         * @param parent to check.
+         * @param depth  of the children, 0 being the Years.
+         * @return children of the parent, ordered by their values.
+         */
+        List<Child> check(Node parent, int depth) {
+            if (depth >= levelLast.length) {
+                return Collections.emptyList();
+            }
+
+            commitIfNeeded();
+
+            if (repair && !locked && hasIssues(parent, depth)) {
+                lock();
+            }
+
+            long issues = report.getIssueCount();
+
+            List<Child> children = loadChildren(parent);
+            children = checkDuplicates(parent, children);
+            checkFirstAndLast(parent, children);
+            checkSiblingChain(parent, children);
+
+            if (repair && report.getIssueCount() > issues && SkipPointers.isMarked(parent)) {
+                SkipPointers.rebuild(parent);
+            }
+
+            if (!children.isEmpty()) {
+                checkLevelChain(depth, children.get(0).node);
+                levelLast[depth] = children.get(children.size() - 1).node;
+            }
+
+            return children;
+        }
+
+        /**
+         * Merge the results of a walk through a subtree that follows all subtrees merged so far, checking the NEXT
+         * relationships between them.
+         *
+         * @param subtree walk through the subtree.
+         */
+        void merge(Walk subtree) {
+            report.merge(subtree.report);
+
+            for (int depth = 0; depth < levelLast.length; depth++) {
+                if (subtree.levelFirst[depth] != null) {
+                    checkLevelChain(depth, subtree.levelFirst[depth]);
+                    levelLast[depth] = subtree.levelLast[depth];
+                }
+            }
+        }
+
+        /**
+         * Check that the last instant of each level has no NEXT relationship.
+         */
+        void levelEnds() {
+            for (Node last : levelLast) {
+                if (last == null) {
+                    continue;
+                }
+
+                if (isLevelEnd(last)) {
+                    continue;
+                }
+
+                if (repair) {
+                    lock();
+                    if (isLevelEnd(last)) {
+                        continue;
+                    }
+                    delete(relationships(last, OUTGOING, NEXT));
+                }
+                issue(TreeIssue.Type.BROKEN_LEVEL_CHAIN, last, "last instant of its level has a NEXT relationship");
+            }
+        }
+
+        void close(boolean success) {
+            if (success) {
+                tx.success();
+            }
+            tx.close();
+        }
+
+        /**
+         * Check a parent and its children without reporting or repairing anything.
+         *
+         * @param parent to check.
+         * @param depth  of the children.
+         * @return true iff there are issues.
+         */
+        private boolean hasIssues(Node parent, int depth) {
+            probing = true;
+            probedIssues = 0;
+            try {
+                List<Child> children = checkDuplicates(parent, loadChildren(parent));
+                checkFirstAndLast(parent, children);
+                checkSiblingChain(parent, children);
+                if (!children.isEmpty()) {
+                    checkLevelChain(depth, children.get(0).node);
+                }
+            } finally {
+                probing = false;
+            }
+            return probedIssues > 0;
+        }
+
+        /**
+         * @return true iff changes are to be made, i.e. when repairing and not just probing.
+         */
+        private boolean repairing() {
+            return repair && !probing;
+        }
+
+        /**
+         * Check that the last instant seen on a level has no NEXT relationship, other than to an instant created in a
+         * later parent since the walk has passed.
+         */
+        private boolean isLevelEnd(Node last) {
+            List<Relationship> next = relationships(last, OUTGOING, NEXT);
+            return next.isEmpty() || (next.size() == 1 && follows(last, next.get(0).getEndNode()));
+        }
+
+        /**
+         * @return true iff the next instant is a child of the same parent as the previous one, or of a parent that
+         * follows the parent of the previous one on its level.
+         */
+        private boolean follows(Node previous, Node next) {
+            Node previousParent = parent(previous);
+            Node nextParent = parent(next);
+            if (previousParent == null || nextParent == null) {
+                return false;
+            }
+
+            if (previousParent.getId() == nextParent.getId()) {
+                return true;
+            }
+
+            List<Relationship> link = relationships(previousParent, OUTGOING, NEXT);
+            return link.size() == 1 && link.get(0).getEndNode().getId() == nextParent.getId() && follows(previousParent, nextParent);
+        }
+
+        /**
+         * Get the last of the siblings following an instant in increasing order of values, which is the instant itself
+         * unless children have been appended to its parent since the walk has passed it.
+         */
+        private Node lastSibling(Node instant) {
+            Node parent = parent(instant);
+            Node last = instant;
+            while (parent != null) {
+                List<Relationship> next = relationships(last, OUTGOING, NEXT);
+                if (next.size() != 1) {
+                    break;
+                }
+                Node candidate = next.get(0).getEndNode();
+                Node candidateParent = parent(candidate);
+                if (candidateParent == null || candidateParent.getId() != parent.getId() || value(candidate) <= value(last)) {
+                    break;
+                }
+                last = candidate;
+            }
+            return last;
+        }
+
+        private int value(Node instant) {
+            Object value = instant.getProperty(VALUE_PROPERTY, null);
+            return value instanceof Number ? ((Number) value).intValue() : Integer.MIN_VALUE;
+        }
+
+        private Node parent(Node instant) {
+            List<Relationship> parents = relationships(instant, INCOMING, CHILD);
+            return parents.size() == 1 ? parents.get(0).getStartNode() : null;
+        }
+
+        private List<Child> loadChildren(Node parent) {
+            List<Child> children = new ArrayList<>();
+
+            for (Relationship relationship : parent.getRelationships(OUTGOING, CHILD)) {
+                Node child = relationship.getEndNode();
+
+                if (child.getDegree(CHILD, INCOMING) > 1) {
+                    issue(TreeIssue.Type.MULTIPLE_PARENTS, child, "instant has " + child.getDegree(CHILD, INCOMING) + " parents");
+                }
+
+                Object value = child.getProperty(VALUE_PROPERTY, null);
+                if (!(value instanceof Number)) {
+                    issue(TreeIssue.Type.MISSING_VALUE, child, "instant has no value");
+                    continue;
+                }
+
+                children.add(new Child(child, ((Number) value).intValue()));
+            }
+
+            children.sort(Comparator.comparingInt((Child c) -> c.value).thenComparingLong(c -> c.node.getId()));
+
+            return children;
+        }
+
+        private List<Child> checkDuplicates(Node parent, List<Child> children) {
+            List<Child> result = new ArrayList<>(children.size());
+
+            for (Child child : children) {
+                Child previous = result.isEmpty() ? null : result.get(result.size() - 1);
+
+                if (previous == null || previous.value != child.value) {
+                    result.add(child);
+                    continue;
+                }
+
+                if (repairing()) {
+                    lock();
+                    merge(parent, child.node, previous.node);
+                } else {
+                    result.add(child);
+                }
+                issue(TreeIssue.Type.DUPLICATE_VALUE, parent, "children " + previous.node.getId() + " and " + child.node.getId() + " both have value " + child.value);
+            }
+
+            return result;
+        }
+
+        private void checkFirstAndLast(Node parent, List<Child> children) {
+            checkPointer(parent, FIRST, children.isEmpty() ? null : children.get(0).node, TreeIssue.Type.WRONG_FIRST);
+            checkPointer(parent, LAST, children.isEmpty() ? null : children.get(children.size() - 1).node, TreeIssue.Type.WRONG_LAST);
+        }
+
+        private void checkPointer(Node parent, RelationshipType type, Node expected, TreeIssue.Type issueType) {
+            List<Relationship> pointers = relationships(parent, OUTGOING, type);
+
+            boolean valid = expected == null ? pointers.isEmpty() : pointers.size() == 1 && pointers.get(0).getEndNode().getId() == expected.getId();
+            if (valid) {
+                return;
+            }
+
+            if (repairing()) {
+                lock();
+                delete(pointers);
+                if (expected != null) {
+                    parent.createRelationshipTo(expected, type);
+                    changed(1);
+                }
+            }
+            issue(issueType, parent, type + " should point to " + (expected == null ? "nothing" : expected.getId()) + ", but there are " + pointers.size() + " " + type + " relationships");
+        }
+
+        private void checkSiblingChain(Node parent, List<Child> children) {
+            Set<Long> ids = new HashSet<>();
+            for (Child child : children) {
+                ids.add(child.node.getId());
+            }
+
+            boolean valid = true;
+            for (int i = 0; i < children.size() && valid; i++) {
+                Node node = children.get(i).node;
+
+                List<Relationship> next = relationships(node, OUTGOING, NEXT);
+                if (i < children.size() - 1) {
+                    valid = next.size() == 1 && next.get(0).getEndNode().getId() == children.get(i + 1).node.getId();
+                } else {
+                    valid = next.size() <= 1 && (next.isEmpty() || !ids.contains(next.get(0).getEndNode().getId()));
+                }
+
+                if (i > 0) {
+                    valid = valid && node.getDegree(NEXT, INCOMING) == 1;
+                }
+            }
+
+            if (valid) {
+                return;
+            }
+
+            if (repairing()) {
+                lock();
+
+                Map<Long, Relationship> toDelete = new HashMap<>();
+                for (int i = 0; i < children.size(); i++) {
+                    Node node = children.get(i).node;
+                    for (Relationship next : node.getRelationships(OUTGOING, NEXT)) {
+                        if (i < children.size() - 1 || ids.contains(next.getEndNode().getId())) {
+                            toDelete.put(next.getId(), next);
+                        }
+                    }
+                    if (i > 0) {
+                        for (Relationship previous : node.getRelationships(INCOMING, NEXT)) {
+                            toDelete.put(previous.getId(), previous);
+                        }
+                    }
+                }
+                delete(toDelete.values());
+
+                for (int i = 0; i < children.size() - 1; i++) {
+                    children.get(i).node.createRelationshipTo(children.get(i + 1).node, NEXT);
+                }
+                changed(children.size() - 1);
+            }
+            issue(TreeIssue.Type.BROKEN_SIBLING_CHAIN, parent, "children are not connected by NEXT relationships in order of their values");
+        }
+
+        private void checkLevelChain(int depth, Node first) {
+            Node previous = levelLast[depth] == null ? null : lastSibling(levelLast[depth]);
+
+            if (previous == null && levelFirst != null) {
+                levelFirst[depth] = first;
+                return;
+            }
+
+            List<Relationship> incoming = relationships(first, INCOMING, NEXT);
+            boolean valid;
+            List<Relationship> outgoing = Collections.emptyList();
+            if (previous == null) {
+                valid = incoming.isEmpty();
+            } else {
+                outgoing = relationships(previous, OUTGOING, NEXT);
+                valid = incoming.size() == 1 && outgoing.size() == 1 && incoming.get(0).getId() == outgoing.get(0).getId();
+            }
+
+            if (valid) {
+                return;
+            }
+
+            if (repairing()) {
+                lock();
+                Map<Long, Relationship> toDelete = new HashMap<>();
+                incoming.forEach(r -> toDelete.put(r.getId(), r));
+                outgoing.forEach(r -> toDelete.put(r.getId(), r));
+                delete(toDelete.values());
+                if (previous != null) {
+                    previous.createRelationshipTo(first, NEXT);
+                    changed(1);
+                }
+            }
+            issue(TreeIssue.Type.BROKEN_LEVEL_CHAIN, first, previous == null
+                    ? "first instant of its level has an incoming NEXT relationship"
+                    : "instant is not the only NEXT of the last instant of the previous parent, " + previous.getId());
+        }
+
+        /**
+         * Merge a duplicate child into another child of the same parent, moving all relationships other than the time
+         * tree structure, which is repaired separately.
+         */
+        private void merge(Node parent, Node duplicate, Node survivor) {
+            List<Relationship> relationships = new ArrayList<>();
+            duplicate.getRelationships().forEach(relationships::add);
+
+            for (Relationship relationship : relationships) {
+                if (relationship.isType(NEXT) || relationship.isType(FIRST) || relationship.isType(LAST) || SkipPointers.isSkipPointer(relationship)
+                        || (relationship.isType(CHILD) && relationship.getStartNode().getId() == parent.getId())) {
+                    relationship.delete();
+                    continue;
+                }
+
+                Relationship copy = relationship.getStartNode().getId() == duplicate.getId()
+                        ? survivor.createRelationshipTo(relationship.getOtherNode(duplicate), relationship.getType())
+                        : relationship.getOtherNode(duplicate).createRelationshipTo(survivor, relationship.getType());
+
+                for (Map.Entry<String, Object> property : relationship.getAllProperties().entrySet()) {
+                    copy.setProperty(property.getKey(), property.getValue());
+                }
+
+                relationship.delete();
+            }
+
+            duplicate.delete();
+            changed(relationships.size() + 1);
+        }
+
+        private void issue(TreeIssue.Type type, Node node, String description) {
+            if (probing) {
+                probedIssues++;
+                return;
+            }
+            report.issue(new TreeIssue(type, node.getId(), description, repair && type.isRepairable()));
+        }
+
+        private void lock() {
+            if (!locked) {
+                tx.acquireWriteLock(root);
+                locked = true;
+            }
+        }
+
+        private void delete(Collection<Relationship> relationships) {
+            for (Relationship relationship : relationships) {
+                relationship.delete();
+            }
+            changed(relationships.size());
+        }
+
+        private void changed(int count) {
+            changes += count;
+        }
+
+        /**
+         * Commit the changes made so far if there are enough of them. Only called between parents, so that a
+         * committed batch never contains a half-repaired parent.
+         */
+        private void commitIfNeeded() {
+            if (changes >= batchSize) {
+                tx.success();
+                tx.close();
+                tx = database.beginTx();
+                locked = false;
+                changes = 0;
+            }
+        }
+
+        private List<Relationship> relationships(Node node, Direction direction, RelationshipType type) {
+            List<Relationship> result = new ArrayList<>(1);
+            node.getRelationships(direction, type).forEach(result::add);
+            return result;
+        }
+    }
+
+    private static class Child {
+
+        private final Node node;
+        private final int value;
+
+        Child(Node node, int value) {
+            this.node = node;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.verify;
+
+/**
+ * A structural problem found in a time tree by the {@link TimeTreeVerifier}.
+ */
+public class TreeIssue {
+
+    /**
+     * Kinds of structural problems.
+     */
+    public enum Type {
+
+        /**
+         * An instant has more than one parent (incoming CHILD relationship). Not repaired.
+         */
+        MULTIPLE_PARENTS(false),
+
+        /**
+         * An instant has no value, so it cannot be placed among its siblings. Not repaired.
+         */
+        MISSING_VALUE(false),
+
+        /**
+         * Two children of the same parent have the same value. Repaired by merging them.
+         */
+        DUPLICATE_VALUE(true),
+
+        /**
+         * A parent's FIRST relationship is missing, duplicated, or does not point to its child with the lowest value.
+         */
+        WRONG_FIRST(true),
+
+        /**
+         * A parent's LAST relationship is missing, duplicated, or does not point to its child with the highest value.
+         */
+        WRONG_LAST(true),
+
+        /**
+         * Children of a parent are not connected by NEXT relationships in increasing order of their values.
+         */
+        BROKEN_SIBLING_CHAIN(true),
+
+        /**
+         * The last child of a parent is not connected by a NEXT relationship to the first child of the next parent on
+         * the same level, or the first/last instant of a level has a NEXT relationship it should not have.
+         */
+        BROKEN_LEVEL_CHAIN(true);
+
+        private final boolean repairable;
+
+        Type(boolean repairable) {
+            this.repairable = repairable;
+        }
+
+        /**
+         * @return <code>true</code> iff the {@link TimeTreeVerifier} can repair this kind of problem.
+         */
+        public boolean isRepairable() {
+            return repairable;
+        }
+    }
+
+    private final Type type;
+    private final long nodeId;
+    private final String description;
+    private final boolean repaired;
+
+    public TreeIssue(Type type, long nodeId, String description, boolean repaired) {
+        this.type = type;
+        this.nodeId = nodeId;
+        this.description = description;
+        this.repaired = repaired;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return ID of the node the problem was found at, typically the parent of the affected instants.
+     */
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return <code>true</code> iff the problem has been repaired.
+     */
+    public boolean isRepaired() {
+        return repaired;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return type + " at node " + nodeId + ": " + description + (repaired ? " (repaired)" : "");
+    }
+}
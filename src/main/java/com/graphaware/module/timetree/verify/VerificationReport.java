@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.verify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of verifying a time tree. To keep memory bounded on large, badly damaged trees, only a limited number of
+ * issues is retained; all of them are counted.
+ */
+public class VerificationReport {
+
+    private final int maxIssues;
+    private final List<TreeIssue> issues = new ArrayList<>();
+    private final Map<TreeIssue.Type, Long> issueCounts = new EnumMap<>(TreeIssue.Type.class);
+    private long instantsVisited;
+    private long repaired;
+
+    public VerificationReport(int maxIssues) {
+        this.maxIssues = maxIssues;
+    }
+
+    void instantVisited() {
+        instantsVisited++;
+    }
+
+    void issue(TreeIssue issue) {
+        issueCounts.merge(issue.getType(), 1L, Long::sum);
+        if (issue.isRepaired()) {
+            repaired++;
+        }
+        if (issues.size() < maxIssues) {
+            issues.add(issue);
+        }
+    }
+
+    /**
+     * Add the results of another report, e.g. of a subtree verified separately, to this one.
+     *
+     * @param other report to add.
+     */
+    void merge(VerificationReport other) {
+        instantsVisited += other.instantsVisited;
+        repaired += other.repaired;
+        other.issueCounts.forEach((type, count) -> issueCounts.merge(type, count, Long::sum));
+        for (TreeIssue issue : other.issues) {
+            if (issues.size() >= maxIssues) {
+                break;
+            }
+            issues.add(issue);
+        }
+    }
+
+    /**
+     * @return <code>true</code> iff no issues have been found.
+     */
+    public boolean isValid() {
+        return issueCounts.isEmpty();
+    }
+
+    /**
+     * @return number of instants visited.
+     */
+    public long getInstantsVisited() {
+        return instantsVisited;
+    }
+
+    /**
+     * @return total number of issues found.
+     */
+    public long getIssueCount() {
+        long result = 0;
+        for (long count : issueCounts.values()) {
+            result += count;
+        }
+        return result;
+    }
+
+    /**
+     * @return number of issues found, per type.
+     */
+    public Map<TreeIssue.Type, Long> getIssueCounts() {
+        return Collections.unmodifiableMap(issueCounts);
+    }
+
+    /**
+     * @return number of issues repaired.
+     */
+    public long getRepairedCount() {
+        return repaired;
+    }
+
+    /**
+     * @return issues found, at most the maximum number given at construction time.
+     */
+    public List<TreeIssue> getIssues() {
+        return Collections.unmodifiableList(issues);
+    }
+}
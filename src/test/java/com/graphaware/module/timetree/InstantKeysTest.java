@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.CalendarArithmetic;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.domain.TimeTreeLabels;
+import com.graphaware.module.timetree.metrics.TimeTreeMetrics;
+import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.CHILD;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+
+/**
+ * Test for {@link InstantKeys}.
+ */
+public class InstantKeysTest extends EmbeddedDatabaseIntegrationTest {
+
+    private static final DateTimeZone PRAGUE = DateTimeZone.forID("Europe/Prague");
+    private static final TimeInstant INSTANT = TimeInstant.instant(new DateTime(2016, 3, 27, 14, 35, 12, 345, PRAGUE).getMillis())
+            .with(PRAGUE)
+            .with(Resolution.MILLISECOND);
+
+    @Test
+    public void newInstantsShouldBeKeyedAndFoundByKey() {
+        enableKeys();
+        TimeTree timeTree = new SingleTimeTree(getDatabase());
+
+        Node instant;
+        try (Transaction tx = getDatabase().beginTx()) {
+            instant = timeTree.getOrCreateInstant(INSTANT);
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            long localTime = CalendarArithmetic.toLocal(INSTANT.getTime(), PRAGUE);
+            Node current = instant;
+            for (int i = Resolution.MILLISECOND.ordinal(); i >= 0; i--) {
+                Resolution resolution = Resolution.values()[i];
+                assertEquals(CalendarArithmetic.startOf(localTime, resolution), current.getProperty(InstantKeys.KEY_PROPERTY));
+                current = current.getSingleRelationship(CHILD, INCOMING).getStartNode();
+            }
+
+            TimeTreeMetrics.getInstance().reset();
+            assertEquals(instant, timeTree.getInstant(INSTANT));
+            assertEquals(instant, timeTree.getInstantAtOrAfter(INSTANT));
+            assertEquals(instant, timeTree.getOrCreateInstant(INSTANT));
+            assertEquals(0L, (long) TimeTreeMetrics.getInstance().snapshot().get("descents"));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void keysShouldNotBeSharedAcrossTrees() {
+        enableKeys();
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            TimeTree first = new CustomRootTimeTree(getDatabase().createNode());
+            TimeTree second = new CustomRootTimeTree(getDatabase().createNode());
+
+            Node firstInstant = first.getOrCreateInstant(INSTANT);
+            assertNull(second.getInstant(INSTANT));
+
+            Node secondInstant = second.getOrCreateInstant(INSTANT);
+            assertNotEquals(firstInstant, secondInstant);
+            assertEquals(firstInstant, first.getInstant(INSTANT));
+            assertEquals(secondInstant, second.getInstant(INSTANT));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void existingInstantsShouldBeKeyedByPopulation() {
+        TimeTree timeTree = new SingleTimeTree(getDatabase());
+
+        Node instant;
+        try (Transaction tx = getDatabase().beginTx()) {
+            instant = timeTree.getOrCreateInstant(INSTANT);
+            timeTree.getOrCreateInstant(INSTANT.with(Resolution.DAY).next());
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertFalse(instant.hasProperty(InstantKeys.KEY_PROPERTY));
+            tx.success();
+        }
+
+        enableKeys();
+        assertEquals(8, InstantKeys.forDatabase(getDatabase()).populate(2));
+        assertEquals(0, InstantKeys.forDatabase(getDatabase()).populate(2));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            long localTime = CalendarArithmetic.toLocal(INSTANT.getTime(), PRAGUE);
+            assertEquals(localTime, instant.getProperty(InstantKeys.KEY_PROPERTY));
+            Relationship toParent = instant.getSingleRelationship(CHILD, INCOMING);
+            assertEquals(CalendarArithmetic.startOf(localTime, Resolution.SECOND), toParent.getStartNode().getProperty(InstantKeys.KEY_PROPERTY));
+
+            TimeTreeMetrics.getInstance().reset();
+            assertEquals(instant, timeTree.getInstant(INSTANT));
+            assertEquals(0L, (long) TimeTreeMetrics.getInstance().snapshot().get("descents"));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void instantsKeyedWithoutRootShouldBeScopedByPopulation() {
+        enableKeys();
+        TimeTree timeTree = new SingleTimeTree(getDatabase());
+
+        Node instant;
+        try (Transaction tx = getDatabase().beginTx()) {
+            instant = timeTree.getOrCreateInstant(INSTANT);
+            Node current = instant;
+            for (int i = Resolution.MILLISECOND.ordinal(); i >= 0; i--) {
+                //as keyed before keys were scoped to their roots
+                current.removeProperty(InstantKeys.ROOT_PROPERTY);
+                current = current.getSingleRelationship(CHILD, INCOMING).getStartNode();
+            }
+            tx.success();
+        }
+
+        assertEquals(7, InstantKeys.forDatabase(getDatabase()).populate(3));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(getDatabase().findNodes(TimeTreeLabels.TimeTreeRoot).next().getId(), instant.getProperty(InstantKeys.ROOT_PROPERTY));
+
+            TimeTreeMetrics.getInstance().reset();
+            assertEquals(instant, timeTree.getInstant(INSTANT));
+            assertEquals(0L, (long) TimeTreeMetrics.getInstance().snapshot().get("descents"));
+            tx.success();
+        }
+    }
+
+    private void enableKeys() {
+        InstantKeys.forDatabase(getDatabase()).enable();
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            getDatabase().schema().awaitIndexesOnline(10, TimeUnit.SECONDS);
+            tx.success();
+        }
+    }
+}
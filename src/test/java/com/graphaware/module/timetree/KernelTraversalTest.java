@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.NEXT;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.BOTH;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Test for {@link KernelTraversal}, comparing its results with the Core API traversal.
+ */
+public class KernelTraversalTest extends EmbeddedDatabaseIntegrationTest {
+
+    private static final long MINUTE = new DateTime(2016, 3, 27, 14, 35, DateTimeZone.UTC).getMillis();
+    private static final RelationshipType AT = RelationshipType.withName("AT");
+    private static final RelationshipType CREATED = RelationshipType.withName("CREATED");
+
+    @After
+    public void disableTraversal() {
+        KernelTraversal.forDatabase(getDatabase()).disable();
+    }
+
+    @Test
+    public void instantsShouldBeFoundAsByCoreApi() {
+        SkipPointers.forDatabase(getDatabase()).enable();
+        TimeTree timeTree = new SingleTimeTree(getDatabase());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int ms = 0; ms < 1000; ms += 3) {
+                timeTree.getOrCreateInstant(millisecond(ms));
+            }
+            tx.success();
+        }
+
+        List<Node> core = getInstants(timeTree);
+        KernelTraversal.forDatabase(getDatabase()).enable();
+        List<Node> kernel = getInstants(timeTree);
+
+        assertEquals(core, kernel);
+        for (int ms = 0; ms < 1000; ms++) {
+            assertEquals(ms % 3 == 0, kernel.get(ms) != null);
+        }
+    }
+
+    @Test
+    public void eventsShouldBeCollectedAsByCoreApi() {
+        TimeTree timeTree = new SingleTimeTree(getDatabase());
+        TimedEvents timedEvents = new TimeTreeBackedEvents(timeTree);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int i = 0; i < 200; i++) {
+                //the first second gets enough events to become a dense node
+                TimeInstant instant = millisecond(i % 2 == 0 ? 0 : i * 1000).with(Resolution.SECOND);
+                timedEvents.attachEvent(getDatabase().createNode(), i % 3 == 0 ? CREATED : AT, instant);
+            }
+            timedEvents.attachEvent(getDatabase().createNode(), AT, OUTGOING, millisecond(0).with(Resolution.MINUTE));
+            tx.success();
+        }
+
+        TimeInstant start = millisecond(0).with(Resolution.SECOND);
+        TimeInstant end = millisecond(200_000).with(Resolution.SECOND);
+
+        List<List<Long>> core = getEvents(timedEvents, start, end);
+        KernelTraversal.forDatabase(getDatabase()).enable();
+        List<List<Long>> kernel = getEvents(timedEvents, start, end);
+
+        assertEquals(core, kernel);
+        assertEquals(200, core.get(0).size());
+        assertEquals(67, core.get(1).size());
+        assertEquals(1, core.get(2).size());
+    }
+
+    @Test(timeout = 10_000)
+    public void brokenNextChainShouldNotBeWalkedPast() {
+        TimeTree timeTree = new SingleTimeTree(getDatabase());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node first = timeTree.getOrCreateInstant(millisecond(0));
+            timeTree.getOrCreateInstant(millisecond(3));
+            timeTree.getOrCreateInstant(millisecond(6));
+            first.getSingleRelationship(NEXT, OUTGOING).delete();
+            tx.success();
+        }
+
+        KernelTraversal.forDatabase(getDatabase()).enable();
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertNull(timeTree.getInstant(millisecond(5)));
+            assertNotNull(timeTree.getInstant(millisecond(6)));
+            tx.success();
+        }
+    }
+
+    private List<Node> getInstants(TimeTree timeTree) {
+        List<Node> result = new ArrayList<>();
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int ms = 0; ms < 1000; ms++) {
+                result.add(timeTree.getInstant(millisecond(ms)));
+            }
+            tx.success();
+        }
+        return result;
+    }
+
+    private List<List<Long>> getEvents(TimedEvents timedEvents, TimeInstant start, TimeInstant end) {
+        List<List<Long>> result = new ArrayList<>();
+        try (Transaction tx = getDatabase().beginTx()) {
+            result.add(eventIds(timedEvents.getEvents(start, end)));
+            result.add(eventIds(timedEvents.getEvents(start, end, Collections.singleton(CREATED))));
+            result.add(eventIds(timedEvents.getEvents(start.with(Resolution.MINUTE), Collections.singleton(AT), OUTGOING)));
+            result.add(eventIds(timedEvents.getEvents(start.with(Resolution.MINUTE), null, BOTH)));
+            tx.success();
+        }
+        return result;
+    }
+
+    private List<Long> eventIds(List<Event> events) {
+        List<Long> result = new ArrayList<>();
+        for (Event event : events) {
+            result.add(event.getNode().getId());
+            assertNotNull(event.getRelationshipType());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private TimeInstant millisecond(int ms) {
+        return TimeInstant.instant(MINUTE + ms).with(DateTimeZone.UTC).with(Resolution.MILLISECOND);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.domain.TimeTreeLabels;
+import com.graphaware.module.timetree.verify.TimeTreeVerifier;
+import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.graphaware.module.timetree.domain.TimeTreeLabels.Second;
+import static org.junit.Assert.*;
+import static org.neo4j.helpers.collection.Iterators.count;
+
+/**
+ * Test for {@link OptimisticCreation}.
+ */
+public class OptimisticCreationTest extends EmbeddedDatabaseIntegrationTest {
+
+    private static final long START = new DateTime(2016, 3, 27, 23, 58, DateTimeZone.UTC).getMillis();
+
+    @After
+    public void disableOptimisticCreation() {
+        OptimisticCreation.forDatabase(getDatabase()).disable();
+    }
+
+    @Test
+    public void existingInstantsShouldBeFound() {
+        TimeTree timeTree = new SingleTimeTree(getDatabase());
+
+        Node instant;
+        try (Transaction tx = getDatabase().beginTx()) {
+            instant = timeTree.getOrCreateInstant(second(17));
+            tx.success();
+        }
+
+        OptimisticCreation.forDatabase(getDatabase()).enable();
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(instant, timeTree.getOrCreateInstant(second(17)));
+            assertEquals(1, count(getDatabase().findNodes(Second)));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void concurrentCreationShouldResultInValidTree() throws Exception {
+        OptimisticCreation.forDatabase(getDatabase()).enable();
+        TimeTree timeTree = new SingleTimeTree(getDatabase());
+
+        List<Integer> seconds = new ArrayList<>();
+        for (int i = 0; i < 240; i++) {
+            seconds.add(i);
+            seconds.add(i);
+        }
+        Collections.shuffle(seconds, new Random(42));
+
+        ExecutorService callers = Executors.newFixedThreadPool(16);
+        List<Future<Long>> results = new ArrayList<>();
+        for (int s : seconds) {
+            results.add(callers.submit(() -> {
+                while (true) {
+                    try (Transaction tx = getDatabase().beginTx()) {
+                        long id = timeTree.getOrCreateInstant(second(s)).getId();
+                        tx.success();
+                        return id;
+                    } catch (DeadlockDetectedException e) {
+                        //retry
+                    }
+                }
+            }));
+        }
+
+        Set<Long> ids = new HashSet<>();
+        for (Future<Long> result : results) {
+            ids.add(result.get());
+        }
+        callers.shutdown();
+
+        assertEquals(240, ids.size());
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(240, count(getDatabase().findNodes(Second)));
+            assertEquals(240, timeTree.getInstants(second(0), second(239)).size());
+            assertTrue(new TimeTreeVerifier(getDatabase()).verify(getDatabase().findNodes(TimeTreeLabels.TimeTreeRoot).next()).isValid());
+            tx.success();
+        }
+    }
+
+    @Test
+    public void rangesShouldBeCreatedConcurrentlyWithSingleInstants() throws Exception {
+        OptimisticCreation.forDatabase(getDatabase()).enable();
+        TimeTree timeTree = new SingleTimeTree(getDatabase());
+
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 120; i += 10) {
+            int from = i;
+            results.add(callers.submit(() -> retryOnDeadlock(() -> timeTree.getOrCreateInstants(second(from), second(from + 9)))));
+            results.add(callers.submit(() -> retryOnDeadlock(() -> timeTree.getOrCreateInstant(second(from + 5)))));
+        }
+
+        for (Future<?> result : results) {
+            result.get();
+        }
+        callers.shutdown();
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(120, count(getDatabase().findNodes(Second)));
+            assertTrue(new TimeTreeVerifier(getDatabase()).verify(getDatabase().findNodes(TimeTreeLabels.TimeTreeRoot).next()).isValid());
+            tx.success();
+        }
+    }
+
+    private void retryOnDeadlock(Runnable work) {
+        while (true) {
+            try (Transaction tx = getDatabase().beginTx()) {
+                work.run();
+                tx.success();
+                return;
+            } catch (DeadlockDetectedException e) {
+                //retry
+            }
+        }
+    }
+
+    private static TimeInstant second(int second) {
+        return TimeInstant.instant(START + second * 1000L).with(Resolution.SECOND);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.metrics.TimeTreeMetrics;
+import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link RetryingTimeTree}.
+ */
+public class RetryingTimeTreeTest extends EmbeddedDatabaseIntegrationTest {
+
+    private static final TimeInstant DAY = TimeInstant.instant(new DateTime(2016, 3, 27, 0, 0, DateTimeZone.UTC).getMillis()).with(Resolution.DAY);
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newSingleThreadExecutor();
+        TimeTreeMetrics.getInstance().reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    @Test
+    public void instantShouldBeCommittedBeforeItIsReturned() {
+        TimeTree timeTree = new RetryingTimeTree(getDatabase(), new SingleTimeTree(getDatabase()), executor, 3);
+
+        Node instant;
+        try (Transaction tx = getDatabase().beginTx()) {
+            instant = timeTree.getOrCreateInstant(DAY);
+            tx.failure();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(instant, new SingleTimeTree(getDatabase()).getInstant(DAY));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void transientFailuresShouldBeRetried() {
+        FailingTimeTree failing = new FailingTimeTree(new SingleTimeTree(getDatabase()), 2);
+        TimeTree timeTree = new RetryingTimeTree(getDatabase(), failing, executor, 3);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertNotNull(timeTree.getOrCreateInstant(DAY));
+            tx.success();
+        }
+
+        assertEquals(3, failing.calls.get());
+        assertEquals(2L, (long) TimeTreeMetrics.getInstance().snapshot().get("transientFailureRetries"));
+        assertEquals(0L, (long) TimeTreeMetrics.getInstance().snapshot().get("transientFailureGiveUps"));
+    }
+
+    @Test
+    public void instantShouldBeCreatedInCallingTransactionWhenRetriesRunOut() {
+        FailingTimeTree failing = new FailingTimeTree(new SingleTimeTree(getDatabase()), 2);
+        TimeTree timeTree = new RetryingTimeTree(getDatabase(), failing, executor, 1);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertNotNull(timeTree.getOrCreateInstant(DAY));
+            tx.success();
+        }
+
+        assertEquals(3, failing.calls.get());
+        assertEquals(1L, (long) TimeTreeMetrics.getInstance().snapshot().get("transientFailureRetries"));
+        assertEquals(1L, (long) TimeTreeMetrics.getInstance().snapshot().get("transientFailureGiveUps"));
+    }
+
+    @Test(timeout = RetryingTimeTree.DEFAULT_TIMEOUT)
+    public void adjacentInstantsShouldBeAttachedToInOneTransactionWithoutWaiting() {
+        TimedEvents timedEvents = new TimeTreeBackedEvents(new RetryingTimeTree(getDatabase(), new SingleTimeTree(getDatabase()), executor, 3));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            TimeInstant day = DAY;
+            for (int i = 0; i < 5; i++) {
+                assertTrue(timedEvents.attachEvent(getDatabase().createNode(), RelationshipType.withName("AT"), day));
+                day = day.next();
+            }
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            List<Node> instants = new SingleTimeTree(getDatabase()).getInstants(DAY, DAY.next().next().next().next());
+            assertEquals(5, instants.size());
+            for (Node instant : instants) {
+                assertEquals(1, instant.getDegree(RelationshipType.withName("AT")));
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void instantsNotLinkedToThoseOfTheCallerShouldBeCreatedSeparately() {
+        TimeTree single = new SingleTimeTree(getDatabase());
+        TimeInstant day2 = DAY.next();
+        TimeInstant day3 = day2.next();
+        TimeInstant day4 = day3.next();
+        TimeInstant day5 = day4.next();
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            single.getOrCreateInstant(DAY);
+            single.getOrCreateInstant(day3);
+            single.getOrCreateInstant(day5);
+            tx.success();
+        }
+
+        TimedEvents timedEvents = new TimeTreeBackedEvents(new RetryingTimeTree(getDatabase(), single, executor, 3));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertTrue(timedEvents.attachEvent(getDatabase().createNode(), RelationshipType.withName("AT"), day2));
+            assertTrue(timedEvents.attachEvent(getDatabase().createNode(), RelationshipType.withName("AT"), day4));
+            tx.failure();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertNotNull(single.getInstant(day2));
+            assertNotNull(single.getInstant(day4));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void backoffShouldBeBounded() {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            long backoff = RetryingTimeTree.backoff(attempt);
+            assertTrue(backoff >= 0);
+            assertTrue(backoff <= Math.min(RetryingTimeTree.MAX_BACKOFF, RetryingTimeTree.BASE_BACKOFF << Math.min(attempt, 20)));
+        }
+    }
+
+    /**
+     * {@link TimeTree} failing to create instants with a deadlock a given number of times.
+     */
+    private static class FailingTimeTree implements TimeTree {
+
+        private final TimeTree delegate;
+        private final int failures;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private FailingTimeTree(TimeTree delegate, int failures) {
+            this.delegate = delegate;
+            this.failures = failures;
+        }
+
+        @Override
+        public Node getOrCreateInstant(TimeInstant timeInstant) {
+            if (calls.incrementAndGet() <= failures) {
+                throw new DeadlockDetectedException("Test deadlock");
+            }
+            return delegate.getOrCreateInstant(timeInstant);
+        }
+
+        @Override
+        public Node getInstant(TimeInstant timeInstant) {
+            return delegate.getInstant(timeInstant);
+        }
+
+        @Override
+        public Node getInstantAtOrAfter(TimeInstant timeInstant) {
+            return delegate.getInstantAtOrAfter(timeInstant);
+        }
+
+        @Override
+        public Node getInstantAtOrBefore(TimeInstant timeInstant) {
+            return delegate.getInstantAtOrBefore(timeInstant);
+        }
+
+        @Override
+        public List<Node> getInstants(TimeInstant startTime, TimeInstant endTime) {
+            return delegate.getInstants(startTime, endTime);
+        }
+
+        @Override
+        public List<Node> getOrCreateInstants(TimeInstant startTime, TimeInstant endTime) {
+            return delegate.getOrCreateInstants(startTime, endTime);
+        }
+
+        @Override
+        public void removeAll() {
+            delegate.removeAll();
+        }
+
+        @Override
+        public void removeInstant(Node instantNode) {
+            delegate.removeInstant(instantNode);
+        }
+    }
+}
@@ -19,6 +19,8 @@ package com.graphaware.module.timetree;
 import com.graphaware.common.util.EntityUtils;
 import com.graphaware.module.timetree.domain.TimeInstant;
 import com.graphaware.module.timetree.domain.TimeTreeLabels;
+import com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes;
+import com.graphaware.module.timetree.metrics.TimeTreeMetrics;
 import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -35,6 +37,7 @@ import static com.graphaware.module.timetree.domain.Resolution.*;
 import static com.graphaware.test.unit.GraphUnit.assertEmpty;
 import static com.graphaware.test.unit.GraphUnit.assertSameGraph;
 import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.OUTGOING;
 import static org.neo4j.graphdb.RelationshipType.withName;
 
 /**
@@ -475,6 +478,65 @@ public class SingleTimeTreeTest extends EmbeddedDatabaseIntegrationTest {
         }
     }
 
+    @Test
+    public void rangeShouldBeCreatedAroundExistingInstants() {
+        //Given
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(TimeInstant.instant(new DateTime(2015, 2, 16, 1, 0, UTC).getMillis()).with(HOUR));
+            timeTree.getOrCreateInstant(TimeInstant.instant(new DateTime(2015, 2, 16, 3, 0, UTC).getMillis()).with(HOUR));
+            tx.success();
+        }
+
+        //When
+        List<Node> nodes;
+        try (Transaction tx = getDatabase().beginTx()) {
+            nodes = timeTree.getOrCreateInstants(TimeInstant.instant(new DateTime(2015, 2, 15, 23, 0, UTC).getMillis()).with(HOUR), TimeInstant.instant(new DateTime(2015, 2, 16, 4, 0, UTC).getMillis()).with(HOUR));
+            tx.success();
+        }
+
+        //Then
+        assertEquals(6, nodes.size());
+
+        assertSameGraph(getDatabase(), "CREATE " +
+                "(root:TimeTreeRoot)," +
+                "(y2015:Year {value: 2015})," +
+                "(m2:Month {value: 2})," +
+                "(d15:Day {value: 15})," +
+                "(d16:Day {value: 16})," +
+                "(h23:Hour {value: 23})," +
+                "(h0:Hour {value: 0})," +
+                "(h1:Hour {value: 1})," +
+                "(h2:Hour {value: 2})," +
+                "(h3:Hour {value: 3})," +
+                "(h4:Hour {value: 4})," +
+                "(root)-[:CHILD]->(y2015)," +
+                "(root)-[:FIRST]->(y2015)," +
+                "(root)-[:LAST]->(y2015)," +
+                "(y2015)-[:CHILD]->(m2)," +
+                "(y2015)-[:FIRST]->(m2)," +
+                "(y2015)-[:LAST]->(m2)," +
+                "(m2)-[:CHILD]->(d15)," +
+                "(m2)-[:CHILD]->(d16)," +
+                "(m2)-[:FIRST]->(d15)," +
+                "(m2)-[:LAST]->(d16)," +
+                "(d15)-[:NEXT]->(d16)," +
+                "(d15)-[:CHILD]->(h23)," +
+                "(d15)-[:FIRST]->(h23)," +
+                "(d15)-[:LAST]->(h23)," +
+                "(d16)-[:CHILD]->(h0)," +
+                "(d16)-[:CHILD]->(h1)," +
+                "(d16)-[:CHILD]->(h2)," +
+                "(d16)-[:CHILD]->(h3)," +
+                "(d16)-[:CHILD]->(h4)," +
+                "(d16)-[:FIRST]->(h0)," +
+                "(d16)-[:LAST]->(h4)," +
+                "(h23)-[:NEXT]->(h0)," +
+                "(h0)-[:NEXT]->(h1)," +
+                "(h1)-[:NEXT]->(h2)," +
+                "(h2)-[:NEXT]->(h3)," +
+                "(h3)-[:NEXT]->(h4)");
+    }
+
     @Test
     public void trivialTreeShouldBeCreatedWhenFirstDayIsRequested() {
         //Given
@@ -1309,6 +1371,158 @@ public class SingleTimeTreeTest extends EmbeddedDatabaseIntegrationTest {
                 "(h23)-[:NEXT]->(h0)");
     }
 
+    @Test
+    public void appendingInstantsShouldNotWalkSiblings() {
+        long minute = new DateTime(2015, 2, 18, 10, 30, UTC).getMillis();
+
+        TimeTreeMetrics.getInstance().reset();
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int second = 0; second < 60; second++) {
+                timeTree.getOrCreateInstant(TimeInstant.instant(minute + second * 1000).with(UTC).with(SECOND));
+            }
+            tx.success();
+        }
+        assertEquals(0L, (long) TimeTreeMetrics.getInstance().snapshot().get("siblingSteps"));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.removeInstant(timeTree.getInstant(TimeInstant.instant(minute + 59_000).with(UTC).with(SECOND)));
+            timeTree.removeInstant(timeTree.getInstant(TimeInstant.instant(minute + 50_000).with(UTC).with(SECOND)));
+            assertEquals(50, timeTree.getOrCreateInstant(TimeInstant.instant(minute + 50_000).with(UTC).with(SECOND)).getProperty(VALUE_PROPERTY));
+            assertEquals(59, timeTree.getOrCreateInstant(TimeInstant.instant(minute + 59_000).with(UTC).with(SECOND)).getProperty(VALUE_PROPERTY));
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            List<Node> seconds = timeTree.getInstants(TimeInstant.instant(minute).with(UTC).with(SECOND), TimeInstant.instant(minute + 59_000).with(UTC).with(SECOND));
+            assertEquals(60, seconds.size());
+            for (int second = 0; second < 60; second++) {
+                assertEquals(second, seconds.get(second).getProperty(VALUE_PROPERTY));
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void existingInstantShouldBeReturnedWithoutLockingRoot() {
+        TimeInstant instant = TimeInstant.instant(new DateTime(2015, 2, 18, 10, 30, 15, UTC).getMillis()).with(UTC).with(SECOND);
+
+        Node created;
+        try (Transaction tx = getDatabase().beginTx()) {
+            created = timeTree.getOrCreateInstant(instant);
+            tx.success();
+        }
+
+        TimeTreeMetrics.getInstance().reset();
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(created, timeTree.getOrCreateInstant(instant));
+            tx.success();
+        }
+
+        assertEquals(0L, (long) TimeTreeMetrics.getInstance().snapshot().get("rootLockWait.count"));
+        assertEquals(0L, (long) TimeTreeMetrics.getInstance().snapshot().get("nodesCreated"));
+    }
+
+    @Test
+    public void lookupWithoutLocksShouldNotReturnChildOfAnotherParent() {
+        TimeInstant first = TimeInstant.instant(new DateTime(2015, 2, 18, 10, 30, 10, UTC).getMillis()).with(UTC).with(SECOND);
+        TimeInstant other = TimeInstant.instant(new DateTime(2015, 2, 18, 10, 31, 20, UTC).getMillis()).with(UTC).with(SECOND);
+        TimeInstant missing = TimeInstant.instant(new DateTime(2015, 2, 18, 10, 30, 20, UTC).getMillis()).with(UTC).with(SECOND);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node parent = SingleTimeTree.parent(timeTree.getOrCreateInstant(first));
+            timeTree.getOrCreateInstant(other);
+
+            //what a walk without locks may see while the last child of the parent is being replaced
+            parent.getSingleRelationship(TimeTreeRelationshipTypes.LAST, OUTGOING).delete();
+            Node detached = getDatabase().createNode(TimeTreeLabels.Second);
+            detached.setProperty(VALUE_PROPERTY, 59);
+            parent.createRelationshipTo(detached, TimeTreeRelationshipTypes.LAST);
+
+            assertNull(((SingleTimeTree) timeTree).findExistingInstant(missing));
+            tx.failure();
+        }
+    }
+
+    @Test
+    public void lookupWithoutLocksShouldTreatBrokenNextChainAsNotFound() {
+        TimeInstant first = TimeInstant.instant(new DateTime(2015, 2, 18, 10, 30, 10, UTC).getMillis()).with(UTC).with(SECOND);
+        TimeInstant last = TimeInstant.instant(new DateTime(2015, 2, 18, 10, 30, 40, UTC).getMillis()).with(UTC).with(SECOND);
+        TimeInstant missing = TimeInstant.instant(new DateTime(2015, 2, 18, 10, 30, 20, UTC).getMillis()).with(UTC).with(SECOND);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node firstNode = timeTree.getOrCreateInstant(first);
+            timeTree.getOrCreateInstant(last);
+            firstNode.getSingleRelationship(TimeTreeRelationshipTypes.NEXT, OUTGOING).delete();
+
+            assertNull(((SingleTimeTree) timeTree).findExistingInstant(missing));
+            tx.failure();
+        }
+    }
+
+    @Test
+    public void lookupWithoutLocksShouldTreatMissingLastAsNotFound() {
+        TimeInstant first = TimeInstant.instant(new DateTime(2015, 2, 18, 10, 30, 10, UTC).getMillis()).with(UTC).with(SECOND);
+        TimeInstant missing = TimeInstant.instant(new DateTime(2015, 2, 18, 10, 30, 20, UTC).getMillis()).with(UTC).with(SECOND);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node parent = SingleTimeTree.parent(timeTree.getOrCreateInstant(first));
+
+            //what a walk without locks may see while the last child of the parent is being replaced
+            parent.getSingleRelationship(TimeTreeRelationshipTypes.LAST, OUTGOING).delete();
+
+            assertNull(((SingleTimeTree) timeTree).findExistingInstant(missing));
+            tx.failure();
+        }
+    }
+
+    @Test
+    public void currentLeafShouldNotBeUsedAfterRollback() {
+        TimeInstant hour = TimeInstant.instant(new DateTime(2015, 2, 18, 9, 0, UTC).getMillis()).with(UTC).with(HOUR);
+        TimeInstant first = TimeInstant.instant(new DateTime(2015, 2, 18, 10, 30, UTC).getMillis()).with(UTC).with(MINUTE);
+        TimeInstant second = TimeInstant.instant(new DateTime(2015, 2, 18, 10, 31, UTC).getMillis()).with(UTC).with(MINUTE);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(hour);
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(first);
+            tx.failure();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(second);
+            tx.success();
+        }
+
+        assertSameGraph(getDatabase(), "CREATE " +
+                "(root:TimeTreeRoot)," +
+                "(y2015:Year {value: 2015})," +
+                "(m2:Month {value: 2})," +
+                "(d18:Day {value: 18})," +
+                "(h9:Hour {value: 9})," +
+                "(h10:Hour {value: 10})," +
+                "(min31:Minute {value: 31})," +
+                "(root)-[:CHILD]->(y2015)," +
+                "(root)-[:FIRST]->(y2015)," +
+                "(root)-[:LAST]->(y2015)," +
+                "(y2015)-[:CHILD]->(m2)," +
+                "(y2015)-[:FIRST]->(m2)," +
+                "(y2015)-[:LAST]->(m2)," +
+                "(m2)-[:CHILD]->(d18)," +
+                "(m2)-[:FIRST]->(d18)," +
+                "(m2)-[:LAST]->(d18)," +
+                "(d18)-[:CHILD]->(h9)," +
+                "(d18)-[:CHILD]->(h10)," +
+                "(d18)-[:FIRST]->(h9)," +
+                "(d18)-[:LAST]->(h10)," +
+                "(h9)-[:NEXT]->(h10)," +
+                "(h10)-[:CHILD]->(min31)," +
+                "(h10)-[:FIRST]->(min31)," +
+                "(h10)-[:LAST]->(min31)");
+    }
+
     private long dateToMillis(int year, int month, int day) {
         return dateToDateTime(year, month, day).getMillis();
     }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.metrics.TimeTreeMetrics;
+import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.graphaware.module.timetree.domain.TimeTreeLabels.Day;
+import static com.graphaware.test.unit.GraphUnit.assertSameGraph;
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.helpers.collection.Iterators.count;
+
+/**
+ * Unit test for {@link SingleWriterTimeTree}.
+ */
+public class SingleWriterTimeTreeTest extends EmbeddedDatabaseIntegrationTest {
+
+    private ExecutorService writerExecutor;
+    private TimeTree timeTree;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        writerExecutor = Executors.newSingleThreadExecutor();
+        SingleTimeTree delegate = new SingleTimeTree(getDatabase());
+        timeTree = new SingleWriterTimeTree(getDatabase(), delegate, new TimeTreeWriter(getDatabase(), delegate, writerExecutor));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        writerExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    @Test
+    public void instantShouldBeCreatedByWriter() {
+        long dayInMillis = new DateTime(2014, 4, 5, 0, 0, DateTimeZone.UTC).getMillis();
+
+        Node dayNode;
+        try (Transaction tx = getDatabase().beginTx()) {
+            dayNode = timeTree.getOrCreateInstant(TimeInstant.instant(dayInMillis));
+            tx.success();
+        }
+
+        assertSameGraph(getDatabase(), "CREATE" +
+                "(root:TimeTreeRoot)," +
+                "(root)-[:FIRST]->(year:Year {value:2014})," +
+                "(root)-[:CHILD]->(year)," +
+                "(root)-[:LAST]->(year)," +
+                "(year)-[:FIRST]->(month:Month {value:4})," +
+                "(year)-[:CHILD]->(month)," +
+                "(year)-[:LAST]->(month)," +
+                "(month)-[:FIRST]->(day:Day {value:5})," +
+                "(month)-[:CHILD]->(day)," +
+                "(month)-[:LAST]->(day)");
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(dayNode, timeTree.getInstant(TimeInstant.instant(dayInMillis)));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void concurrentRequestsShouldResultInOneNodePerInstant() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(16);
+        long start = new DateTime(2014, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+
+        List<Future<Long>> results = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            final long time = start + (i % 40) * 24 * 60 * 60 * 1000L;
+            results.add(callers.submit(() -> {
+                try (Transaction tx = getDatabase().beginTx()) {
+                    long id = timeTree.getOrCreateInstant(TimeInstant.instant(time).with(Resolution.DAY)).getId();
+                    tx.success();
+                    return id;
+                }
+            }));
+        }
+
+        Set<Long> ids = new HashSet<>();
+        for (Future<Long> result : results) {
+            ids.add(result.get());
+        }
+        callers.shutdown();
+
+        assertEquals(40, ids.size());
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(40, count(getDatabase().findNodes(Day)));
+            assertEquals(40, timeTree.getInstants(TimeInstant.instant(start), TimeInstant.instant(start + 39 * 24 * 60 * 60 * 1000L)).size());
+            tx.success();
+        }
+    }
+
+    @Test
+    public void requestShouldBeSkippedByWriterAfterTimeout() {
+        long dayInMillis = new DateTime(2014, 4, 5, 0, 0, DateTimeZone.UTC).getMillis();
+        SingleTimeTree delegate = new SingleTimeTree(getDatabase());
+        List<Runnable> drains = new ArrayList<>();
+        TimeTreeWriter writer = new TimeTreeWriter(getDatabase(), delegate, drains::add);
+        TimeTree stalledTree = new SingleWriterTimeTree(getDatabase(), delegate, writer, 50);
+
+        Node dayNode;
+        try (Transaction tx = getDatabase().beginTx()) {
+            dayNode = delegate.getOrCreateInstant(TimeInstant.instant(dayInMillis));
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            stalledTree.removeInstant(dayNode);
+            tx.success();
+        }
+
+        long created = TimeTreeMetrics.getInstance().snapshot().get("nodesCreated");
+        try (Transaction tx = getDatabase().beginTx()) {
+            stalledTree.getOrCreateInstant(TimeInstant.instant(dayInMillis));
+            tx.success();
+        }
+        assertEquals(created + 3, (long) TimeTreeMetrics.getInstance().snapshot().get("nodesCreated"));
+
+        assertEquals(1, drains.size());
+        drains.get(0).run();
+
+        assertEquals(0, writer.getQueueDepth());
+        assertEquals(created + 3, (long) TimeTreeMetrics.getInstance().snapshot().get("nodesCreated"));
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(1, count(getDatabase().findNodes(Day)));
+            tx.success();
+        }
+    }
+}
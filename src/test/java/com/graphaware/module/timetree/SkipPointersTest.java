@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.metrics.TimeTreeMetrics;
+import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Test for {@link SkipPointers}.
+ */
+public class SkipPointersTest extends EmbeddedDatabaseIntegrationTest {
+
+    private static final long SECOND = new DateTime(2016, 3, 27, 14, 35, 12, 0, DateTimeZone.UTC).getMillis();
+    private static final RelationshipType[] SKIP = {SKIP_1, SKIP_2, SKIP_3, SKIP_4};
+
+    @Test
+    public void denseMillisecondsShouldBeFoundViaSkipPointers() {
+        SkipPointers.forDatabase(getDatabase()).enable();
+        TimeTree timeTree = new SingleTimeTree(getDatabase());
+
+        List<Integer> millis = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            millis.add(i);
+        }
+        Collections.shuffle(millis, new Random(42));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int ms : millis) {
+                timeTree.getOrCreateInstant(millisecond(ms));
+            }
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node second = parentOf(timeTree.getInstant(millisecond(0)));
+            assertTrue(SkipPointers.isMarked(second));
+            assertSkipPointers(second);
+
+            TimeTreeMetrics.getInstance().reset();
+            for (int ms = 0; ms < 1000; ms++) {
+                assertEquals(ms, timeTree.getInstant(millisecond(ms)).getProperty("value"));
+            }
+            assertTrue(TimeTreeMetrics.getInstance().snapshot().get("siblingSteps") <= 1000);
+            tx.success();
+        }
+    }
+
+    @Test
+    public void skipPointersShouldBeMaintainedOnRemoval() {
+        SkipPointers.forDatabase(getDatabase()).enable();
+        TimeTree timeTree = new SingleTimeTree(getDatabase());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int ms = 0; ms < 300; ms++) {
+                timeTree.getOrCreateInstant(millisecond(ms));
+            }
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int ms = 0; ms < 300; ms += 3) {
+                timeTree.removeInstant(timeTree.getInstant(millisecond(ms)));
+            }
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node second = parentOf(timeTree.getInstant(millisecond(1)));
+            assertSkipPointers(second);
+
+            for (int ms = 0; ms < 300; ms++) {
+                Node instant = timeTree.getInstant(millisecond(ms));
+                if (ms % 3 == 0) {
+                    assertNull(instant);
+                } else {
+                    assertEquals(ms, instant.getProperty("value"));
+                }
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void unmarkedParentsShouldNotGetSkipPointers() {
+        TimeTree timeTree = new SingleTimeTree(getDatabase());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node instant = timeTree.getOrCreateInstant(millisecond(16));
+            timeTree.getOrCreateInstant(millisecond(0));
+
+            assertFalse(SkipPointers.isMarked(parentOf(instant)));
+            assertFalse(instant.hasRelationship(SKIP));
+            tx.success();
+        }
+    }
+
+    private TimeInstant millisecond(int ms) {
+        return TimeInstant.instant(SECOND + ms).with(DateTimeZone.UTC).with(Resolution.MILLISECOND);
+    }
+
+    private Node parentOf(Node instant) {
+        return instant.getSingleRelationship(CHILD, INCOMING).getStartNode();
+    }
+
+    /**
+     * Assert that each skip chain connects exactly the children of the parent of its level or higher, in order.
+     */
+    private void assertSkipPointers(Node parent) {
+        for (int level = 1; level <= SKIP.length; level++) {
+            List<Node> expected = new ArrayList<>();
+            Relationship next = parent.getSingleRelationship(FIRST, OUTGOING);
+            while (next != null && next.getEndNode().getSingleRelationship(CHILD, INCOMING).getStartNode().equals(parent)) {
+                Node child = next.getEndNode();
+                if (SkipPointers.level((int) child.getProperty("value")) >= level) {
+                    expected.add(child);
+                }
+                next = child.getSingleRelationship(NEXT, OUTGOING);
+            }
+
+            for (int i = 0; i < expected.size(); i++) {
+                Relationship skip = expected.get(i).getSingleRelationship(SKIP[level - 1], OUTGOING);
+                if (i < expected.size() - 1) {
+                    assertEquals(expected.get(i + 1), skip.getEndNode());
+                } else {
+                    assertNull(skip);
+                }
+            }
+        }
+    }
+}
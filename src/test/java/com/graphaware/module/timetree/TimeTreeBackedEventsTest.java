@@ -17,19 +17,27 @@
 package com.graphaware.module.timetree;
 
 import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.EventTimestamp;
 import com.graphaware.module.timetree.domain.Resolution;
 import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.domain.TimeTreeLabels;
+import com.graphaware.module.timetree.domain.TimedEvent;
 import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.Iterators;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.graphaware.module.timetree.domain.Resolution.MONTH;
 import static com.graphaware.module.timetree.domain.Resolution.YEAR;
@@ -363,6 +371,74 @@ public class TimeTreeBackedEventsTest extends EmbeddedDatabaseIntegrationTest {
         }
     }
 
+    @Test
+    public void eventsShouldBeReturnedInOrderOfTheirTimestamps() {
+        //Given
+        TimeInstant april = TimeInstant.instant(dateToMillis(2014, 4, 1)).with(MONTH);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            attachTimestampedEvent("eventA", TimeInstant.instant(dateToMillis(2014, 4, 5)), dateToMillis(2014, 4, 5) + 20 * 3600_000L);
+            attachTimestampedEvent("eventB", TimeInstant.instant(dateToMillis(2014, 4, 5)), dateToMillis(2014, 4, 5) + 10 * 3600_000L);
+            attachTimestampedEvent("eventC", april, dateToMillis(2014, 4, 5) + 15 * 3600_000L);
+            timedEvents.attachEvent(createEvent("eventD"), AT_TIME, TimeInstant.instant(dateToMillis(2014, 4, 6)));
+            tx.success();
+        }
+
+        //When
+        List<TimedEvent> events;
+        try (Transaction tx = getDatabase().beginTx()) {
+            events = timedEvents.getEventsChronologically(april, april, null, Direction.INCOMING, EventTimestamp.nodeProperty("time"));
+
+            //Then
+            assertEquals(4, events.size());
+            assertEquals("eventB", events.get(0).getEvent().getNode().getProperty("name"));
+            assertEquals("eventC", events.get(1).getEvent().getNode().getProperty("name"));
+            assertEquals("eventA", events.get(2).getEvent().getNode().getProperty("name"));
+            assertEquals("eventD", events.get(3).getEvent().getNode().getProperty("name"));
+            assertEquals(dateToMillis(2014, 4, 6), events.get(3).getTime());
+
+            events = ((TimeTreeBackedEvents) timedEvents).getEventsChronologically(april, april, null, Direction.INCOMING, EventTimestamp.nodeProperty("time"), 2);
+            assertEquals(2, events.size());
+            assertEquals("eventB", events.get(0).getEvent().getNode().getProperty("name"));
+            assertEquals("eventC", events.get(1).getEvent().getNode().getProperty("name"));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void eventsShouldBeOrderedByRelationshipTimestamps() {
+        //Given
+        TimeInstant day = TimeInstant.instant(dateToMillis(2014, 4, 5));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int i = 0; i < 5; i++) {
+                Node event = createEvent("event" + i);
+                timedEvents.attachEvent(event, AT_TIME, day);
+                event.getSingleRelationship(AT_TIME, OUTGOING).setProperty("at", dateToMillis(2014, 4, 5) + (5 - i) * 1000L);
+            }
+            tx.success();
+        }
+
+        //When
+        try (Transaction tx = getDatabase().beginTx()) {
+            List<TimedEvent> events = timedEvents.getEventsChronologically(day, day, null, Direction.INCOMING, EventTimestamp.relationshipProperty("at"));
+
+            //Then
+            assertEquals(5, events.size());
+            for (int i = 0; i < 5; i++) {
+                assertEquals("event" + (4 - i), events.get(i).getEvent().getNode().getProperty("name"));
+                assertEquals(dateToMillis(2014, 4, 5) + (i + 1) * 1000L, events.get(i).getTime());
+            }
+            tx.success();
+        }
+    }
+
+    private void attachTimestampedEvent(String name, TimeInstant timeInstant, long time) {
+        Node event = createEvent(name);
+        event.setProperty("time", time);
+        timedEvents.attachEvent(event, AT_TIME, timeInstant);
+    }
+
     private Node createEvent(String name) {
         Node node = getDatabase().createNode();
         node.setProperty("name", name);
@@ -704,6 +780,44 @@ public class TimeTreeBackedEventsTest extends EmbeddedDatabaseIntegrationTest {
         }
     }
 
+    @Test(timeout = 10000)
+    public void eventsShouldBeFetchedWhileRootIsLockedByAnotherTransaction() throws Exception {
+        TimeInstant timeInstant1 = TimeInstant.instant(dateToMillis(2012, 11, 1));
+        TimeInstant timeInstant2 = TimeInstant.instant(dateToMillis(2012, 11, 3));
+
+        Node root;
+        try (Transaction tx = getDatabase().beginTx()) {
+            timedEvents.attachEvent(getDatabase().createNode(), AT_TIME, timeInstant1);
+            timedEvents.attachEvent(getDatabase().createNode(), AT_TIME, timeInstant2);
+            root = getDatabase().findNodes(TimeTreeLabels.TimeTreeRoot).next();
+            tx.success();
+        }
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            writer.submit(() -> {
+                try (Transaction tx = getDatabase().beginTx()) {
+                    tx.acquireWriteLock(root);
+                    locked.countDown();
+                    release.await();
+                    tx.success();
+                }
+                return null;
+            });
+            locked.await();
+
+            try (Transaction tx = getDatabase().beginTx()) {
+                assertEquals(2, timedEvents.getEvents(timeInstant1, timeInstant2).size());
+                tx.success();
+            }
+        } finally {
+            release.countDown();
+            writer.shutdown();
+        }
+    }
+
     @Test
     public void noEventsShouldBeFetchedWhenThereAreNoEventsInTheRange() {   //Issue #9
         //Given
@@ -733,6 +847,76 @@ public class TimeTreeBackedEventsTest extends EmbeddedDatabaseIntegrationTest {
         }
     }
 
+    @Test
+    public void eventsShouldBeSpreadOverBucketsAndFetchedTransparently() {
+        //Given
+        TimedEvents bucketedEvents = new TimeTreeBackedEvents(new SingleTimeTree(getDatabase()), 4);
+        TimeInstant timeInstant = TimeInstant.instant(dateToMillis(2014, 4, 5));
+        Set<Long> eventIds = new HashSet<>();
+
+        //When
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int i = 0; i < 10; i++) {
+                Node event = getDatabase().createNode();
+                event.setProperty("name", "event" + i);
+                eventIds.add(event.getId());
+                assertTrue(bucketedEvents.attachEvent(event, AT_TIME, timeInstant));
+            }
+            tx.success();
+        }
+
+        //Then
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(4, Iterators.count(getDatabase().findNodes(TimeTreeBackedEvents.BUCKET_LABEL)));
+
+            Node day = new SingleTimeTree(getDatabase()).getInstant(timeInstant);
+            assertEquals(0, count(day.getRelationships(AT_TIME)));
+
+            Set<Long> fetched = new HashSet<>();
+            for (Event event : timedEvents.getEvents(timeInstant)) {
+                assertEquals(AT_TIME.name(), event.getRelationshipType().name());
+                fetched.add(event.getNode().getId());
+            }
+            assertEquals(eventIds, fetched);
+
+            assertEquals(10, timedEvents.getEvents(TimeInstant.instant(dateToMillis(2014, 4, 1)).with(MONTH)).size());
+            tx.success();
+        }
+    }
+
+    @Test
+    public void bucketedEventShouldNotBeAttachedTwice() {
+        //Given
+        TimedEvents bucketedEvents = new TimeTreeBackedEvents(new SingleTimeTree(getDatabase()), 4);
+        TimeInstant timeInstant = TimeInstant.instant(dateToMillis(2014, 4, 5));
+        Node event;
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            event = getDatabase().createNode();
+            event.setProperty("name", "eventA");
+            tx.success();
+        }
+
+        //When
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertTrue(bucketedEvents.attachEvent(event, AT_TIME, timeInstant));
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertFalse(bucketedEvents.attachEvent(event, AT_TIME, timeInstant));
+            assertFalse(timedEvents.attachEvent(event, AT_TIME, timeInstant));
+            tx.success();
+        }
+
+        //Then
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(1, count(event.getRelationships(OUTGOING, AT_TIME)));
+            assertEquals(1, timedEvents.getEvents(timeInstant).size());
+            tx.success();
+        }
+    }
+
     @Test
     @Ignore //save my CPU from frying
     public void perSecondEventsShouldBeFetched() { //Test for Issue #2
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link TimeTreeRegistry}.
+ */
+public class TimeTreeRegistryTest extends EmbeddedDatabaseIntegrationTest {
+
+    @Test
+    public void treesShouldBeReused() {
+        TimeTreeRegistry registry = TimeTreeRegistry.forDatabase(getDatabase());
+
+        assertSame(registry, TimeTreeRegistry.forDatabase(getDatabase()));
+        assertSame(registry.getDefault(), registry.getDefault());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node root = getDatabase().createNode();
+            TimeTree tree = registry.get(root.getId());
+
+            assertTrue(tree instanceof CustomRootTimeTree);
+            assertSame(tree, registry.get(root.getId()));
+            assertSame(tree, registry.get(root));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedTreesShouldBeEvicted() {
+        TimeTreeRegistry registry = TimeTreeRegistry.forDatabase(getDatabase());
+        registry.setCapacity(2);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node root1 = getDatabase().createNode();
+            Node root2 = getDatabase().createNode();
+            Node root3 = getDatabase().createNode();
+
+            TimeTree tree1 = registry.get(root1);
+            TimeTree tree2 = registry.get(root2);
+            registry.get(root1);
+            registry.get(root3);
+
+            assertEquals(2, registry.size());
+            assertSame(tree1, registry.get(root1));
+            assertNotSame(tree2, registry.get(root2));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void treesShouldBeInvalidatedWhenRootIsDeleted() {
+        TimeTreeRegistry registry = TimeTreeRegistry.forDatabase(getDatabase());
+
+        Node root;
+        try (Transaction tx = getDatabase().beginTx()) {
+            root = getDatabase().createNode();
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            registry.get(root);
+            tx.success();
+        }
+
+        assertEquals(1, registry.size());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            root.delete();
+            tx.success();
+        }
+
+        assertEquals(0, registry.size());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.domain;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.MutableDateTime;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for {@link CalendarArithmetic}, comparing it to Joda.
+ */
+public class CalendarArithmeticTest {
+
+    private static final String[] ZONES = {"UTC", "Europe/London", "America/New_York", "Asia/Kolkata",
+            "Australia/Lord_Howe", "Pacific/Apia", "America/Sao_Paulo", "Asia/Kathmandu"};
+
+    @Test
+    public void fieldsShouldMatchJoda() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; i++) {
+            DateTimeZone zone = DateTimeZone.forID(ZONES[random.nextInt(ZONES.length)]);
+            long time = randomTime(random);
+
+            DateTime dateTime = new DateTime(time, zone);
+            long localTime = CalendarArithmetic.toLocal(time, zone);
+            for (Resolution resolution : Resolution.values()) {
+                assertEquals(dateTime + " " + resolution, dateTime.get(resolution.getDateTimeFieldType()), CalendarArithmetic.get(localTime, resolution));
+            }
+        }
+    }
+
+    @Test
+    public void additionShouldMatchJoda() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; i++) {
+            DateTimeZone zone = DateTimeZone.forID(ZONES[random.nextInt(ZONES.length)]);
+            long time = randomTime(random);
+
+            for (Resolution resolution : Resolution.values()) {
+                int amount = random.nextInt(27) - 13;
+                MutableDateTime expected = new MutableDateTime(time, zone);
+                expected.add(resolution.getDateTimeFieldType().getDurationType(), amount);
+
+                assertEquals(new DateTime(time, zone) + " + " + amount + " " + resolution, expected.getMillis(), CalendarArithmetic.add(time, zone, resolution, amount));
+            }
+        }
+    }
+
+    @Test
+    public void nextShouldMatchJoda() {
+        long time = new DateTime(2016, 2, 29, 23, 30, DateTimeZone.UTC).getMillis();
+
+        for (Resolution resolution : Resolution.values()) {
+            MutableDateTime expected = new MutableDateTime(time);
+            expected.add(resolution.getDateTimeFieldType().getDurationType(), 1);
+
+            assertEquals(expected.getMillis(), TimeInstant.next(time, resolution));
+            assertEquals(expected.getMillis(), TimeInstant.instant(time).with(resolution).next().getTime());
+        }
+    }
+
+    private long randomTime(Random random) {
+        //mostly around now, where time zone rules are the richest, sometimes far in the past or future
+        if (random.nextInt(4) == 0) {
+            return (long) ((random.nextDouble() * 2 - 1) * 1e13);
+        }
+        return (long) (random.nextDouble() * 4e12);
+    }
+}
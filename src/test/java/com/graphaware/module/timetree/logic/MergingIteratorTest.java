@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.logic;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link MergingIterator}.
+ */
+public class MergingIteratorTest {
+
+    @Test
+    public void shouldMergeSortedIterators() {
+        List<Iterator<Integer>> iterators = asList(
+                asList(1, 4, 7, 9).iterator(),
+                Collections.<Integer>emptyIterator(),
+                asList(2, 3, 8).iterator(),
+                asList(5, 6).iterator());
+
+        List<Integer> result = new ArrayList<>();
+        new MergingIterator<>(iterators, Comparator.<Integer>naturalOrder()).forEachRemaining(result::add);
+
+        assertEquals(asList(1, 2, 3, 4, 5, 6, 7, 8, 9), result);
+    }
+
+    @Test
+    public void equalElementsShouldComeInOrderOfIterators() {
+        List<Iterator<String>> iterators = asList(
+                asList("b1", "c1").iterator(),
+                asList("a2", "b2").iterator(),
+                asList("b3").iterator());
+
+        List<String> result = new ArrayList<>();
+        new MergingIterator<>(iterators, Comparator.comparing((String s) -> s.charAt(0))).forEachRemaining(result::add);
+
+        assertEquals(asList("a2", "b1", "b2", "b3", "c1"), result);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void emptyIteratorShouldThrowOnNext() {
+        new MergingIterator<>(Collections.<Iterator<Integer>>emptyList(), Comparator.<Integer>naturalOrder()).next();
+    }
+}
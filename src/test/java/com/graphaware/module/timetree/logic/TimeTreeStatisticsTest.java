@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.logic;
+
+import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.TimeTree;
+import com.graphaware.module.timetree.TimeTreeBackedEvents;
+import com.graphaware.module.timetree.TimedEvents;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.domain.TimeTreeLabels;
+import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link TimeTreeStatistics}.
+ */
+public class TimeTreeStatisticsTest extends EmbeddedDatabaseIntegrationTest {
+
+    @Test
+    public void statisticsShouldDescribeTree() {
+        Node root = populate();
+
+        List<TimeTreeStatistics.LevelStatistics> levels = new TimeTreeStatistics(getDatabase()).compute(root, 1.0);
+
+        assertEquals(3, levels.size());
+
+        assertEquals(Resolution.YEAR, levels.get(0).getResolution());
+        assertEquals(1, levels.get(0).getInstants());
+        assertEquals(0, levels.get(0).getEvents());
+
+        assertEquals(Resolution.MONTH, levels.get(1).getResolution());
+        assertEquals(2, levels.get(1).getInstants());
+        assertEquals(2, levels.get(1).getMaxSiblingChain());
+
+        assertEquals(Resolution.DAY, levels.get(2).getResolution());
+        assertEquals(4, levels.get(2).getInstants());
+        assertEquals(4, levels.get(2).getVisitedInstants());
+        assertEquals(3, levels.get(2).getMaxSiblingChain());
+        assertEquals(4, levels.get(2).getEvents());
+        assertEquals(3, levels.get(2).getEventsPerInstant().getMax());
+    }
+
+    @Test
+    public void sampledStatisticsShouldBeScaled() {
+        Node root = populate();
+
+        List<TimeTreeStatistics.LevelStatistics> levels = new TimeTreeStatistics(getDatabase(), new Random(42)).compute(root, 0.5);
+
+        assertEquals(1, levels.get(0).getInstants());
+        for (TimeTreeStatistics.LevelStatistics level : levels) {
+            assertTrue(level.getVisitedInstants() <= level.getInstants());
+        }
+
+        //every level below the root's children is scaled by the same factor, not one compounding with depth
+        for (TimeTreeStatistics.LevelStatistics level : levels.subList(1, levels.size())) {
+            assertEquals(2 * level.getVisitedInstants(), level.getInstants());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSampleShouldBeRejected() {
+        new TimeTreeStatistics(getDatabase()).compute(populate(), 0);
+    }
+
+    private Node populate() {
+        TimeTree timeTree = new SingleTimeTree(getDatabase());
+        TimedEvents timedEvents = new TimeTreeBackedEvents(timeTree, 2);
+        TimeInstant day = TimeInstant.instant(new DateTime(2014, 4, 5, 0, 0, DateTimeZone.UTC).getMillis());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int i = 0; i < 3; i++) {
+                timedEvents.attachEvent(getDatabase().createNode(), RelationshipType.withName("AT"), day);
+            }
+            timedEvents.attachEvent(getDatabase().createNode(), RelationshipType.withName("AT"), day.next().next());
+            timeTree.getOrCreateInstant(day.next());
+            timeTree.getOrCreateInstant(TimeInstant.instant(new DateTime(2014, 5, 1, 0, 0, DateTimeZone.UTC).getMillis()));
+            tx.success();
+        }
+
+        Node root;
+        try (Transaction tx = getDatabase().beginTx()) {
+            root = getDatabase().findNodes(TimeTreeLabels.TimeTreeRoot).next();
+            tx.success();
+        }
+
+        return root;
+    }
+}
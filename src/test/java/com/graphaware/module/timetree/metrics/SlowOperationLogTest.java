@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.metrics;
+
+import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.TimeTreeBackedEvents;
+import com.graphaware.module.timetree.TimedEvents;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link SlowOperationLog}.
+ */
+public class SlowOperationLogTest extends EmbeddedDatabaseIntegrationTest {
+
+    @After
+    public void disableLog() {
+        SlowOperationLog.disable();
+    }
+
+    @Test
+    public void operationsShouldNotBeTracedWhenDisabled() {
+        assertFalse(SlowOperationLog.isEnabled());
+        assertFalse(SlowOperationLog.start("test").isTraced());
+    }
+
+    @Test
+    public void operationsShouldBeSampled() {
+        SlowOperationLog.enable(0, 1.0);
+        assertTrue(SlowOperationLog.start("test").isTraced());
+
+        SlowOperationLog.enable(0, 0.0);
+        assertFalse(SlowOperationLog.start("test").isTraced());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSamplingShouldBeRejected() {
+        SlowOperationLog.enable(100, 1.5);
+    }
+
+    @Test
+    public void tracedOperationsShouldReturnSameResults() {
+        SlowOperationLog.enable(0, 1.0);
+
+        TimedEvents timedEvents = new TimeTreeBackedEvents(new SingleTimeTree(getDatabase()));
+        TimeInstant day = TimeInstant.instant(new DateTime(2014, 4, 5, 0, 0, DateTimeZone.UTC).getMillis());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertTrue(timedEvents.attachEvent(getDatabase().createNode(), RelationshipType.withName("AT"), day));
+            assertTrue(timedEvents.attachEvent(getDatabase().createNode(), RelationshipType.withName("AT"), day.next()));
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(1, timedEvents.getEvents(day).size());
+            assertEquals(2, timedEvents.getEvents(day, day.next()).size());
+            tx.success();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.metrics;
+
+import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.TimeTreeBackedEvents;
+import com.graphaware.module.timetree.TimedEvents;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link TimeTreeMetrics} and {@link Histogram}.
+ */
+public class TimeTreeMetricsTest extends EmbeddedDatabaseIntegrationTest {
+
+    @Test
+    public void histogramShouldReportApproximatePercentiles() {
+        Histogram histogram = new Histogram();
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(50, histogram.getMean());
+        assertEquals(100, histogram.getMax());
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(99));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void hotPathsShouldBeMeasured() throws Exception {
+        TimeTreeMetrics metrics = TimeTreeMetrics.getInstance();
+        Map<String, Long> before = metrics.snapshot();
+
+        TimedEvents timedEvents = new TimeTreeBackedEvents(new SingleTimeTree(getDatabase()));
+        TimeInstant day = TimeInstant.instant(new DateTime(2014, 4, 5, 0, 0, DateTimeZone.UTC).getMillis());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node event = getDatabase().createNode();
+            timedEvents.attachEvent(event, RelationshipType.withName("AT"), day);
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(1, timedEvents.getEvents(day).size());
+            tx.success();
+        }
+
+        Map<String, Long> after = metrics.snapshot();
+
+        assertEquals(3, after.get("nodesCreated") - before.get("nodesCreated"));
+        assertEquals(1, after.get("eventsAttached") - before.get("eventsAttached"));
+        assertEquals(1, after.get("eventsReturned") - before.get("eventsReturned"));
+        assertEquals(1, after.get("eventRetrieval.count") - before.get("eventRetrieval.count"));
+        assertTrue(after.get("descents") - before.get("descents") >= 2);
+        assertTrue(after.get("rootLockWait.count") - before.get("rootLockWait.count") >= 1);
+
+        assertEquals(after.get("nodesCreated"), ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(TimeTreeMetrics.OBJECT_NAME), "nodesCreated"));
+    }
+}
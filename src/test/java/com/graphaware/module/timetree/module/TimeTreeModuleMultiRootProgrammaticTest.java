@@ -29,11 +29,17 @@ import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.graphaware.module.timetree.domain.Resolution.MONTH;
 import static com.graphaware.test.unit.GraphUnit.assertSameGraph;
+import static org.junit.Assert.assertEquals;
 import static org.neo4j.graphdb.Label.label;
 
 /**
@@ -552,6 +558,43 @@ public class TimeTreeModuleMultiRootProgrammaticTest extends EmbeddedDatabaseInt
         temporaryFolder.delete();
     }
 
+    @Test
+    public void concurrentTransactionsAttachingEventsToSeveralRootsShouldNotDeadlock() throws Exception {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration(), getDatabase()));
+        runtime.start();
+
+        long firstRoot = createCustomRoot();
+        long secondRoot = createCustomRoot();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            long[] roots = i % 2 == 0 ? new long[]{firstRoot, secondRoot} : new long[]{secondRoot, firstRoot};
+            long timestamp = TIMESTAMP + i * 24 * 60 * 60 * 1000L;
+            results.add(executor.submit(() -> {
+                try (Transaction tx = getDatabase().beginTx()) {
+                    for (long root : roots) {
+                        Node node = getDatabase().createNode(Event);
+                        node.setProperty("timestamp", timestamp);
+                        node.setProperty("timeTreeRootId", root);
+                    }
+                    tx.success();
+                }
+            }));
+        }
+
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(400L, getDatabase().execute("MATCH (e:Event)-[:AT_TIME]->(:Day) RETURN count(e) AS events").next().get("events"));
+            tx.success();
+        }
+    }
+
     private void createEvent(long rootId) {
         createEvent(rootId, Event);
     }
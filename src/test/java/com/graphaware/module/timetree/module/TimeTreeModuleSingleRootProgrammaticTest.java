@@ -17,6 +17,8 @@
 package com.graphaware.module.timetree.module;
 
 import com.graphaware.common.policy.inclusion.BaseNodeInclusionPolicy;
+import com.graphaware.module.timetree.domain.TimeTreeLabels;
+import com.graphaware.module.timetree.metrics.TimeTreeMetrics;
 import com.graphaware.runtime.GraphAwareRuntime;
 import com.graphaware.runtime.GraphAwareRuntimeFactory;
 import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
@@ -25,6 +27,7 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.helpers.collection.Iterators;
 
 import java.io.File;
 import java.io.IOException;
@@ -36,6 +39,8 @@ import java.util.TimeZone;
 import static com.graphaware.module.timetree.domain.Resolution.MINUTE;
 import static com.graphaware.module.timetree.domain.Resolution.MONTH;
 import static com.graphaware.test.unit.GraphUnit.assertSameGraph;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.neo4j.graphdb.Label.label;
 
 /**
@@ -126,6 +131,93 @@ public class TimeTreeModuleSingleRootProgrammaticTest extends EmbeddedDatabaseIn
         );
     }
 
+    @Test
+    public void eventsNotAttachedBeforeStartShouldBeAttachedAsynchronously() throws InterruptedException {
+        createEvent(Event);
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        TimeTreeModule module = new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration().withAsyncAttach(true).withAsyncAttachDelay(10), getDatabase());
+        runtime.registerModule(module);
+        runtime.start();
+
+        for (int i = 0; i < 100 && !eventAttached(); i++) {
+            Thread.sleep(50);
+        }
+
+        assertTrue(eventAttached());
+        assertEquals(0, module.queueUnattachedEvents());
+    }
+
+    @Test
+    public void shouldAttachEventAsynchronously() throws InterruptedException {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        TimeTreeModule module = new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration().withAsyncAttach(true).withAsyncAttachDelay(10), getDatabase());
+        runtime.registerModule(module);
+        runtime.start();
+
+        long attachedBefore = asyncEventsAttached();
+
+        createEvent();
+
+        for (int i = 0; i < 100 && (!eventAttached() || asyncEventsAttached() == attachedBefore); i++) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(0, module.getAsyncQueueDepth());
+        assertEquals(attachedBefore + 1, asyncEventsAttached());
+        assertSameGraph(getDatabase(), "CREATE " +
+                        "(event:Event {subject:'Neo4j', timestamp:" + TIMESTAMP + "})," +
+                        "(root:TimeTreeRoot)," +
+                        "(root)-[:FIRST]->(year:Year {value:2015})," +
+                        "(root)-[:CHILD]->(year)," +
+                        "(root)-[:LAST]->(year)," +
+                        "(year)-[:FIRST]->(month:Month {value:4})," +
+                        "(year)-[:CHILD]->(month)," +
+                        "(year)-[:LAST]->(month)," +
+                        "(month)-[:FIRST]->(day:Day {value:5})," +
+                        "(month)-[:CHILD]->(day)," +
+                        "(month)-[:LAST]->(day)," +
+                        "(day)<-[:AT_TIME]-(event)"
+        );
+    }
+
+    @Test
+    public void shouldAttachEventWithSingleWriter() {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration().withSingleWriter(true), getDatabase()));
+        runtime.start();
+
+        createEvent();
+
+        assertSameGraph(getDatabase(), "CREATE " +
+                        "(event:Event {subject:'Neo4j', timestamp:" + TIMESTAMP + "})," +
+                        "(root:TimeTreeRoot)," +
+                        "(root)-[:FIRST]->(year:Year {value:2015})," +
+                        "(root)-[:CHILD]->(year)," +
+                        "(root)-[:LAST]->(year)," +
+                        "(year)-[:FIRST]->(month:Month {value:4})," +
+                        "(year)-[:CHILD]->(month)," +
+                        "(year)-[:LAST]->(month)," +
+                        "(month)-[:FIRST]->(day:Day {value:5})," +
+                        "(month)-[:CHILD]->(day)," +
+                        "(month)-[:LAST]->(day)," +
+                        "(day)<-[:AT_TIME]-(event)"
+        );
+    }
+
+    @Test
+    public void shouldPreCreateFuturePeriods() throws InterruptedException {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration().withPreCreatePeriods(2), getDatabase()));
+        runtime.start();
+
+        for (int i = 0; i < 100 && countDays() < 3; i++) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(3, countDays());
+    }
+
     @Test
     public void shouldAttachEventWithMultipleLabels() {
         GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
@@ -551,6 +643,23 @@ public class TimeTreeModuleSingleRootProgrammaticTest extends EmbeddedDatabaseIn
         createEvent(Event);
     }
 
+    private long countDays() {
+        try (Transaction tx = getDatabase().beginTx()) {
+            long result = Iterators.count(getDatabase().findNodes(TimeTreeLabels.Day));
+            tx.success();
+            return result;
+        }
+    }
+
+    private boolean eventAttached() {
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node event = getDatabase().findNodes(Event).next();
+            boolean result = event.hasRelationship(RelationshipType.withName("AT_TIME"));
+            tx.success();
+            return result;
+        }
+    }
+
     private void createEvent(Label... labels) {
         try (Transaction tx = getDatabase().beginTx()) {
             Node node = getDatabase().createNode(labels);
@@ -559,4 +668,8 @@ public class TimeTreeModuleSingleRootProgrammaticTest extends EmbeddedDatabaseIn
             tx.success();
         }
     }
+
+    private long asyncEventsAttached() {
+        return TimeTreeMetrics.getInstance().snapshot().get("asyncEventsAttached");
+    }
 }
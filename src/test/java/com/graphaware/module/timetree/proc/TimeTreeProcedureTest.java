@@ -26,6 +26,7 @@ import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
 
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TimeZone;
@@ -184,6 +185,82 @@ public class TimeTreeProcedureTest extends GraphAwareIntegrationTest {
 
     }
 
+    @Test
+    public void testGetOrCreateEndpointsOnly() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("startTime", dateToMillis(2013, 5, 4));
+        params.put("endTime", dateToMillis(2013, 5, 7));
+        try (Transaction tx = getDatabase().beginTx()) {
+            Result result = getDatabase().execute("CALL ga.timetree.range({start: {startTime}, end: {endTime}, mode: 'endpoints'}) YIELD instant return instant", params);
+            ResourceIterator<Node> resIterator = result.columnAs("instant");
+            assertEquals(4, resIterator.next().getProperty("value"));
+            assertEquals(7, resIterator.next().getProperty("value"));
+            assertFalse(resIterator.hasNext());
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Result result = getDatabase().execute("CALL ga.timetree.range({start: {startTime}, end: {endTime}, mode: 'existing'}) YIELD instant return instant", params);
+            ResourceIterator<Node> resIterator = result.columnAs("instant");
+            assertEquals(2, resIterator.stream().count());
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Result result = getDatabase().execute("CALL ga.timetree.range({start: {startTime}, end: {endTime}, mode: 'all', batchSize: 2}) YIELD instant return instant", params);
+            ResourceIterator<Node> resIterator = result.columnAs("instant");
+            assertEquals(4, resIterator.stream().count());
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testGetInstantsWrongMode() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("startTime", dateToMillis(2013, 5, 4));
+        params.put("endTime", dateToMillis(2013, 5, 7));
+        try (Transaction tx = getDatabase().beginTx()) {
+            getDatabase().execute("CALL ga.timetree.range({start: {startTime}, end: {endTime}, mode: 'some'}) YIELD instant return instant", params).resultAsString();
+            fail("This should be unreached");
+            tx.success();
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getMessage().contains("Wrong parameter value for 'mode'"));
+        }
+    }
+
+    @Test
+    public void testStats() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("startTime", dateToMillis(2013, 5, 4));
+        params.put("endTime", dateToMillis(2013, 5, 7));
+        try (Transaction tx = getDatabase().beginTx()) {
+            getDatabase().execute("CALL ga.timetree.range({start: {startTime}, end: {endTime}, create: true})", params).resultAsString();
+
+            Map<String, Long> instants = new HashMap<>();
+            getDatabase().execute("CALL ga.timetree.stats() YIELD resolution, instants RETURN resolution, instants").forEachRemaining(row -> instants.put((String) row.get("resolution"), (Long) row.get("instants")));
+
+            assertEquals(Long.valueOf(1), instants.get("YEAR"));
+            assertEquals(Long.valueOf(1), instants.get("MONTH"));
+            assertEquals(Long.valueOf(4), instants.get("DAY"));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testMetrics() {
+        try (Transaction tx = getDatabase().beginTx()) {
+            getDatabase().execute("CALL ga.timetree.merge({time: {time}})", Collections.singletonMap("time", dateToMillis(2013, 5, 4))).resultAsString();
+
+            Map<String, Long> metrics = new HashMap<>();
+            getDatabase().execute("CALL ga.timetree.metrics() YIELD name, value RETURN name, value").forEachRemaining(row -> metrics.put((String) row.get("name"), (Long) row.get("value")));
+
+            assertTrue(metrics.get("nodesCreated") >= 3);
+            assertTrue(metrics.get("instantCreation.count") >= 1);
+            assertTrue(metrics.containsKey("rootLockWait.p99"));
+            tx.success();
+        }
+    }
+
     @Test
     public void testGetOrCreateInstantsWrongParams() {
         long startDateInMillis = dateToMillis(2013, 5, 4);
@@ -334,6 +334,38 @@ public class TimedEventsProcedureTest extends GraphAwareIntegrationTest {
         assertEquals(1, i);
     }
 
+    @Test
+    public void eventsAcrossRootsShouldBeMergedByTimeAndLimited() {
+        long first;
+        long second;
+        try (Transaction tx = getDatabase().beginTx()) {
+            first = getDatabase().createNode(Label.label("Person")).getId();
+            second = getDatabase().createNode(Label.label("Person")).getId();
+            for (int day = 1; day <= 5; day++) {
+                getDatabase().execute("CREATE (n:Email {day: " + day + ", time: " + dateToMillis(2015, 1, day, 16) + ", timeTreeRootId: " + (day % 2 == 1 ? first : second) + "})");
+            }
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Result rs = getDatabase().execute("MATCH (a:Person), (b:Person) WHERE id(a) = " + first + " AND id(b) = " + second + " " +
+                    "CALL ga.timetree.events.rangeAcrossRoots(" +
+                    "{roots: [a, b], start: " + dateToMillis(2015, 1, 1, 0) + ", end: " + dateToMillis(2015, 1, 31, 0) + ", limit: 3}) " +
+                    "YIELD node, root, time RETURN node.day AS day, id(root) AS root, time");
+
+            int day = 0;
+            while (rs.hasNext()) {
+                Map<String, Object> record = rs.next();
+                day++;
+                assertEquals((long) day, record.get("day"));
+                assertEquals(day % 2 == 1 ? first : second, record.get("root"));
+                assertEquals(dateToMillis(2015, 1, day, 16), record.get("time"));
+            }
+            assertEquals(3, day);
+            tx.success();
+        }
+    }
+
     private Map<String, Object> getParamsMapForTime(long time) {
         Map<String, Object> params = new HashMap<>();
         params.put("time", time);
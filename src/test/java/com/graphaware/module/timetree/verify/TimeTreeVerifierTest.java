@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.verify;
+
+import com.graphaware.module.timetree.OptimisticCreation;
+import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.TimeTree;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.domain.TimeTreeLabels;
+import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Test for {@link TimeTreeVerifier}.
+ */
+public class TimeTreeVerifierTest extends EmbeddedDatabaseIntegrationTest {
+
+    private TimeTree timeTree;
+    private Node root;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        timeTree = new SingleTimeTree(getDatabase());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstants(day(2014, 4, 28), day(2014, 5, 3));
+            root = getDatabase().findNodes(TimeTreeLabels.TimeTreeRoot).next();
+            tx.success();
+        }
+    }
+
+    @Test
+    public void validTreeShouldHaveNoIssues() {
+        VerificationReport report = new TimeTreeVerifier(getDatabase()).verify(root);
+
+        assertTrue(report.isValid());
+        assertEquals(1 + 2 + 6, report.getInstantsVisited());
+    }
+
+    @Test
+    public void brokenChainsShouldBeFoundAndRepaired() {
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node april29 = timeTree.getInstant(day(2014, 4, 29));
+            april29.getSingleRelationship(NEXT, OUTGOING).delete();
+
+            Node may = timeTree.getInstant(day(2014, 5, 1).with(Resolution.MONTH));
+            may.getSingleRelationship(LAST, OUTGOING).delete();
+
+            Node april30 = timeTree.getInstant(day(2014, 4, 30));
+            april30.getSingleRelationship(NEXT, OUTGOING).delete();
+            tx.success();
+        }
+
+        TimeTreeVerifier verifier = new TimeTreeVerifier(getDatabase());
+
+        VerificationReport report = verifier.verify(root);
+        assertFalse(report.isValid());
+        assertEquals(1, (long) report.getIssueCounts().get(TreeIssue.Type.BROKEN_SIBLING_CHAIN));
+        assertEquals(1, (long) report.getIssueCounts().get(TreeIssue.Type.WRONG_LAST));
+        assertEquals(1, (long) report.getIssueCounts().get(TreeIssue.Type.BROKEN_LEVEL_CHAIN));
+        assertEquals(0, report.getRepairedCount());
+
+        report = verifier.repair(root, 1);
+        assertEquals(3, report.getRepairedCount());
+
+        assertTrue(verifier.verify(root).isValid());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(timeTree.getInstant(day(2014, 5, 1)), timeTree.getInstant(day(2014, 4, 30)).getSingleRelationship(NEXT, OUTGOING).getEndNode());
+            tx.success();
+        }
+    }
+
+    @Test
+    public void duplicatesShouldBeMerged() {
+        RelationshipType at = RelationshipType.withName("AT");
+
+        Node duplicate;
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node april29 = timeTree.getInstant(day(2014, 4, 29));
+            Node april = april29.getSingleRelationship(CHILD, INCOMING).getStartNode();
+
+            duplicate = getDatabase().createNode(TimeTreeLabels.Day);
+            duplicate.setProperty("value", 29);
+            april.createRelationshipTo(duplicate, CHILD);
+            getDatabase().createNode().createRelationshipTo(duplicate, at);
+            tx.success();
+        }
+
+        TimeTreeVerifier verifier = new TimeTreeVerifier(getDatabase());
+
+        VerificationReport report = verifier.verify(root);
+        assertEquals(1, (long) report.getIssueCounts().get(TreeIssue.Type.DUPLICATE_VALUE));
+
+        verifier.repair(root, 100);
+        assertTrue(verifier.verify(root).isValid());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node april29 = timeTree.getInstant(day(2014, 4, 29));
+            assertNotEquals(duplicate.getId(), april29.getId());
+            assertEquals(1, april29.getDegree(at, INCOMING));
+            tx.success();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void repairShouldBeRefusedWhileOptimisticCreationIsEnabled() {
+        OptimisticCreation.forDatabase(getDatabase()).enable();
+        try {
+            new TimeTreeVerifier(getDatabase()).repair(root, 100);
+        } finally {
+            OptimisticCreation.forDatabase(getDatabase()).disable();
+        }
+    }
+
+    @Test
+    public void parallelVerificationShouldFindSameIssues() {
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstants(day(2014, 12, 30), day(2015, 1, 2));
+            timeTree.getOrCreateInstant(day(2016, 6, 1));
+            tx.success();
+        }
+
+        TimeTreeVerifier verifier = new TimeTreeVerifier(getDatabase());
+
+        VerificationReport sequential = verifier.verify(root);
+        VerificationReport parallel = verifier.verify(root, 4);
+        assertTrue(parallel.isValid());
+        assertEquals(sequential.getInstantsVisited(), parallel.getInstantsVisited());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getInstant(day(2014, 12, 31)).getSingleRelationship(NEXT, OUTGOING).delete();
+            timeTree.getInstant(day(2014, 4, 29)).getSingleRelationship(NEXT, OUTGOING).delete();
+            tx.success();
+        }
+
+        sequential = verifier.verify(root);
+        parallel = verifier.verify(root, 4);
+        assertEquals(2, parallel.getIssueCount());
+        assertEquals(1, (long) parallel.getIssueCounts().get(TreeIssue.Type.BROKEN_LEVEL_CHAIN));
+        assertEquals(1, (long) parallel.getIssueCounts().get(TreeIssue.Type.BROKEN_SIBLING_CHAIN));
+        assertEquals(sequential.getIssueCounts(), parallel.getIssueCounts());
+    }
+
+    private TimeInstant day(int year, int month, int day) {
+        return TimeInstant.instant(new DateTime(year, month, day, 0, 0, DateTimeZone.UTC).getMillis());
+    }
+}